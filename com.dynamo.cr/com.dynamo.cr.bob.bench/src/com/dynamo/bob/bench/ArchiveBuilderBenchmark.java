@@ -0,0 +1,118 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ManifestBuilder;
+import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+
+/**
+ * Writing of the game archive, including compression, encryption of scripts and hashing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class ArchiveBuilderBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int resourceCount;
+
+    private File contentRoot;
+    private File outputIndex;
+    private File outputData;
+    private Path resourcePackDir;
+    private List<String> resources;
+
+    // Mixed resource types, sizes and compressibility
+    private static final String[] EXTENSIONS = { "texturec", "spritec", "goc", "collectionc", "scriptc", "luac", "fontc", "materialc" };
+
+    @Setup
+    public void setup() throws IOException {
+        contentRoot = Files.createTempDirectory("bob-bench").toFile();
+        outputIndex = new File(contentRoot, "game.arci");
+        outputData = new File(contentRoot, "game.arcd");
+        resourcePackDir = Files.createTempDirectory(contentRoot.toPath(), "resourcepack");
+        resources = new ArrayList<String>(resourceCount);
+        Random random = new Random(1234);
+        for (int i = 0; i < resourceCount; ++i) {
+            String ext = EXTENSIONS[i % EXTENSIONS.length];
+            int size = ext.equals("texturec") ? 16 * 1024 + random.nextInt(256 * 1024) : 64 + random.nextInt(4 * 1024);
+            byte[] data = new byte[size];
+            if (ext.equals("texturec")) {
+                // Texture data is mostly incompressible
+                random.nextBytes(data);
+            } else {
+                for (int j = 0; j < size; ++j) {
+                    data[j] = (byte) ('a' + random.nextInt(8));
+                }
+            }
+            File file = new File(contentRoot, String.format("build/default/main/dir%d/resource%d.%s", i % 32, i, ext));
+            FileUtils.writeByteArrayToFile(file, data);
+            resources.add(file.getAbsolutePath());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(contentRoot);
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder archiveBuilder = new ArchiveBuilder(new File(contentRoot, "build/default").getAbsolutePath(), manifestBuilder);
+        for (int i = 0; i < resources.size(); ++i) {
+            archiveBuilder.add(resources.get(i), i % 4 != 0);
+        }
+        outputIndex.delete();
+        outputData.delete();
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        try {
+            archiveBuilder.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        } finally {
+            archiveIndex.close();
+            archiveData.close();
+        }
+        return archiveBuilder.getArchiveIndexHash();
+    }
+}
@@ -0,0 +1,123 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.pipeline.ColladaUtil;
+import com.dynamo.bob.pipeline.LoaderException;
+import com.dynamo.rig.proto.Rig;
+
+/**
+ * Loading of a Collada grid mesh with positions, normals and texture coordinates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ColladaBenchmark {
+
+    // Number of quads along each side of the grid
+    @Param({"8", "64", "256"})
+    public int gridSize;
+
+    private byte[] dae;
+
+    @Setup
+    public void setup() {
+        int n = gridSize + 1;
+        StringBuilder positions = new StringBuilder();
+        StringBuilder texcoords = new StringBuilder();
+        for (int y = 0; y < n; ++y) {
+            for (int x = 0; x < n; ++x) {
+                positions.append(String.format(Locale.ROOT, "%f %f 0 ", x / (float) gridSize - 0.5f, y / (float) gridSize - 0.5f));
+                texcoords.append(String.format(Locale.ROOT, "%f %f ", x / (float) gridSize, y / (float) gridSize));
+            }
+        }
+        // Vertex, normal and texture coordinate index per corner, two triangles per quad
+        StringBuilder indices = new StringBuilder();
+        for (int y = 0; y < gridSize; ++y) {
+            for (int x = 0; x < gridSize; ++x) {
+                int i0 = y * n + x;
+                int i1 = i0 + 1;
+                int i2 = i0 + n;
+                int i3 = i2 + 1;
+                for (int i : new int[] { i0, i1, i3, i0, i3, i2 }) {
+                    indices.append(i).append(" 0 ").append(i).append(' ');
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<COLLADA xmlns=\"http://www.collada.org/2005/11/COLLADASchema\" version=\"1.4.1\">\n");
+        sb.append("<asset><unit name=\"meter\" meter=\"1\"/><up_axis>Y_UP</up_axis></asset>\n");
+        sb.append("<library_geometries><geometry id=\"Grid-mesh\" name=\"Grid\"><mesh>\n");
+        sb.append(String.format("<source id=\"Grid-mesh-positions\"><float_array id=\"Grid-mesh-positions-array\" count=\"%d\">%s</float_array>", n * n * 3, positions));
+        sb.append(String.format("<technique_common><accessor source=\"#Grid-mesh-positions-array\" count=\"%d\" stride=\"3\">", n * n));
+        sb.append("<param name=\"X\" type=\"float\"/><param name=\"Y\" type=\"float\"/><param name=\"Z\" type=\"float\"/></accessor></technique_common></source>\n");
+        sb.append("<source id=\"Grid-mesh-normals\"><float_array id=\"Grid-mesh-normals-array\" count=\"3\">0 0 1</float_array>");
+        sb.append("<technique_common><accessor source=\"#Grid-mesh-normals-array\" count=\"1\" stride=\"3\">");
+        sb.append("<param name=\"X\" type=\"float\"/><param name=\"Y\" type=\"float\"/><param name=\"Z\" type=\"float\"/></accessor></technique_common></source>\n");
+        sb.append(String.format("<source id=\"Grid-mesh-map\"><float_array id=\"Grid-mesh-map-array\" count=\"%d\">%s</float_array>", n * n * 2, texcoords));
+        sb.append(String.format("<technique_common><accessor source=\"#Grid-mesh-map-array\" count=\"%d\" stride=\"2\">", n * n));
+        sb.append("<param name=\"S\" type=\"float\"/><param name=\"T\" type=\"float\"/></accessor></technique_common></source>\n");
+        sb.append("<vertices id=\"Grid-mesh-vertices\"><input semantic=\"POSITION\" source=\"#Grid-mesh-positions\"/></vertices>\n");
+        sb.append(String.format("<triangles count=\"%d\">", gridSize * gridSize * 2));
+        sb.append("<input semantic=\"VERTEX\" source=\"#Grid-mesh-vertices\" offset=\"0\"/>");
+        sb.append("<input semantic=\"NORMAL\" source=\"#Grid-mesh-normals\" offset=\"1\"/>");
+        sb.append("<input semantic=\"TEXCOORD\" source=\"#Grid-mesh-map\" offset=\"2\" set=\"0\"/>");
+        sb.append("<p>").append(indices).append("</p></triangles>\n");
+        sb.append("</mesh></geometry></library_geometries>\n");
+        sb.append("<library_visual_scenes><visual_scene id=\"Scene\" name=\"Scene\"><node id=\"Grid\" name=\"Grid\" type=\"NODE\">");
+        sb.append("<matrix sid=\"transform\">1 0 0 0 0 1 0 0 0 0 1 0 0 0 0 1</matrix><instance_geometry url=\"#Grid-mesh\"/></node></visual_scene></library_visual_scenes>\n");
+        sb.append("<scene><instance_visual_scene url=\"#Scene\"/></scene>\n");
+        sb.append("</COLLADA>\n");
+        dae = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Rig.MeshSet.Builder loadMesh() throws IOException, XMLStreamException, LoaderException {
+        Rig.MeshSet.Builder meshSet = Rig.MeshSet.newBuilder();
+        ColladaUtil.loadMesh(new ByteArrayInputStream(dae), meshSet);
+        return meshSet;
+    }
+
+    @Benchmark
+    public Rig.MeshSet.Builder loadMeshOptimized() throws IOException, XMLStreamException, LoaderException {
+        Rig.MeshSet.Builder meshSet = Rig.MeshSet.newBuilder();
+        ColladaUtil.loadMesh(new ByteArrayInputStream(dae), meshSet, true);
+        return meshSet;
+    }
+}
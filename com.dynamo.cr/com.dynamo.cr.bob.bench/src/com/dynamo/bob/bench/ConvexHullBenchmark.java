@@ -0,0 +1,73 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.tile.ConvexHull2D;
+import com.dynamo.bob.tile.ConvexHull2D.PointF;
+
+/**
+ * Sprite trimming hulls of images with a blob of opaque pixels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConvexHullBenchmark {
+
+    @Param({"64", "256", "1024"})
+    public int imageSize;
+
+    @Param({"4", "8"})
+    public int vertexCount;
+
+    private int[] mask;
+
+    @Setup
+    public void setup() {
+        mask = new int[imageSize * imageSize];
+        // An off-center ellipse, leaving transparent borders to trim
+        double cx = imageSize * 0.45;
+        double cy = imageSize * 0.55;
+        double rx = imageSize * 0.35;
+        double ry = imageSize * 0.25;
+        for (int y = 0; y < imageSize; ++y) {
+            for (int x = 0; x < imageSize; ++x) {
+                double dx = (x - cx) / rx;
+                double dy = (y - cy) / ry;
+                mask[y * imageSize + x] = dx * dx + dy * dy <= 1.0 ? 255 : 0;
+            }
+        }
+    }
+
+    @Benchmark
+    public PointF[] imageConvexHullCorners() {
+        return ConvexHull2D.imageConvexHullCorners(mask, imageSize, imageSize, vertexCount);
+    }
+}
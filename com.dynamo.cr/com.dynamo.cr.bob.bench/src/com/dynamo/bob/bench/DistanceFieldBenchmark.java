@@ -0,0 +1,75 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.font.DistanceFieldGenerator;
+
+/**
+ * Rendering of a distance field glyph, with the outline approximated by line segments
+ * the way the font builder flattens glyph curves
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DistanceFieldBenchmark {
+
+    @Param({"16", "32", "64"})
+    public int glyphSize;
+
+    @Param({"32", "256"})
+    public int segmentCount;
+
+    private DistanceFieldGenerator generator;
+    private double[] output;
+
+    @Setup
+    public void setup() {
+        generator = new DistanceFieldGenerator();
+        // A ring, i.e. an outer and an inner contour such as the glyph 'o'
+        int half = segmentCount / 2;
+        for (int contour = 0; contour < 2; ++contour) {
+            double radius = contour == 0 ? 0.45 * glyphSize : 0.25 * glyphSize;
+            for (int i = 0; i < half; ++i) {
+                double a0 = 2.0 * Math.PI * i / half;
+                double a1 = 2.0 * Math.PI * (i + 1) / half;
+                generator.addLine(radius * Math.cos(a0), radius * Math.sin(a0), radius * Math.cos(a1), radius * Math.sin(a1));
+            }
+        }
+        output = new double[glyphSize * glyphSize];
+    }
+
+    @Benchmark
+    public double[] render() {
+        double extent = 0.5 * glyphSize;
+        generator.render(output, -extent, -extent, extent, extent, glyphSize, glyphSize);
+        return output;
+    }
+}
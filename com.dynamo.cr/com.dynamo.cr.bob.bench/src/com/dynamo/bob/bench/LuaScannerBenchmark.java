@@ -0,0 +1,86 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.pipeline.LuaScanner;
+import com.dynamo.bob.pipeline.LuaScanner.Property;
+
+/**
+ * Scanning of game object scripts for required modules and script properties
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LuaScannerBenchmark {
+
+    // Number of functions in the script, about 12 lines each
+    @Param({"10", "100", "1000"})
+    public int functionCount;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.max(1, functionCount / 10); ++i) {
+            sb.append(String.format("local module%d = require \"main.modules.module%d\"\n", i, i));
+            sb.append(String.format("go.property(\"speed%d\", %d.5)\n", i, i));
+            sb.append(String.format("go.property(\"target%d\", hash(\"enemy%d\"))\n", i, i));
+            sb.append(String.format("go.property(\"offset%d\", vmath.vector3(%d, 0, 0))\n", i, i));
+        }
+        sb.append("\n--[[\n  Multi-line comment describing the script\n]]\n");
+        for (int i = 0; i < functionCount; ++i) {
+            sb.append(String.format("local function update_%d(self, dt)\n", i));
+            sb.append("    -- move towards the target\n");
+            sb.append("    local p = go.get_position()\n");
+            sb.append(String.format("    p.x = p.x + self.speed%d * dt\n", i % Math.max(1, functionCount / 10)));
+            sb.append("    if p.x > 100 then\n");
+            sb.append("        msg.post(\"#sprite\", \"play_animation\", { id = hash(\"run\") })\n");
+            sb.append("        print('reached [[the]] end', p.x)\n");
+            sb.append("    end\n");
+            sb.append("    go.set_position(p)\n");
+            sb.append(String.format("    return %d\n", i));
+            sb.append("end\n\n");
+        }
+        source = sb.toString();
+    }
+
+    @Benchmark
+    public List<String> scan() {
+        return LuaScanner.scan(source);
+    }
+
+    @Benchmark
+    public List<Property> scanProperties() {
+        return LuaScanner.scanProperties(source);
+    }
+}
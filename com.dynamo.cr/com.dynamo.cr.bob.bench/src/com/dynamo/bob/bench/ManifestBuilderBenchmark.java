@@ -0,0 +1,116 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ManifestBuilder;
+import com.dynamo.bob.pipeline.ResourceNode;
+
+/**
+ * Liveupdate exclusion and dependants of every resource in a dependency tree of about
+ * 50k nodes, where the main collection loads levels through collection proxies and
+ * every other proxy is excluded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class ManifestBuilderBenchmark {
+
+    @Param({"2000"})
+    public int proxyCount;
+
+    // Game objects per level, each with a level specific sprite and a shared script
+    private static final int GAME_OBJECT_COUNT = 12;
+
+    private ResourceNode root;
+    private List<String> resources;
+    private List<String> excludedResources;
+
+    @Setup
+    public void setup() {
+        root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        Set<String> paths = new LinkedHashSet<String>();
+        excludedResources = new ArrayList<String>();
+        ResourceNode main = addChild(root, "/main/main.collectionc", paths);
+        for (int i = 0; i < proxyCount; ++i) {
+            ResourceNode proxy = addChild(main, String.format("/main/level%d.collectionproxyc", i), paths);
+            if (i % 2 == 0) {
+                excludedResources.add(proxy.relativeFilepath);
+            }
+            ResourceNode collection = addChild(proxy, String.format("/main/level%d.collectionc", i), paths);
+            for (int j = 0; j < GAME_OBJECT_COUNT; ++j) {
+                ResourceNode go = addChild(collection, String.format("/main/level%d/go%d.goc", i, j), paths);
+                addChild(go, String.format("/main/level%d/go%d.spritec", i, j), paths);
+                addChild(go, String.format("/main/shared/go%d.scriptc", j), paths);
+            }
+        }
+        resources = new ArrayList<String>(paths);
+    }
+
+    private static ResourceNode addChild(ResourceNode parent, String path, Set<String> paths) {
+        ResourceNode child = new ResourceNode(path, path);
+        parent.addChild(child);
+        paths.add(path);
+        return child;
+    }
+
+    @Benchmark
+    public int excludeResources() {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setDependencies(root);
+        ArchiveBuilder archiveBuilder = new ArchiveBuilder("", manifestBuilder);
+        Set<String> excluded = new HashSet<String>(excludedResources);
+        int count = 0;
+        for (String resource : resources) {
+            if (archiveBuilder.excludeResource(resource, excluded)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int getDependants() throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setDependencies(root);
+        int count = 0;
+        for (String resource : resources) {
+            count += manifestBuilder.getDependants(resource).size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+
+/**
+ * Atlas packing of images of mixed sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MaxRectsLayoutBenchmark {
+
+    @Param({"16", "256", "1024"})
+    public int imageCount;
+
+    private List<Rect> rects;
+    private MaxRectsLayoutStrategy.Settings settings;
+
+    @Setup
+    public void setup() {
+        rects = new ArrayList<Rect>(imageCount);
+        Random random = new Random(1234);
+        for (int i = 0; i < imageCount; ++i) {
+            // Mostly small sprites with the occasional large background
+            int size = random.nextInt(10) == 0 ? 256 : 16 + random.nextInt(112);
+            rects.add(new Rect(String.format("image%d", i), i, 0, 0, size, 8 + random.nextInt(size)));
+        }
+        settings = new MaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = 4096;
+        settings.maxPageHeight = 4096;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = 2;
+        settings.paddingY = 2;
+        settings.rotation = true;
+    }
+
+    @Benchmark
+    public List<Layout> createLayout() {
+        return new MaxRectsLayoutStrategy(settings).createLayout(rects);
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.util.MurmurHash;
+
+/**
+ * Hashing of resource paths and of larger buffers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MurmurHashBenchmark {
+
+    @Param({"16", "64", "4096"})
+    public int length;
+
+    private byte[] data;
+    private String text;
+
+    @Setup
+    public void setup() {
+        data = new byte[length];
+        new Random(1234).nextBytes(data);
+        StringBuilder sb = new StringBuilder("/main/level");
+        while (sb.length() < length) {
+            sb.append("/sprites/hero.spritec");
+        }
+        text = sb.substring(0, length);
+    }
+
+    @Benchmark
+    public long hashBytes() {
+        return MurmurHash.hash64(data, data.length);
+    }
+
+    @Benchmark
+    public long hashString() {
+        return MurmurHash.hash64(text);
+    }
+}
@@ -0,0 +1,107 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.pipeline.ProtoUtil;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.EmbeddedInstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.InstanceDesc;
+import com.dynamo.proto.DdfMath.Point3;
+import com.dynamo.proto.DdfMath.Quat;
+import com.google.protobuf.TextFormat;
+
+/**
+ * Parsing of text format collections with referenced and embedded game objects
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProtoUtilBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int instanceCount;
+
+    private File root;
+    private IResource resource;
+
+    @Setup
+    public void setup() throws IOException {
+        String embeddedData = "components {\n  id: \"script\"\n  component: \"/main/enemy.script\"\n}\n"
+                + "embedded_components {\n  id: \"sprite\"\n  type: \"sprite\"\n"
+                + "  data: \"tile_set: \\\"/main/main.atlas\\\"\\ndefault_animation: \\\"run\\\"\\n\"\n}\n";
+        CollectionDesc.Builder builder = CollectionDesc.newBuilder().setName("main");
+        for (int i = 0; i < instanceCount; ++i) {
+            Point3 position = Point3.newBuilder().setX(i * 16.0f).setY(i * 8.0f).setZ(0.5f).build();
+            Quat rotation = Quat.newBuilder().setX(0).setY(0).setZ(0.38268343f).setW(0.9238795f).build();
+            if (i % 2 == 0) {
+                builder.addInstances(InstanceDesc.newBuilder()
+                        .setId(String.format("instance%d", i))
+                        .setPrototype("/main/enemy.go")
+                        .setPosition(position)
+                        .setRotation(rotation));
+            } else {
+                builder.addEmbeddedInstances(EmbeddedInstanceDesc.newBuilder()
+                        .setId(String.format("embedded%d", i))
+                        .setData(embeddedData)
+                        .setPosition(position)
+                        .setRotation(rotation));
+            }
+        }
+
+        root = Files.createTempDirectory("bob-bench").toFile();
+        FileUtils.writeStringToFile(new File(root, "main.collection"), TextFormat.printToString(builder.build()), StandardCharsets.UTF_8);
+        DefaultFileSystem fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(root.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        resource = fileSystem.get("main.collection");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Benchmark
+    public CollectionDesc.Builder merge() throws IOException, CompileExceptionError {
+        CollectionDesc.Builder builder = CollectionDesc.newBuilder();
+        ProtoUtil.merge(resource, builder);
+        return builder;
+    }
+}
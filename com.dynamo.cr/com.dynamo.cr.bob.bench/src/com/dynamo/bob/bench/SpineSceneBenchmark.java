@@ -0,0 +1,112 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point2d;
+import javax.vecmath.Vector2d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
+import com.dynamo.bob.util.RigUtil.UVTransformProvider;
+import com.dynamo.bob.util.SpineSceneUtil;
+import com.dynamo.bob.util.SpineSceneUtil.LoadException;
+
+/**
+ * Loading of Spine scenes with a bone hierarchy, region attachments and keyed animations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SpineSceneBenchmark {
+
+    @Param({"10", "50", "200"})
+    public int boneCount;
+
+    // Keys per timeline, each bone has a rotate and a translate timeline in every animation
+    @Param({"10", "60"})
+    public int keyCount;
+
+    private static final int ANIMATION_COUNT = 4;
+
+    private byte[] json;
+
+    private static class IdentityUVTransformProvider implements UVTransformProvider {
+        @Override
+        public UVTransform getUVTransform(String animId) {
+            return new UVTransform(new Point2d(0.0, 0.0), new Vector2d(1.0, 1.0), false);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n\"skeleton\": { \"spine\": \"3.4.02\" },\n\"bones\": [\n");
+        sb.append("  { \"name\": \"bone0\" }");
+        for (int i = 1; i < boneCount; ++i) {
+            // A few long chains, like limbs and tails
+            int parent = i % 8 == 0 ? 0 : i - 1;
+            sb.append(String.format(",\n  { \"name\": \"bone%d\", \"parent\": \"bone%d\", \"length\": 20, \"x\": 10.5, \"y\": 2.25, \"rotation\": 15 }", i, parent));
+        }
+        sb.append("\n],\n\"slots\": [\n");
+        for (int i = 0; i < boneCount; ++i) {
+            sb.append(String.format("%s  { \"name\": \"slot%d\", \"bone\": \"bone%d\", \"attachment\": \"image%d\" }", i > 0 ? ",\n" : "", i, i, i));
+        }
+        sb.append("\n],\n\"skins\": {\n  \"default\": {\n");
+        for (int i = 0; i < boneCount; ++i) {
+            sb.append(String.format("%s    \"slot%d\": { \"image%d\": { \"x\": 1.5, \"y\": -2.5, \"rotation\": 90, \"width\": 32, \"height\": 48 } }", i > 0 ? ",\n" : "", i, i));
+        }
+        sb.append("\n  }\n},\n\"animations\": {\n");
+        for (int a = 0; a < ANIMATION_COUNT; ++a) {
+            sb.append(String.format("%s  \"anim%d\": {\n    \"bones\": {\n", a > 0 ? ",\n" : "", a));
+            for (int i = 0; i < boneCount; ++i) {
+                sb.append(String.format("%s      \"bone%d\": {\n        \"rotate\": [", i > 0 ? ",\n" : "", i));
+                for (int k = 0; k < keyCount; ++k) {
+                    sb.append(String.format(Locale.ROOT, "%s{ \"time\": %f, \"angle\": %f }", k > 0 ? ", " : "", k / 30.0, (k * 37 + i) % 360 - 180.0));
+                }
+                sb.append("],\n        \"translate\": [");
+                for (int k = 0; k < keyCount; ++k) {
+                    sb.append(String.format(Locale.ROOT, "%s{ \"time\": %f, \"x\": %f, \"y\": %f, \"curve\": [ 0.25, 0, 0.75, 1 ] }", k > 0 ? ", " : "", k / 30.0, k * 1.5, -k * 0.5));
+                }
+                sb.append("]\n      }");
+            }
+            sb.append("\n    }\n  }");
+        }
+        sb.append("\n}\n}\n");
+        json = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public SpineSceneUtil loadJson() throws LoadException {
+        return SpineSceneUtil.loadJson(new ByteArrayInputStream(json), new IdentityUVTransformProvider());
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Loading of the build state and lookup of all signatures, compared to the Java
+ * serialized map used by older versions of bob
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class StateBenchmark {
+
+    @Param({"10000", "100000"})
+    public int entryCount;
+
+    private File root;
+    private DefaultFileSystem fileSystem;
+    private IResource stateResource;
+    private String[] paths;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("bob-bench").toFile();
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(root.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/state");
+
+        paths = new String[entryCount];
+        Map<String, byte[]> map = new HashMap<String, byte[]>();
+        com.dynamo.bob.State state = com.dynamo.bob.State.load(stateResource);
+        for (int i = 0; i < entryCount; ++i) {
+            paths[i] = String.format("%s/build/default/main/level%d/object%d.goc", root.getAbsolutePath(), i % 100, i);
+            byte[] signature = new byte[com.dynamo.bob.State.SIGNATURE_SIZE];
+            for (int j = 0; j < signature.length; ++j) {
+                signature[j] = (byte) (i * 31 + j);
+            }
+            state.putSignature(paths[i], signature);
+            map.put(paths[i], signature);
+        }
+        state.save(stateResource);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(map);
+        os.close();
+        serialized = bos.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fileSystem.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Benchmark
+    public int loadState() throws IOException {
+        com.dynamo.bob.State state = com.dynamo.bob.State.load(stateResource);
+        int found = 0;
+        for (String path : paths) {
+            if (state.getSignature(path) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int loadSerialized() throws IOException, ClassNotFoundException {
+        ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        @SuppressWarnings("unchecked")
+        Map<String, byte[]> map = (Map<String, byte[]>) is.readObject();
+        int found = 0;
+        for (String path : paths) {
+            if (map.get(path) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.pipeline.TextFormatParser;
+import com.dynamo.tile.proto.Tile.TileCell;
+import com.dynamo.tile.proto.Tile.TileGrid;
+import com.dynamo.tile.proto.Tile.TileLayer;
+import com.google.protobuf.TextFormat;
+
+/**
+ * Parsing of text format tile maps with TextFormat and TextFormatParser. The largest
+ * tile map is a few megabytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TextFormatParserBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int cellCount;
+
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        TileGrid.Builder builder = TileGrid.newBuilder().setTileSet("/main/level.tilesource");
+        for (int l = 0; l < 4; ++l) {
+            TileLayer.Builder layer = TileLayer.newBuilder().setId(String.format("layer%d", l)).setZ(l * 0.1f).setIsVisible(1);
+            for (int i = 0; i < cellCount / 4; ++i) {
+                layer.addCell(TileCell.newBuilder()
+                        .setX(i % 256 - 128)
+                        .setY(i / 256)
+                        .setTile((i * 7) % 64)
+                        .setHFlip(i % 3 == 0 ? 1 : 0)
+                        .setVFlip(0));
+            }
+            builder.addLayers(layer);
+        }
+        content = TextFormat.printToString(builder.build()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public TileGrid.Builder textFormat() throws Exception {
+        TileGrid.Builder builder = TileGrid.newBuilder();
+        TextFormat.merge(new String(content, StandardCharsets.UTF_8), builder);
+        return builder;
+    }
+
+    @Benchmark
+    public TileGrid.Builder textFormatParser() throws Exception {
+        TileGrid.Builder builder = TileGrid.newBuilder();
+        if (!TextFormatParser.merge(content, builder)) {
+            throw new IllegalStateException("Tile map not handled by the parser");
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.textureset.TextureSetGenerator;
+import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
+import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
+import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
+import com.dynamo.tile.proto.Tile.Playback;
+
+/**
+ * Generation of an atlas, including layout, trimming hulls and the composed image
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TextureSetGeneratorBenchmark {
+
+    @Param({"16", "128", "512"})
+    public int imageCount;
+
+    // Vertex count of the trimming hulls, 0 for rectangles
+    @Param({"0", "8"})
+    public int hullSize;
+
+    private List<BufferedImage> images;
+    private List<Integer> hullSizes;
+    private List<String> paths;
+
+    // One single frame animation per image, like the images listed directly in an atlas
+    private static class ImageAnimIterator implements AnimIterator {
+        private final List<String> paths;
+        private int nextAnim;
+        private int nextFrame;
+
+        ImageAnimIterator(List<String> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public AnimDesc nextAnim() {
+            if (nextAnim < paths.size()) {
+                nextFrame = nextAnim++;
+                return new AnimDesc(paths.get(nextFrame), Playback.PLAYBACK_NONE, 30, false, false);
+            }
+            return null;
+        }
+
+        @Override
+        public Integer nextFrameIndex() {
+            if (nextFrame >= 0) {
+                int frame = nextFrame;
+                nextFrame = -1;
+                return frame;
+            }
+            return null;
+        }
+
+        @Override
+        public void rewind() {
+            nextAnim = 0;
+            nextFrame = -1;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        images = new ArrayList<BufferedImage>(imageCount);
+        hullSizes = new ArrayList<Integer>(imageCount);
+        paths = new ArrayList<String>(imageCount);
+        Random random = new Random(1234);
+        for (int i = 0; i < imageCount; ++i) {
+            int width = 16 + random.nextInt(112);
+            int height = 16 + random.nextInt(112);
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+            // An opaque blob with transparent borders, as in typical sprites
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillOval(width / 8, height / 8, width * 3 / 4, height * 3 / 4);
+            g.dispose();
+            images.add(image);
+            hullSizes.add(hullSize);
+            paths.add(String.format("/images/image%d.png", i));
+        }
+    }
+
+    @Benchmark
+    public TextureSetResult generate() {
+        return TextureSetGenerator.generate(images, hullSizes, paths, new ImageAnimIterator(paths), 2, 0, 1, true, false, null);
+    }
+}
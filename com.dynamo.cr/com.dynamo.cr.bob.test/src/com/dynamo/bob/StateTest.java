@@ -0,0 +1,239 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class StateTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private DefaultFileSystem fileSystem;
+    private IResource stateResource;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(tmpFolder.getRoot().getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/state");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+    }
+
+    private static byte[] signature(int i) {
+        byte[] signature = new byte[State.SIGNATURE_SIZE];
+        Arrays.fill(signature, (byte) i);
+        signature[0] = (byte) (i >> 8);
+        return signature;
+    }
+
+    private File journalFile() {
+        return new File(tmpFolder.getRoot(), "build/state.journal");
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/a"));
+        state.save(stateResource);
+        assertFalse(stateResource.exists());
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        State state = State.load(stateResource);
+        state.putSignature("/a", signature(1));
+        state.putSignature("/b", signature(2));
+        state.save(stateResource);
+
+        // Few changes are only written to the journal
+        assertFalse(stateResource.exists());
+        assertTrue(journalFile().exists());
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        assertArrayEquals(signature(2), state.getSignature("/b"));
+
+        state.putSignature("/a", signature(3));
+        state.putSignature("/b", new byte[0]);
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(3), state.getSignature("/a"));
+        assertNull(state.getSignature("/b"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        int count = State.MIN_COMPACT_RECORDS + 1;
+        State state = State.load(stateResource);
+        for (int i = 0; i < count; ++i) {
+            state.putSignature("/path" + i, signature(i));
+        }
+        state.save(stateResource);
+        assertTrue(stateResource.exists());
+        assertFalse(journalFile().exists());
+        assertEquals(State.HEADER_SIZE + count * State.ENTRY_SIZE, new File(stateResource.getAbsPath()).length());
+
+        state = State.load(stateResource);
+        for (int i = 0; i < count; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/path" + i));
+        }
+        assertNull(state.getSignature("/path" + count));
+
+        // Changes on top of the table go to the journal
+        state.putSignature("/path0", signature(42));
+        state.putSignature("/new", signature(43));
+        state.save(stateResource);
+        assertTrue(journalFile().exists());
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(42), state.getSignature("/path0"));
+        assertArrayEquals(signature(43), state.getSignature("/new"));
+        assertArrayEquals(signature(1), state.getSignature("/path1"));
+    }
+
+    @Test
+    public void testCompactionAfterLoad() throws Exception {
+        int count = State.MIN_COMPACT_RECORDS + 1;
+        State state = State.load(stateResource);
+        for (int i = 0; i < count; ++i) {
+            state.putSignature("/path" + i, signature(i));
+        }
+        state.save(stateResource);
+
+        // The loaded table is replaced when enough changes are made on top of it
+        state = State.load(stateResource);
+        for (int i = 0; i < count; ++i) {
+            state.putSignature("/new" + i, signature(i));
+        }
+        state.putSignature("/path0", new byte[0]);
+        state.save(stateResource);
+        assertFalse(journalFile().exists());
+        assertEquals(State.HEADER_SIZE + (2 * count - 1) * State.ENTRY_SIZE, new File(stateResource.getAbsPath()).length());
+
+        state = State.load(stateResource);
+        assertNull(state.getSignature("/path0"));
+        for (int i = 1; i < count; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/path" + i));
+        }
+        for (int i = 0; i < count; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/new" + i));
+        }
+    }
+
+    @Test
+    public void testRetainSignatures() throws Exception {
+        int count = State.MIN_COMPACT_RECORDS + 1;
+        State state = State.load(stateResource);
+        for (int i = 0; i < count; ++i) {
+            state.putSignature("/path" + i, signature(i));
+        }
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        state.putSignature("/new", signature(1));
+        assertEquals(count - 1, state.retainSignatures(Arrays.asList("/path0", "/new")));
+        state.save(stateResource);
+        assertFalse(journalFile().exists());
+        assertEquals(State.HEADER_SIZE + 2 * State.ENTRY_SIZE, new File(stateResource.getAbsPath()).length());
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(0), state.getSignature("/path0"));
+        assertArrayEquals(signature(1), state.getSignature("/new"));
+        assertNull(state.getSignature("/path1"));
+    }
+
+    @Test
+    public void testMigrateSerializedState() throws Exception {
+        State legacy = new State();
+        legacy.signatures = new HashMap<String, byte[]>();
+        legacy.signatures.put("/a", signature(1));
+        legacy.signatures.put("/b", signature(2));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(legacy);
+        os.close();
+        stateResource.setContent(bos.toByteArray());
+
+        State state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        assertArrayEquals(signature(2), state.getSignature("/b"));
+        state.save(stateResource);
+
+        // Rewritten in the binary format
+        assertEquals(State.HEADER_SIZE + 2 * State.ENTRY_SIZE, new File(stateResource.getAbsPath()).length());
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        assertArrayEquals(signature(2), state.getSignature("/b"));
+    }
+
+    @Test
+    public void testKeyCollision() throws Exception {
+        // Two paths with the same key only differ in the check
+        long key = State.key("/a");
+        State state = State.load(stateResource);
+        state.putSignature(key, State.check("/a"), signature(1));
+        assertArrayEquals(signature(1), state.getSignature(key, State.check("/a")));
+        assertNull(state.getSignature(key, State.check("/b")));
+
+        // From the journal
+        state.save(stateResource);
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        assertNull(state.getSignature(key, State.check("/b")));
+
+        // From the table
+        for (int i = 0; i < State.MIN_COMPACT_RECORDS; ++i) {
+            state.putSignature("/path" + i, signature(i));
+        }
+        state.save(stateResource);
+        assertFalse(journalFile().exists());
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        assertNull(state.getSignature(key, State.check("/b")));
+    }
+
+    @Test
+    public void testCorruptState() throws Exception {
+        stateResource.setContent("garbage".getBytes());
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/a"));
+        state.save(stateResource);
+        assertEquals(State.HEADER_SIZE, new File(stateResource.getAbsPath()).length());
+    }
+}
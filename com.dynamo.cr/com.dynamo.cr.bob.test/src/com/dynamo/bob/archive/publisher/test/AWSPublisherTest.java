@@ -0,0 +1,278 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive.publisher.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.CanonicalGrantee;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.Permission;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.dynamo.bob.archive.publisher.AWSPublisher;
+import com.dynamo.bob.archive.publisher.PublisherSettings;
+
+public class AWSPublisherTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private TestS3 s3;
+    private PublisherSettings settings;
+
+    /**
+     * In memory stand-in for an S3 bucket. Lists two keys per page.
+     */
+    private static class TestS3 extends AbstractAmazonS3 {
+        Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+        Map<String, Map<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<String, Map<Integer, byte[]>>();
+        AtomicInteger putCount = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        private void failTransiently() {
+            if (failures.getAndDecrement() > 0) {
+                AmazonServiceException exception = new AmazonServiceException("Service unavailable");
+                exception.setStatusCode(503);
+                throw exception;
+            }
+        }
+
+        private static byte[] read(File file, long offset, long size) {
+            try {
+                RandomAccessFile f = new RandomAccessFile(file, "r");
+                try {
+                    byte[] data = new byte[(int) size];
+                    f.seek(offset);
+                    f.readFully(data);
+                    return data;
+                } finally {
+                    f.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean doesBucketExist(String bucketName) {
+            return BUCKET.equals(bucketName);
+        }
+
+        @Override
+        public AccessControlList getBucketAcl(String bucketName) {
+            AccessControlList acl = new AccessControlList();
+            acl.grantPermission(new CanonicalGrantee("test"), Permission.FullControl);
+            return acl;
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            List<String> keys = new ArrayList<String>();
+            for (String key : new TreeMap<String, byte[]>(objects).keySet()) {
+                if (key.startsWith(request.getPrefix())
+                        && (request.getContinuationToken() == null || key.compareTo(request.getContinuationToken()) > 0)) {
+                    keys.add(key);
+                }
+            }
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            for (String key : keys.subList(0, Math.min(2, keys.size()))) {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(key);
+                summary.setSize(objects.get(key).length);
+                result.getObjectSummaries().add(summary);
+            }
+            if (keys.size() > 2) {
+                result.setTruncated(true);
+                result.setNextContinuationToken(keys.get(1));
+            }
+            return result;
+        }
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest request) {
+            failTransiently();
+            putCount.incrementAndGet();
+            objects.put(request.getKey(), read(request.getFile(), 0, request.getFile().length()));
+            return new PutObjectResult();
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId(request.getKey());
+            multipartUploads.put(request.getKey(), new ConcurrentHashMap<Integer, byte[]>());
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest request) {
+            failTransiently();
+            multipartUploads.get(request.getUploadId()).put(request.getPartNumber(),
+                    read(request.getFile(), request.getFileOffset(), request.getPartSize()));
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(Integer.toString(request.getPartNumber()));
+            return result;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            Map<Integer, byte[]> parts = multipartUploads.remove(request.getUploadId());
+            int size = 0;
+            for (PartETag partETag : request.getPartETags()) {
+                size += parts.get(partETag.getPartNumber()).length;
+            }
+            byte[] data = new byte[size];
+            int offset = 0;
+            for (PartETag partETag : request.getPartETags()) {
+                byte[] part = parts.get(partETag.getPartNumber());
+                System.arraycopy(part, 0, data, offset, part.length);
+                offset += part.length;
+            }
+            objects.put(request.getKey(), data);
+            return new CompleteMultipartUploadResult();
+        }
+
+        @Override
+        public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+            multipartUploads.remove(request.getUploadId());
+        }
+    }
+
+    private class TestPublisher extends AWSPublisher {
+        public TestPublisher() {
+            super(settings);
+        }
+
+        @Override
+        protected AmazonS3 createClient() {
+            return s3;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new TestS3();
+        settings = new PublisherSettings();
+        settings.setAmazonBucket(BUCKET);
+        settings.setAmazonPrefix("prefix");
+        settings.setAmazonCredentialProfile("default");
+    }
+
+    private File createFile(String name, int size, int value) throws IOException {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        File file = tmpFolder.newFile(name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void testSkipPublished() throws Exception {
+        File[] files = new File[5];
+        TestPublisher publisher = new TestPublisher();
+        for (int i = 0; i < files.length; ++i) {
+            String hexDigest = String.format("%040x", i);
+            files[i] = createFile(hexDigest, 10 + i, i);
+            publisher.AddEntry(hexDigest, files[i]);
+        }
+        File manifest = createFile("liveupdate.game.dmanifest", 10, 0);
+        publisher.AddEntry("liveupdate.game.dmanifest", manifest);
+        publisher.Publish();
+        assertEquals(6, publisher.getUploadedCount());
+        assertEquals(0, publisher.getSkippedCount());
+        assertArrayEquals(readFile(files[3]), s3.objects.get(String.format("prefix/%040x", 3)));
+
+        // A partially uploaded resource is uploaded again, the manifest is always uploaded
+        s3.objects.put(String.format("prefix/%040x", 4), new byte[1]);
+        s3.putCount.set(0);
+        publisher = new TestPublisher();
+        for (int i = 0; i < files.length; ++i) {
+            publisher.AddEntry(String.format("%040x", i), files[i]);
+        }
+        publisher.AddEntry("liveupdate.game.dmanifest", manifest);
+        publisher.Publish();
+        assertEquals(2, publisher.getUploadedCount());
+        assertEquals(4, publisher.getSkippedCount());
+        assertEquals(2, s3.putCount.get());
+        assertArrayEquals(readFile(files[4]), s3.objects.get(String.format("prefix/%040x", 4)));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        TestPublisher publisher = new TestPublisher();
+        File file = createFile("0a", 10, 1);
+        publisher.AddEntry("0a", file);
+        s3.failures.set(1);
+        publisher.Publish();
+        assertEquals(1, publisher.getUploadedCount());
+        assertArrayEquals(readFile(file), s3.objects.get("prefix/0a"));
+    }
+
+    @Test
+    public void testMultipartUpload() throws Exception {
+        TestPublisher publisher = new TestPublisher();
+        File file = tmpFolder.newFile("0b");
+        byte[] data = new byte[17 * 1024 * 1024 + 1];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i / 1024);
+        }
+        FileUtils.writeByteArrayToFile(file, data);
+        publisher.AddEntry("0b", file);
+        publisher.Publish();
+        assertEquals(0, s3.putCount.get());
+        assertTrue(s3.multipartUploads.isEmpty());
+        assertArrayEquals(data, s3.objects.get("prefix/0b"));
+    }
+}
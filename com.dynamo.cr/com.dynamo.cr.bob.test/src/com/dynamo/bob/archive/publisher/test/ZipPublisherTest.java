@@ -0,0 +1,96 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive.publisher.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.archive.ArchiveEntry;
+import com.dynamo.bob.archive.publisher.PublisherSettings;
+import com.dynamo.bob.archive.publisher.ZipPublisher;
+
+public class ZipPublisherTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File createResource(String hexDigest, byte[] data, int flags) throws Exception {
+        byte[] header = new byte[16];
+        Arrays.fill(header, (byte) 0xED);
+        ByteBuffer.wrap(header).putInt(data.length).put((byte) flags);
+        File file = new File(tmpFolder.getRoot(), hexDigest);
+        FileUtils.writeByteArrayToFile(file, header);
+        FileUtils.writeByteArrayToFile(file, data, true);
+        return file;
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        byte[] text = new byte[10000];
+        Arrays.fill(text, (byte) 'a');
+        byte[] noise = new byte[10000];
+        new Random(0).nextBytes(noise);
+
+        PublisherSettings settings = new PublisherSettings();
+        settings.setZipFilepath("export");
+        ZipPublisher publisher = new ZipPublisher(tmpFolder.getRoot().getAbsolutePath(), settings);
+        File[] files = new File[] {
+            createResource("0a", text, 0),
+            createResource("0b", text, ArchiveEntry.FLAG_COMPRESSED),
+            createResource("0c", noise, 0),
+            tmpFolder.newFile("liveupdate.game.dmanifest")
+        };
+        FileUtils.writeByteArrayToFile(files[3], text);
+        for (File file : files) {
+            publisher.AddEntry(file.getName(), file);
+        }
+        publisher.Publish();
+
+        Collection<File> archives = FileUtils.listFiles(new File(tmpFolder.getRoot(), "export"), null, false);
+        assertEquals(1, archives.size());
+        File archive = archives.iterator().next();
+        assertTrue(archive.getName().startsWith("defold.resourcepack_"));
+
+        ZipFile zipFile = new ZipFile(archive);
+        try {
+            assertEquals(files.length, zipFile.size());
+            for (File file : files) {
+                ZipEntry entry = zipFile.getEntry(file.getName());
+                assertArrayEquals(FileUtils.readFileToByteArray(file), IOUtils.toByteArray(zipFile.getInputStream(entry)));
+            }
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("0a").getMethod());
+            // Compressed resources and data that doesn't compress well are stored
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("0b").getMethod());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("0c").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("liveupdate.game.dmanifest").getMethod());
+        } finally {
+            zipFile.close();
+        }
+    }
+}
@@ -15,17 +15,24 @@ package com.dynamo.bob.archive.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -35,6 +42,7 @@ import org.junit.Test;
 
 import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveCache;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.pipeline.ResourceNode;
@@ -142,6 +150,45 @@ public class ArchiveTest {
         ar.close();
     }
 
+    @Test
+    public void testReaderEntryData() throws Exception {
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        String[] contents = { "abc123", "apaBEPAc e p a", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA" };
+        for (int i = 0; i < contents.length; ++i) {
+            ab.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "main/" + i + ".txt", contents[i].getBytes())));
+        }
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // The index hash covers everything after the header
+        byte[] index = FileUtils.readFileToByteArray(outputIndex);
+        byte[] expectedIndexHash = ManifestBuilder.CryptographicOperations.hash(Arrays.copyOfRange(index, 48, index.length), HashAlgorithm.HASH_MD5);
+        assertArrayEquals(expectedIndexHash, ab.getArchiveIndexHash());
+        assertArrayEquals(expectedIndexHash, Arrays.copyOfRange(index, 32, 48));
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        assertEquals(contents.length, ar.getEntries().size());
+        for (String content : contents) {
+            byte[] hash = ManifestBuilder.CryptographicOperations.hash(content.getBytes(), HashAlgorithm.HASH_SHA1);
+            ArchiveEntry entry = ar.findEntry(hash);
+            assertNotNull(entry);
+            ByteBuffer data = ar.getEntryData(entry);
+            byte[] actual = new byte[data.remaining()];
+            data.get(actual);
+            assertArrayEquals(content.getBytes(), actual);
+            assertArrayEquals(content.getBytes(), ar.getEntryContent(entry));
+        }
+        assertNull(ar.findEntry(new byte[ArchiveBuilder.HASH_LENGTH]));
+        ar.close();
+    }
+
     @Test
     public void testEntriesOrder() throws IOException {
 
@@ -218,6 +265,203 @@ public class ArchiveTest {
     	}
     }
 
+    @Test
+    public void testIdenticalEntriesShareData() throws IOException {
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        byte[] content = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA".getBytes();
+        instance.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "a.texturec", content)), true);
+        instance.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "b.texturec", content)), true);
+        instance.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "c.texturec", "abc123".getBytes())), true);
+        instance.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "d.soundc", content)), false);
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        instance.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        archiveIndex.close();
+        archiveData.close();
+
+        // The uncompressed entry differs from the compressed ones and is written separately
+        assertEquals(1, instance.getSharedEntryCount());
+        assertEquals(instance.compressResourceData(content).length, instance.getSharedEntryBytes());
+
+        ArchiveReader reader = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        reader.read();
+        List<ArchiveEntry> entries = reader.getEntries();
+        assertEquals(4, entries.size());
+        int sharedOffsets = 0;
+        for (int i = 0; i < entries.size(); ++i) {
+            for (int j = i + 1; j < entries.size(); ++j) {
+                if (entries.get(i).resourceOffset == entries.get(j).resourceOffset) {
+                    assertArrayEquals(entries.get(i).hash, entries.get(j).hash);
+                    ++sharedOffsets;
+                }
+            }
+        }
+        reader.close();
+        assertEquals(1, sharedOffsets);
+    }
+
+    private ArchiveBuilder writeIncrementalArchive(ArchiveCache previousArchiveCache, File index, File data) throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        instance.setPreviousArchiveCache(previousArchiveCache);
+        for (String name : new String[] { "a.texturec", "b.texturec", "c.scriptc" }) {
+            instance.add(FilenameUtils.separatorsToSystem(FilenameUtils.concat(contentRoot, name)), true);
+        }
+        instance.add(FilenameUtils.separatorsToSystem(FilenameUtils.concat(contentRoot, "d.soundc")), false);
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(index, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(data, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        try {
+            instance.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        } finally {
+            archiveIndex.close();
+            archiveData.close();
+            if (previousArchiveCache != null) {
+                previousArchiveCache.close();
+            }
+        }
+        return instance;
+    }
+
+    @Test
+    public void testIncrementalArchive() throws IOException {
+        createDummyFile(contentRoot, "a.texturec", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA".getBytes());
+        createDummyFile(contentRoot, "b.texturec", "BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB".getBytes());
+        createDummyFile(contentRoot, "c.scriptc", "print(\"hello\")".getBytes());
+        createDummyFile(contentRoot, "d.soundc", "DDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDDD".getBytes());
+
+        ArchiveBuilder instance = writeIncrementalArchive(null, outputIndex, outputData);
+        assertEquals(0, instance.getReusedEntryCount());
+        File cacheFile = Files.createTempFile("tmp.defold", "archive_cache").toFile();
+        File previousData = Files.createTempFile("tmp.defold", "arcd").toFile();
+        File incrementalIndex = Files.createTempFile("tmp.defold", "arci").toFile();
+        File incrementalData = Files.createTempFile("tmp.defold", "arcd").toFile();
+        try {
+            FileUtils.copyFile(outputData, previousData);
+            instance.getArchiveCache().save(cacheFile, previousData);
+
+            // Nothing changed, every prepared entry is copied and the archive is the same
+            ArchiveCache previousArchiveCache = ArchiveCache.load(cacheFile, previousData);
+            assertEquals(3, previousArchiveCache.size());
+            instance = writeIncrementalArchive(previousArchiveCache, incrementalIndex, incrementalData);
+            assertEquals(3, instance.getReusedEntryCount());
+            assertArrayEquals(FileUtils.readFileToByteArray(outputIndex), FileUtils.readFileToByteArray(incrementalIndex));
+            assertArrayEquals(FileUtils.readFileToByteArray(outputData), FileUtils.readFileToByteArray(incrementalData));
+
+            // Only the changed entry is prepared again, the archive is the same as a full rebuild
+            createDummyFile(contentRoot, "b.texturec", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC".getBytes());
+            instance = writeIncrementalArchive(ArchiveCache.load(cacheFile, previousData), incrementalIndex, incrementalData);
+            assertEquals(2, instance.getReusedEntryCount());
+            writeIncrementalArchive(null, outputIndex, outputData);
+            assertArrayEquals(FileUtils.readFileToByteArray(outputIndex), FileUtils.readFileToByteArray(incrementalIndex));
+            assertArrayEquals(FileUtils.readFileToByteArray(outputData), FileUtils.readFileToByteArray(incrementalData));
+
+            // The index is discarded when the data file has changed
+            FileUtils.writeByteArrayToFile(previousData, new byte[] { 1, 2, 3 });
+            assertEquals(0, ArchiveCache.load(cacheFile, previousData).size());
+        } finally {
+            FileUtils.deleteQuietly(cacheFile);
+            FileUtils.deleteQuietly(previousData);
+            FileUtils.deleteQuietly(incrementalIndex);
+            FileUtils.deleteQuietly(incrementalData);
+        }
+    }
+
+    private byte[] writeArchiveWithThreads(int threadCount, File index, File data, Path resourcePack) throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        manifestBuilder.setProjectIdentifier("archive test");
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        instance.setThreadCount(threadCount);
+
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode collection = addEntryToManifest("main.collectionc", root);
+        ResourceNode proxy = addEntryToManifest("level.collectionproxyc", collection);
+        addEntryToManifest("level.goc", proxy);
+        addEntryToManifest("level.soundc", proxy);
+        addEntryToManifest("main.scriptc", collection);
+        addEntryToManifest("main.soundc", collection);
+        for (String name : new String[] { "main.collectionc", "level.collectionproxyc", "level.goc", "main.scriptc" }) {
+            instance.add(FilenameUtils.separatorsToSystem(FilenameUtils.concat(contentRoot, name)), true);
+        }
+        // Stored as they are and streamed from disk, to the archive and to the resource pack
+        for (String name : new String[] { "main.soundc", "level.soundc" }) {
+            instance.add(FilenameUtils.separatorsToSystem(FilenameUtils.concat(contentRoot, name)), false);
+        }
+        for (int i = 0; i < 64; ++i) {
+            String name = String.format("texture%d.texturec", i);
+            addEntryToManifest(name, collection);
+            instance.add(FilenameUtils.separatorsToSystem(FilenameUtils.concat(contentRoot, name)), i % 2 == 0);
+        }
+        manifestBuilder.setDependencies(root);
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(index, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(data, "rw");
+        archiveIndex.setLength(0);
+        archiveData.setLength(0);
+        try {
+            instance.write(archiveIndex, archiveData, resourcePack, Arrays.asList("/level.collectionproxyc"));
+        } finally {
+            archiveIndex.close();
+            archiveData.close();
+        }
+        return manifestBuilder.buildManifestData().toByteArray();
+    }
+
+    @Test
+    public void testWriteArchiveThreadCount() throws IOException {
+        Random random = new Random(1234);
+        createDummyFile(contentRoot, "main.collectionc", "main collection".getBytes());
+        createDummyFile(contentRoot, "level.collectionproxyc", "level proxy".getBytes());
+        createDummyFile(contentRoot, "level.goc", "level game object".getBytes());
+        createDummyFile(contentRoot, "main.scriptc", "print(\"hello\")".getBytes());
+        for (String name : new String[] { "main.soundc", "level.soundc" }) {
+            byte[] sound = new byte[256 * 1024];
+            random.nextBytes(sound);
+            createDummyFile(contentRoot, name, sound);
+        }
+        for (int i = 0; i < 64; ++i) {
+            byte[] texture = new byte[1024 + random.nextInt(64 * 1024)];
+            for (int j = 0; j < texture.length; ++j) {
+                texture[j] = (byte) ('a' + random.nextInt(i % 3 == 0 ? 256 : 4));
+            }
+            createDummyFile(contentRoot, String.format("texture%d.texturec", i), texture);
+        }
+
+        File index = Files.createTempFile("tmp.defold", "arci").toFile();
+        File data = Files.createTempFile("tmp.defold", "arcd").toFile();
+        Path resourcePack = Files.createTempDirectory("tmp.defold.resourcepack_");
+        try {
+            byte[] manifest = writeArchiveWithThreads(1, outputIndex, outputData, resourcePackDir);
+            byte[] threadedManifest = writeArchiveWithThreads(8, index, data, resourcePack);
+
+            // The archive, the manifest and the excluded level.goc and level.soundc are the same whatever the number of threads
+            assertArrayEquals(FileUtils.readFileToByteArray(outputIndex), FileUtils.readFileToByteArray(index));
+            assertArrayEquals(FileUtils.readFileToByteArray(outputData), FileUtils.readFileToByteArray(data));
+            assertArrayEquals(manifest, threadedManifest);
+            String[] excluded = resourcePackDir.toFile().list();
+            Arrays.sort(excluded);
+            String[] threadedExcluded = resourcePack.toFile().list();
+            Arrays.sort(threadedExcluded);
+            assertEquals(2, excluded.length);
+            assertArrayEquals(excluded, threadedExcluded);
+            for (String name : excluded) {
+                assertArrayEquals(FileUtils.readFileToByteArray(new File(resourcePackDir.toFile(), name)),
+                        FileUtils.readFileToByteArray(new File(resourcePack.toFile(), name)));
+            }
+        } finally {
+            FileUtils.deleteQuietly(index);
+            FileUtils.deleteQuietly(data);
+            FileUtils.deleteQuietly(resourcePack.toFile());
+        }
+    }
+
     @Test
     public void testLoadResourceData() throws Exception {
         byte[] content = "Hello, world".getBytes();
@@ -412,6 +656,45 @@ public class ArchiveTest {
         assertFalse(instance.excludeResource("/level1.goc", excludedResources));
         assertTrue(instance.excludeResource("/level2.goc", excludedResources));
     }
+
+    @SuppressWarnings("unused")
+    @Test
+    public void testExcludeResourceNestedProxies() throws Exception {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_MD5);
+
+        ArchiveBuilder instance = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode collection1 = addEntryToManifest("main.collectionc", root);
+        ResourceNode gameobject1 = addEntryToManifest("main.goc", collection1);
+        ResourceNode collectionproxy1 = addEntryToManifest("level1.collectionproxyc", gameobject1);
+        ResourceNode collection2 = addEntryToManifest("level1.collectionc", collectionproxy1);
+        ResourceNode gameobject2 = addEntryToManifest("level1.goc", collection2);
+        ResourceNode collectionproxy2 = addEntryToManifest("level2.collectionproxyc", gameobject2);
+        ResourceNode collection3 = addEntryToManifest("level2.collectionc", collectionproxy2);
+        ResourceNode gameobject3 = addEntryToManifest("level2.goc", collection3);
+        ResourceNode script31 = addEntryToManifest("shared.scriptc", gameobject3); // excluded through level1
+        ResourceNode script32 = addEntryToManifest("level2.scriptc", gameobject3);
+        ResourceNode script11 = addEntryToManifest("main.scriptc", gameobject1);
+
+        manifestBuilder.setDependencies(root);
+
+        Set<String> excludedResources = new HashSet<String>();
+        excludedResources.add("/level1.collectionproxyc");
+
+        assertTrue(instance.excludeResource("/shared.scriptc", excludedResources));
+        assertTrue(instance.excludeResource("/level2.scriptc", excludedResources));
+        assertTrue(instance.excludeResource("/level1.goc", excludedResources));
+        assertFalse(instance.excludeResource("/level1.collectionproxyc", excludedResources));
+        assertFalse(instance.excludeResource("/main.scriptc", excludedResources));
+        assertFalse(instance.excludeResource("/missing.scriptc", excludedResources));
+
+        // A resource that is also referenced outside of the excluded proxy is bundled
+        addEntryToManifest("shared.scriptc", gameobject1);
+        manifestBuilder.setDependencies(root);
+        assertFalse(instance.excludeResource("/shared.scriptc", excludedResources));
+        assertTrue(instance.excludeResource("/level2.scriptc", excludedResources));
+    }
     
     @SuppressWarnings("unused")
     @Test
@@ -0,0 +1,89 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.archive.CompressionCache;
+
+public class CompressionCacheTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private CompressionCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CompressionCache(tmpFolder.getRoot(), 1000);
+    }
+
+    private static String key(int i) {
+        return String.format("%02x%038x", i, 0);
+    }
+
+    private static byte[] data(int size, int value) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) value);
+        return content;
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        assertNull(cache.get(key(0), 100));
+        cache.put(key(0), data(10, 1));
+        cache.put(key(1), CompressionCache.INCOMPRESSIBLE);
+
+        assertArrayEquals(data(10, 1), cache.get(key(0), 100));
+        // Known incompressible data is not compressed again
+        assertSame(CompressionCache.INCOMPRESSIBLE, cache.get(key(1), 100));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(200, cache.getSavedBytes());
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        long time = System.currentTimeMillis() - 100000;
+        File[] files = new File[4];
+        for (int i = 0; i < 4; ++i) {
+            cache.put(key(i), data(400, i));
+            files[i] = FileUtils.listFiles(new File(tmpFolder.getRoot(), key(i).substring(0, 2)), null, false).iterator().next();
+            // Simulate the entries being used in order
+            files[i].setLastModified(time + i * 1000);
+        }
+        assertNotNull(cache.get(key(0), 400));
+
+        // The least recently used entries are evicted until the size is below 90% of the max size
+        assertEquals(2, cache.trim());
+        assertNotNull(cache.get(key(0), 400));
+        assertNull(cache.get(key(1), 400));
+        assertNull(cache.get(key(2), 400));
+        assertNotNull(cache.get(key(3), 400));
+
+        assertEquals(0, cache.trim());
+    }
+}
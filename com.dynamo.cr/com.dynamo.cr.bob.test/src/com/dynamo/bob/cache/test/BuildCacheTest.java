@@ -0,0 +1,123 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.bob.cache.BuildCache.Output;
+
+public class BuildCacheTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private BuildCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new BuildCache(tmpFolder.getRoot(), 1000);
+    }
+
+    private static String key(String name) {
+        return BuildCache.createKey(name.getBytes());
+    }
+
+    private static Output output(int size, int value, int flags) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) value);
+        return new Output(content, flags);
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        assertNull(cache.get(key("a"), 2));
+        cache.put(key("a"), Arrays.asList(output(10, 1, 0), output(20, 2, 3)));
+
+        List<Output> outputs = cache.get(key("a"), 2);
+        assertNotNull(outputs);
+        assertArrayEquals(output(10, 1, 0).getContent(), outputs.get(0).getContent());
+        assertArrayEquals(output(20, 2, 0).getContent(), outputs.get(1).getContent());
+        assertEquals(3, outputs.get(1).getFlags());
+
+        // Different number of outputs
+        assertNull(cache.get(key("a"), 1));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getStores());
+        assertEquals(30, cache.getRestoredBytes());
+    }
+
+    @Test
+    public void testSharedContent() throws Exception {
+        cache.put(key("a"), Arrays.asList(output(10, 1, 0)));
+        cache.put(key("b"), Arrays.asList(output(10, 1, 0)));
+        Collection<File> blobs = FileUtils.listFiles(new File(tmpFolder.getRoot(), "blobs"), null, true);
+        assertEquals(1, blobs.size());
+        assertNotNull(cache.get(key("b"), 1));
+    }
+
+    @Test
+    public void testCorruptBlob() throws Exception {
+        cache.put(key("a"), Arrays.asList(output(10, 1, 0)));
+        File blob = FileUtils.listFiles(new File(tmpFolder.getRoot(), "blobs"), null, true).iterator().next();
+        FileUtils.writeByteArrayToFile(blob, new byte[10]);
+        assertNull(cache.get(key("a"), 1));
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        File blobs = new File(tmpFolder.getRoot(), "blobs");
+        long time = System.currentTimeMillis() - 100000;
+        Set<File> files = new HashSet<File>();
+        for (int i = 0; i < 4; ++i) {
+            cache.put(key("entry" + i), Arrays.asList(output(400, i, 0)));
+            // Simulate the entries being used in order
+            for (File f : FileUtils.listFiles(tmpFolder.getRoot(), null, true)) {
+                if (files.add(f)) {
+                    f.setLastModified(time + i * 1000);
+                }
+            }
+        }
+        assertEquals(4, FileUtils.listFiles(blobs, null, true).size());
+        cache.get(key("entry0"), 1);
+
+        // The least recently used entries are evicted until the size is below 90% of the max size
+        assertEquals(2, cache.trim());
+        assertEquals(2, FileUtils.listFiles(blobs, null, true).size());
+        assertNotNull(cache.get(key("entry0"), 1));
+        assertNull(cache.get(key("entry1"), 1));
+        assertNull(cache.get(key("entry2"), 1));
+        assertNotNull(cache.get(key("entry3"), 1));
+        assertEquals(2, FileUtils.listFiles(new File(tmpFolder.getRoot(), "entries"), null, true).size());
+
+        assertEquals(0, cache.trim());
+    }
+}
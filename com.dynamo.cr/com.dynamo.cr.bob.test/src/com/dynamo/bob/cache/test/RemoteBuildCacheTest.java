@@ -0,0 +1,127 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.bob.cache.BuildCache.Output;
+import com.dynamo.bob.cache.BuildCacheServer;
+import com.dynamo.bob.cache.RemoteBuildCache;
+
+public class RemoteBuildCacheTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private BuildCacheServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new BuildCacheServer(0, tmpFolder.newFolder("server"), 1024 * 1024);
+        server.start();
+        url = String.format("http://localhost:%d", server.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private BuildCache createCache(String name, String remoteUrl) throws IOException {
+        BuildCache cache = new BuildCache(tmpFolder.newFolder(name), 1024 * 1024);
+        cache.setRemote(new RemoteBuildCache(remoteUrl));
+        return cache;
+    }
+
+    private static String key(String name) {
+        return BuildCache.createKey(name.getBytes());
+    }
+
+    @Test
+    public void testShare() throws Exception {
+        BuildCache first = createCache("first", url);
+        BuildCache second = createCache("second", url);
+
+        first.put(key("a"), Arrays.asList(new Output("content a".getBytes(), 1), new Output("content b".getBytes(), 0)));
+        // Uploaded in the background
+        first.waitForUploads();
+
+        List<Output> outputs = second.get(key("a"), 2);
+        assertNotNull(outputs);
+        assertArrayEquals("content a".getBytes(), outputs.get(0).getContent());
+        assertEquals(1, outputs.get(0).getFlags());
+        assertArrayEquals("content b".getBytes(), outputs.get(1).getContent());
+        assertEquals(1, second.getRemoteHits());
+
+        // Now stored locally as well
+        assertNotNull(second.get(key("a"), 2));
+        assertEquals(1, second.getHits());
+
+        assertNull(second.get(key("b"), 1));
+        assertEquals(1, second.getMisses());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        BuildCache first = createCache("first", url);
+        first.put(key("a"), Arrays.asList(new Output("a".getBytes(), 0)));
+        // Waits for the upload
+        first.close();
+
+        BuildCache second = createCache("second", url);
+        assertNotNull(second.get(key("a"), 1));
+
+        // Uploads again after closing
+        first.put(key("b"), Arrays.asList(new Output("b".getBytes(), 0)));
+        first.close();
+        assertNotNull(second.get(key("b"), 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testPutInvalidBlob() throws Exception {
+        RemoteBuildCache remote = new RemoteBuildCache(url);
+        remote.putBlob(BuildCache.createKey("a".getBytes()), "b".getBytes());
+    }
+
+    @Test
+    public void testServerDown() throws Exception {
+        server.stop();
+        BuildCache cache = createCache("cache", url);
+        assertTrue(cache.hasRemote());
+        cache.put(key("a"), Arrays.asList(new Output("a".getBytes(), 0)));
+        cache.waitForUploads();
+        assertNull(cache.get(key("b"), 1));
+        assertNull(cache.get(key("c"), 1));
+
+        // Disabled after repeated failures, the local cache is still used
+        assertFalse(cache.hasRemote());
+        assertNotNull(cache.get(key("a"), 1));
+    }
+}
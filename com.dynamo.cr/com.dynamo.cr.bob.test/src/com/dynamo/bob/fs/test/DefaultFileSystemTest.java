@@ -0,0 +1,248 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class DefaultFileSystemTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    DefaultFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        this.fileSystem = createFileSystem();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.fileSystem.close();
+    }
+
+    private DefaultFileSystem createFileSystem() {
+        DefaultFileSystem fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(tmpFolder.getRoot().getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        new File(tmpFolder.getRoot(), "build").mkdirs();
+        return fileSystem;
+    }
+
+    private File writeFile(String path, byte[] content, long lastModified) throws Exception {
+        File file = new File(tmpFolder.getRoot(), path);
+        FileUtils.writeByteArrayToFile(file, content);
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    private static byte[] sha1(byte[] content) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(content);
+    }
+
+    @Test
+    public void testSha1() throws Exception {
+        // Larger than the chunks the file is digested in
+        byte[] content = new byte[300 * 1024 + 17];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) (i * 7);
+        }
+        writeFile("large.bin", content, 1000000);
+        writeFile("empty.bin", new byte[0], 1000000);
+        assertArrayEquals(sha1(content), fileSystem.get("large.bin").sha1());
+        assertArrayEquals(sha1(new byte[0]), fileSystem.get("empty.bin").sha1());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSha1Missing() throws Exception {
+        fileSystem.get("missing.bin").sha1();
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        byte[] content = new byte[300 * 1024 + 17];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) (i * 7);
+        }
+        writeFile("large.bin", content, 1000000);
+        IResource resource = fileSystem.get("large.bin");
+        assertEquals(content.length, resource.size());
+        assertArrayEquals(content, resource.getContent());
+
+        InputStream is = resource.openInputStream();
+        try {
+            assertArrayEquals(content, IOUtils.toByteArray(is));
+        } finally {
+            is.close();
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertEquals(content.length, resource.transferTo(Channels.newChannel(os)));
+        assertArrayEquals(content, os.toByteArray());
+
+        File copy = new File(tmpFolder.getRoot(), "copy.bin");
+        FileOutputStream fos = new FileOutputStream(copy);
+        try {
+            assertEquals(content.length, resource.transferTo(fos.getChannel()));
+        } finally {
+            fos.close();
+        }
+        assertArrayEquals(content, FileUtils.readFileToByteArray(copy));
+
+        IResource output = fileSystem.get("build/large.bin");
+        output.setContent(resource.openInputStream());
+        assertArrayEquals(content, output.getContent());
+    }
+
+    @Test
+    public void testStreamingMissing() throws Exception {
+        IResource resource = fileSystem.get("missing.bin");
+        assertEquals(-1, resource.size());
+        try {
+            resource.openInputStream();
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+        }
+        try {
+            resource.openChannel();
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+        }
+    }
+
+    @Test
+    public void testWriteIfChanged() throws Exception {
+        File file = new File(tmpFolder.getRoot(), "build/out.bin");
+        IResource output = fileSystem.get("build/out.bin");
+        output.setContent("first".getBytes());
+        assertArrayEquals("first".getBytes(), FileUtils.readFileToByteArray(file));
+        file.setLastModified(1000000);
+
+        // Same content, the file is left untouched
+        output.setContent("first".getBytes());
+        assertEquals(1000000, file.lastModified());
+        output.setContent(new ByteArrayInputStream("first".getBytes()));
+        assertEquals(1000000, file.lastModified());
+
+        // Changed content
+        output.setContent("second".getBytes());
+        assertArrayEquals("second".getBytes(), FileUtils.readFileToByteArray(file));
+        output.setContent(new ByteArrayInputStream("third".getBytes()));
+        assertArrayEquals("third".getBytes(), FileUtils.readFileToByteArray(file));
+
+        // No temporary files are left behind
+        assertArrayEquals(new String[] { "out.bin" }, file.getParentFile().list());
+    }
+
+    @Test
+    public void testWriteCachesDigest() throws Exception {
+        File file = new File(tmpFolder.getRoot(), "build/out.bin");
+        IResource output = fileSystem.get("build/out.bin");
+        output.setContent("aaaa".getBytes());
+        long lastModified = file.lastModified();
+
+        // Modified behind the back of the file system with the same size and modification
+        // time, the digest recorded when written is used
+        FileUtils.writeByteArrayToFile(file, "bbbb".getBytes());
+        file.setLastModified(lastModified);
+        assertArrayEquals(sha1("aaaa".getBytes()), output.sha1());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        byte[] content = "first".getBytes();
+        writeFile("a.txt", content, 1000000);
+        fileSystem.loadCache();
+        assertArrayEquals(sha1(content), fileSystem.get("a.txt").sha1());
+        fileSystem.saveCache();
+
+        // Same size and modification time, the cached digest is used
+        writeFile("a.txt", "other".getBytes(), 1000000);
+        DefaultFileSystem reloaded = createFileSystem();
+        reloaded.loadCache();
+        assertArrayEquals(sha1(content), reloaded.get("a.txt").sha1());
+
+        // Changed size with the same modification time
+        byte[] changed = "changed".getBytes();
+        writeFile("a.txt", changed, 1000000);
+        assertArrayEquals(sha1(changed), reloaded.get("a.txt").sha1());
+
+        // Changed modification time
+        writeFile("a.txt", "content".getBytes(), 2000000);
+        assertArrayEquals(sha1("content".getBytes()), reloaded.get("a.txt").sha1());
+        reloaded.close();
+    }
+
+    @Test
+    public void testCorruptCache() throws Exception {
+        FileUtils.writeByteArrayToFile(new File(tmpFolder.getRoot(), "build/digest_cache"), new byte[] { 0x42, 0x44, 0x43, 0x31, 0, 0, 0, 1, 0, 0, 0, 9 });
+        fileSystem.loadCache();
+        writeFile("a.txt", "a".getBytes(), 1000000);
+        assertArrayEquals(sha1("a".getBytes()), fileSystem.get("a.txt").sha1());
+    }
+
+    @Test
+    public void testPrefetchSignatures() throws Exception {
+        List<IResource> resources = new ArrayList<IResource>();
+        List<byte[]> contents = new ArrayList<byte[]>();
+        for (int i = 0; i < 64; ++i) {
+            byte[] content = new byte[i * 1024];
+            Arrays.fill(content, (byte) i);
+            writeFile(String.format("dir/file%d.bin", i), content, 1000000);
+            resources.add(fileSystem.get(String.format("dir/file%d.bin", i)));
+            contents.add(content);
+        }
+        // Missing files are left to be reported when used
+        resources.add(fileSystem.get("dir/missing.bin"));
+        fileSystem.prefetchSignatures(resources, 4);
+        fileSystem.saveCache();
+        assertFalse(new File(tmpFolder.getRoot(), "dir/missing.bin").exists());
+
+        // The prefetched digests were cached
+        for (int i = 0; i < 64; ++i) {
+            writeFile(String.format("dir/file%d.bin", i), new byte[i * 1024], 1000000);
+        }
+        DefaultFileSystem reloaded = createFileSystem();
+        reloaded.loadCache();
+        for (int i = 0; i < 64; ++i) {
+            assertArrayEquals(sha1(contents.get(i)), reloaded.get(String.format("dir/file%d.bin", i)).sha1());
+        }
+        reloaded.close();
+    }
+}
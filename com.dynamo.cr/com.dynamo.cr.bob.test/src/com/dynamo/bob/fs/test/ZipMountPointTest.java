@@ -12,12 +12,19 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -53,6 +60,21 @@ public class ZipMountPointTest {
         assertEquals(new String(resource.getContent()), "file1");
     }
 
+    @Test
+    public void testStreaming() throws Exception {
+        IResource resource = mp.get("test_lib1/file1.in");
+        assertEquals(5, resource.size());
+        InputStream is = resource.openInputStream();
+        try {
+            assertEquals("file1", IOUtils.toString(is));
+        } finally {
+            is.close();
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertEquals(5, resource.transferTo(Channels.newChannel(os)));
+        assertEquals("file1", os.toString());
+    }
+
     @Test
     public void testMount() throws Exception {
         ZipMountPoint mp = new ZipMountPoint(null, "server_root/test_lib2.zip");
@@ -100,5 +122,33 @@ public class ZipMountPointTest {
         assertEquals(1, results.size());
         assertTrue(results.contains("test_lib4/file4.in"));
     }
-}
 
+    @Test
+    public void testWalkerWithPrefix() throws Exception {
+        FileSystemWalker walker = new FileSystemWalker();
+        Collection<String> results = new ArrayList<String>();
+        this.mp.walk("test_lib1", walker, results);
+        this.mp.walk("test_lib1/file1", walker, results);
+        assertEquals(2, results.size());
+        assertTrue(results.contains("test_lib1/file1.in"));
+
+        results.clear();
+        this.mp.walk("test_lib1/testdir1", walker, results);
+        this.mp.walk("test_lib2", walker, results);
+        assertEquals(0, results.size());
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        byte[] expected = MessageDigest.getInstance("SHA1").digest("file1".getBytes());
+        IResource resource = mp.get("test_lib1/file1.in");
+        assertArrayEquals(expected, resource.sha1());
+        assertArrayEquals(expected, mp.get("test_lib1/file1.in").sha1());
+
+        // The digests are saved next to the archive and used when mounted again
+        this.mp.unmount();
+        assertTrue(new File("server_root/test_lib1.zip.digests").isFile());
+        this.mp.mount();
+        assertArrayEquals(expected, mp.get("test_lib1/file1.in").sha1());
+    }
+}
@@ -44,6 +44,36 @@ public class CollectionBuilderTest extends AbstractProtoBuilderTest {
 
     private static final double epsilon = 0.000001;
 
+    /**
+     * Test that nested sub collections are parsed once per build, no matter how many
+     * times they are visited when the tasks are created and built
+     */
+    @Test
+    public void testNestedCollectionsParsedOnce() throws Exception {
+        addFile("/sub3.collection", "name: \"sub3\"\n");
+        for (int i = 2; i >= 0; --i) {
+            StringBuilder src = new StringBuilder();
+            src.append(String.format("name: \"sub%d\"\n", i));
+            src.append("collection_instances {\n");
+            src.append("  id: \"a\"\n");
+            src.append(String.format("  collection: \"/sub%d.collection\"\n", i + 1));
+            src.append("}\n");
+            src.append("collection_instances {\n");
+            src.append("  id: \"b\"\n");
+            src.append(String.format("  collection: \"/sub%d.collection\"\n", i + 1));
+            src.append("}\n");
+            addFile(String.format("/sub%d.collection", i), src.toString());
+        }
+        StringBuilder src = new StringBuilder();
+        src.append("name: \"main\"\n");
+        src.append("collection_instances {\n");
+        src.append("  id: \"sub\"\n");
+        src.append("  collection: \"/sub0.collection\"\n");
+        src.append("}\n");
+        build("/test.collection", src.toString());
+        Assert.assertEquals(5, GetProject().getProtoCache().getMissCount());
+    }
+
     @Test
     public void testProps() throws Exception {
         addFile("/test.go", "");
@@ -0,0 +1,115 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+
+public class ProtoCacheTest {
+
+    private MockFileSystem fileSystem;
+
+    @Before
+    public void setUp() {
+        fileSystem = new MockFileSystem();
+        fileSystem.setBuildDirectory("build");
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        fileSystem.addFile("/main.collection", "name: \"main\"".getBytes());
+        IResource resource = fileSystem.get("/main.collection");
+        ProtoCache cache = new ProtoCache(0);
+
+        CollectionDesc collection = cache.get(resource, CollectionDesc.getDefaultInstance());
+        assertEquals("main", collection.getName());
+        assertSame(collection, cache.get(resource, CollectionDesc.getDefaultInstance()));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // Merged into builders free to modify
+        CollectionDesc.Builder builder = CollectionDesc.newBuilder();
+        cache.merge(resource, builder);
+        builder.setName("modified");
+        assertEquals("main", cache.get(resource, CollectionDesc.getDefaultInstance()).getName());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testChangedContent() throws Exception {
+        fileSystem.addFile("/main.collection", "name: \"main\"".getBytes());
+        ProtoCache cache = new ProtoCache(0);
+        assertEquals("main", cache.get(fileSystem.get("/main.collection"), CollectionDesc.getDefaultInstance()).getName());
+
+        fileSystem.addFile("/main.collection", "name: \"changed\"".getBytes());
+        assertEquals("changed", cache.get(fileSystem.get("/main.collection"), CollectionDesc.getDefaultInstance()).getName());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMessageTypes() throws Exception {
+        fileSystem.addFile("/empty.txt", new byte[0]);
+        IResource resource = fileSystem.get("/empty.txt");
+        ProtoCache cache = new ProtoCache(0);
+        cache.get(resource, CollectionDesc.getDefaultInstance());
+        PrototypeDesc prototype = cache.get(resource, PrototypeDesc.getDefaultInstance());
+        assertEquals(0, prototype.getComponentsCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ProtoCache cache = new ProtoCache(2);
+        for (int i = 0; i < 3; ++i) {
+            fileSystem.addFile(String.format("/%d.collection", i), String.format("name: \"%d\"", i).getBytes());
+        }
+        cache.get(fileSystem.get("/0.collection"), CollectionDesc.getDefaultInstance());
+        cache.get(fileSystem.get("/1.collection"), CollectionDesc.getDefaultInstance());
+        // Least recently used is evicted
+        cache.get(fileSystem.get("/0.collection"), CollectionDesc.getDefaultInstance());
+        cache.get(fileSystem.get("/2.collection"), CollectionDesc.getDefaultInstance());
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getMissCount());
+
+        cache.get(fileSystem.get("/0.collection"), CollectionDesc.getDefaultInstance());
+        assertEquals(3, cache.getMissCount());
+        cache.get(fileSystem.get("/1.collection"), CollectionDesc.getDefaultInstance());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testParseError() throws Exception {
+        fileSystem.addFile("/main.collection", "name: \"main".getBytes());
+        ProtoCache cache = new ProtoCache(0);
+        try {
+            cache.get(fileSystem.get("/main.collection"), CollectionDesc.getDefaultInstance());
+            fail();
+        } catch (CompileExceptionError e) {
+            assertEquals(1, e.getLineNumber());
+        }
+        assertEquals(0, cache.size());
+    }
+}
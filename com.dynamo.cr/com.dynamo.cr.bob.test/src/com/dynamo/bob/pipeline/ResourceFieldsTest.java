@@ -0,0 +1,81 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.CollectionInstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.ComponentDesc;
+import com.dynamo.gameobject.proto.GameObject.EmbeddedInstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.InstanceDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+import com.dynamo.proto.DdfMath.Point3;
+import com.dynamo.sprite.proto.Sprite.SpriteDesc;
+import com.google.protobuf.Message;
+
+public class ResourceFieldsTest {
+
+    private static List<String> collect(Message message) {
+        List<String> paths = new ArrayList<String>();
+        ResourceFields.collect(message, paths);
+        return paths;
+    }
+
+    @Test
+    public void testCollection() throws Exception {
+        CollectionDesc collection = CollectionDesc.newBuilder()
+                .setName("main")
+                .addInstances(InstanceDesc.newBuilder().setId("a").setPrototype("/a.goc").setPosition(Point3.newBuilder().setX(1)))
+                .addInstances(InstanceDesc.newBuilder().setId("b").setPrototype("/b.goc"))
+                .addCollectionInstances(CollectionInstanceDesc.newBuilder().setId("c").setCollection("/c.collectionc"))
+                .addEmbeddedInstances(EmbeddedInstanceDesc.newBuilder().setId("d").setData(""))
+                .addPropertyResources("/d.texturec")
+                .build();
+        assertEquals(Arrays.asList("/a.goc", "/b.goc", "/c.collectionc", "/d.texturec"), collect(collection));
+
+        PrototypeDesc prototype = PrototypeDesc.newBuilder()
+                .addComponents(ComponentDesc.newBuilder().setId("script").setComponent("/a.scriptc"))
+                .addComponents(ComponentDesc.newBuilder().setId("sprite").setComponent("/a.spritec"))
+                .build();
+        assertEquals(Arrays.asList("/a.scriptc", "/a.spritec"), collect(prototype));
+    }
+
+    @Test
+    public void testDefaultValues() throws Exception {
+        // Unset resource fields reference their default values
+        SpriteDesc sprite = SpriteDesc.newBuilder().setTileSet("/a.texturesetc").setDefaultAnimation("idle").build();
+        assertEquals(Arrays.asList("/a.texturesetc", "/builtins/materials/sprite.material"), collect(sprite));
+        sprite = sprite.toBuilder().setMaterial("/a.materialc").build();
+        assertEquals(Arrays.asList("/a.texturesetc", "/a.materialc"), collect(sprite));
+    }
+
+    @Test
+    public void testMessageTypes() throws Exception {
+        assertFalse(ResourceFields.get(CollectionDesc.getDescriptor()).isEmpty());
+        assertFalse(ResourceFields.get(InstanceDesc.getDescriptor()).isEmpty());
+        // Message types without resources are never visited
+        assertTrue(ResourceFields.get(Point3.getDescriptor()).isEmpty());
+        assertTrue(ResourceFields.get(EmbeddedInstanceDesc.getDescriptor()).isEmpty());
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+import com.dynamo.gui.proto.Gui.SceneDesc;
+import com.dynamo.tile.proto.Tile.TileGrid;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldOptions;
+import com.google.protobuf.DescriptorProtos.UninterpretedOption;
+import com.google.protobuf.Message;
+import com.google.protobuf.TextFormat;
+
+/**
+ * Conformance of TextFormatParser with TextFormat
+ */
+public class TextFormatParserTest {
+
+    /**
+     * Assert that the parser accepts the text and merges the same message as TextFormat
+     */
+    private static void assertConforms(Message.Builder builder, String text) throws Exception {
+        Message.Builder expected = builder.clone();
+        TextFormat.merge(text, expected);
+        Message.Builder actual = builder.clone();
+        assertTrue(TextFormatParser.merge(text.getBytes(StandardCharsets.UTF_8), actual));
+        assertEquals(expected.buildPartial(), actual.buildPartial());
+    }
+
+    private static void assertConforms(Message defaultInstance, String text) throws Exception {
+        assertConforms(defaultInstance.newBuilderForType(), text);
+    }
+
+    /**
+     * Assert that the parser leaves the text to TextFormat without modifying the builder
+     */
+    private static void assertRejected(Message defaultInstance, String text) throws Exception {
+        Message.Builder builder = defaultInstance.newBuilderForType();
+        assertFalse(TextFormatParser.merge(text.getBytes(StandardCharsets.UTF_8), builder));
+        assertEquals(defaultInstance, builder.buildPartial());
+    }
+
+    @Test
+    public void testCollection() throws Exception {
+        StringBuilder src = new StringBuilder();
+        src.append("name: \"main\"\n");
+        src.append("scale_along_z: 1\n");
+        src.append("instances {\n");
+        src.append("  id: \"enemy\"\n");
+        src.append("  prototype: \"/main/enemy.go\"\n");
+        src.append("  children: \"child\"\n");
+        src.append("  position {\n    x: 16.5\n    y: -8.25\n    z: 0.0\n  }\n");
+        src.append("  rotation {\n    x: 0.0\n    y: 0.0\n    z: 0.38268343\n    w: 0.9238795\n  }\n");
+        src.append("  component_properties {\n    id: \"script\"\n");
+        src.append("    properties {\n      id: \"speed\"\n      value: \"2.5\"\n      type: PROPERTY_TYPE_NUMBER\n    }\n  }\n");
+        src.append("  scale3 {\n    x: 1.0E-5\n    y: 123456.789\n    z: 1\n  }\n");
+        src.append("}\n");
+        src.append("# comment\n");
+        src.append("embedded_instances {\n");
+        src.append("  id: \"player\"\n");
+        src.append("  data: \"components {\\n  id: \\\"script\\\"\\n  component: \\\"/main/player.script\\\"\\n}\\n\"\n");
+        src.append("  \"embedded_components {\\n  id: \\\"sprite\\\"\\n  type: \\\"sprite\\\"\\n}\\n\"\n");
+        src.append("  scale: 0.5\n");
+        src.append("}\n");
+        assertConforms(CollectionDesc.getDefaultInstance(), src.toString());
+    }
+
+    @Test
+    public void testGui() throws Exception {
+        StringBuilder src = new StringBuilder();
+        src.append("script: \"/main/main.gui_script\"\n");
+        src.append("nodes {\n");
+        src.append("  position { x: 480 y: 320.5 z: 0 w: 1 }\n");
+        src.append("  type: TYPE_TEXT\n");
+        src.append("  blend_mode: BLEND_MODE_ADD\n");
+        src.append("  text: 'Hello \\'world\\'\\t\\303\\251'\n");
+        src.append("  id: \"text\"\n");
+        src.append("  line_break: true\n");
+        src.append("  inherit_alpha: false\n");
+        src.append("}\n");
+        src.append("nodes: <\n  type: TYPE_BOX\n  id: \"box\"\n>\n");
+        assertConforms(SceneDesc.getDefaultInstance(), src.toString());
+    }
+
+    @Test
+    public void testTileGrid() throws Exception {
+        StringBuilder src = new StringBuilder();
+        src.append("tile_set: \"/main/level.tilesource\"\n");
+        src.append("layers {\n  id: \"layer1\"\n  z: 0.1\n  is_visible: 1\n");
+        for (int i = 0; i < 100; ++i) {
+            src.append(String.format("  cell {\n    x: %d\n    y: %d\n    tile: %d\n    h_flip: %d\n    v_flip: 0\n  }\n", i % 10 - 5, i / 10, i, i % 2));
+        }
+        src.append("}\n");
+        src.append("material: \"/builtins/materials/tile_map.material\"\n");
+        src.append("blend_mode: BLEND_MODE_MULT\n");
+        assertConforms(TileGrid.getDefaultInstance(), src.toString());
+    }
+
+    @Test
+    public void testScalarTypes() throws Exception {
+        assertConforms(UninterpretedOption.getDefaultInstance(),
+                "positive_int_value: 18446744073709551615 negative_int_value: -9223372036854775808 double_value: 0.1");
+        assertConforms(UninterpretedOption.getDefaultInstance(),
+                "positive_int_value: 0 negative_int_value: 123456789012345678 double_value: -1e300");
+        assertConforms(UninterpretedOption.getDefaultInstance(),
+                "double_value: 3.141592653589793 double_value: 2.5f double_value: .5 double_value: -0");
+        assertConforms(UninterpretedOption.getDefaultInstance(),
+                "name { name_part: \"a\" is_extension: true } name { name_part: 'b' is_extension: false } identifier_value: \"id\"");
+        assertConforms(FieldDescriptorProto.getDefaultInstance(),
+                "name: \"f\" number: -2147483648 label: LABEL_REPEATED type: TYPE_SINT64");
+    }
+
+    @Test
+    public void testFloats() throws Exception {
+        String[] values = {"0", "-0", "1", "0.1", "-0.3", "16777216", "16777217", "0.0000000001", "0.00000000001",
+                "3.4028235E38", "1e-45", "123456789.123456789", "1.5f", "2.", ".25", "+7.5"};
+        for (String value : values) {
+            assertConforms(TileGrid.getDefaultInstance(), String.format("tile_set: \"\" layers { id: \"\" z: %s is_visible: 1 }", value));
+        }
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        String[] values = {"\"\"", "''", "\"\\a\\b\\f\\n\\r\\t\\v\\\\\\'\\\"\"", "\"\\0\\01\\012\\0123\"", "\"\\x4\\x41\\x414\"",
+                "\"a\" 'b' \"c\"", "\"\\342\\202\\254\"", "\"#{}:\""};
+        for (String value : values) {
+            assertConforms(PrototypeDesc.getDefaultInstance(), "property_resources: " + value);
+            assertConforms(UninterpretedOption.getDefaultInstance(), "string_value: " + value);
+        }
+        // Invalid UTF-8 is replaced by TextFormat in string fields, but kept in bytes fields
+        assertRejected(PrototypeDesc.getDefaultInstance(), "property_resources: \"\\377\"");
+        assertConforms(UninterpretedOption.getDefaultInstance(), "string_value: \"\\377\"");
+    }
+
+    @Test
+    public void testMergeIntoExisting() throws Exception {
+        CollectionDesc.Builder builder = CollectionDesc.newBuilder();
+        TextFormat.merge("name: \"a\" instances { id: \"a\" prototype: \"/a.go\" position { x: 1 y: 2 z: 3 } }", builder);
+        assertConforms(builder, "name: \"b\" instances { id: \"b\" prototype: \"/b.go\" }");
+
+        // Message fields are replaced rather than merged
+        UninterpretedOption.Builder option = UninterpretedOption.newBuilder();
+        TextFormat.merge("name { name_part: \"a\" is_extension: true }", option);
+        assertConforms(FieldDescriptorProto.newBuilder().setOptions(FieldOptions.newBuilder()
+                .setPacked(true).addUninterpretedOption(option)), "options { deprecated: true }");
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        // Errors
+        assertRejected(CollectionDesc.getDefaultInstance(), "name: \"main");
+        assertRejected(CollectionDesc.getDefaultInstance(), "name \"main\"");
+        assertRejected(CollectionDesc.getDefaultInstance(), "unknown: 1");
+        assertRejected(CollectionDesc.getDefaultInstance(), "name: \"main\" instances { id: \"a\"");
+        assertRejected(CollectionDesc.getDefaultInstance(), "scale_along_z: -1");
+        assertRejected(CollectionDesc.getDefaultInstance(), "scale_along_z: 4294967296");
+        assertRejected(SceneDesc.getDefaultInstance(), "nodes { type: TYPE_UNKNOWN }");
+        assertRejected(SceneDesc.getDefaultInstance(), "nodes { line_break: 1 }");
+        assertRejected(SceneDesc.getDefaultInstance(), "nodes { text: \"\\q\" }");
+        // Missing required fields in nested messages
+        assertRejected(TileGrid.getDefaultInstance(), "tile_set: \"\" layers { id: \"\" z: 0 is_visible: 1 cell { x: 0 y: 0 } }");
+        // Valid, but left to TextFormat
+        assertRejected(CollectionDesc.getDefaultInstance(), "scale_along_z: 0x10");
+        assertRejected(CollectionDesc.getDefaultInstance(), "scale_along_z: 010");
+        assertRejected(CollectionDesc.getDefaultInstance(), "name: \"\u00e5\"");
+        assertRejected(SceneDesc.getDefaultInstance(), "nodes { type: 1 }");
+        assertRejected(SceneDesc.getDefaultInstance(), "nodes { position { x: inf } }");
+        assertRejected(SceneDesc.getDefaultInstance(), "nodes { position { x: 1 } position { y: 1 } }");
+    }
+
+    @Test
+    public void testErrorLine() throws Exception {
+        MockFileSystem fileSystem = new MockFileSystem();
+        fileSystem.setBuildDirectory("build");
+        fileSystem.addFile("/main.collection", "name: \"main\"\ninstances {\n  id: \"a\"\n  position: 1\n}\n".getBytes());
+        try {
+            ProtoUtil.merge(fileSystem.get("/main.collection"), CollectionDesc.newBuilder());
+            fail();
+        } catch (CompileExceptionError e) {
+            assertEquals(4, e.getLineNumber());
+        }
+    }
+}
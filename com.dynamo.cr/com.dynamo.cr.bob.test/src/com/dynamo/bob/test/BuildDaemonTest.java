@@ -0,0 +1,172 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.BuildDaemon;
+import com.dynamo.bob.ClassLoaderScanner;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.fs.DefaultFileSystem;
+
+public class BuildDaemonTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File root;
+    private Project project;
+    private BuildDaemon daemon;
+    private Thread daemonThread;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        root = tmpFolder.getRoot();
+        writeFile("a.in", "A");
+        writeFile("sub/b.counted", "B");
+
+        project = new Project(new DefaultFileSystem(), root.getAbsolutePath(), "build/default");
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        project.findSources(".", null);
+
+        daemon = new BuildDaemon(project, ".");
+        port = daemon.start(0);
+        daemonThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        daemonThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        request("shutdown");
+        daemonThread.join();
+        project.dispose();
+    }
+
+    private void writeFile(String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(root, path), content, StandardCharsets.UTF_8);
+    }
+
+    private String readOutput(String path) throws IOException {
+        return FileUtils.readFileToString(new File(root, "build/default/" + path), StandardCharsets.UTF_8);
+    }
+
+    private List<String> request(String line) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer.println(line);
+            List<String> response = new ArrayList<String>();
+            String responseLine;
+            while ((responseLine = reader.readLine()) != null) {
+                response.add(responseLine);
+                if (responseLine.equals("OK") || responseLine.equals("FAILED")) {
+                    break;
+                }
+            }
+            return response;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String status(List<String> response) {
+        return response.get(response.size() - 1);
+    }
+
+    // File system events are delivered asynchronously, build until the output appears
+    private void buildUntilExists(String path) throws Exception {
+        File output = new File(root, "build/default/" + path);
+        for (int i = 0; i < 50 && !output.exists(); ++i) {
+            request("build");
+            if (!output.exists()) {
+                Thread.sleep(100);
+            }
+        }
+        assertTrue(output.exists());
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        assertThat(status(request("build")), is("OK"));
+        assertThat(readOutput("a.out"), is("A"));
+        assertThat(readOutput("sub/b.countedc"), is("B"));
+
+        writeFile("a.in", "AA");
+        assertThat(status(request("build")), is("OK"));
+        assertThat(readOutput("a.out"), is("AA"));
+    }
+
+    @Test
+    public void testAddedFiles() throws Exception {
+        assertThat(status(request("build")), is("OK"));
+
+        writeFile("c.in", "C");
+        buildUntilExists("c.out");
+        assertThat(readOutput("c.out"), is("C"));
+
+        // Files in new directories are found as well
+        writeFile("new/dir/d.in", "D");
+        buildUntilExists("new/dir/d.out");
+        assertThat(readOutput("new/dir/d.out"), is("D"));
+    }
+
+    @Test
+    public void testFailingBuild() throws Exception {
+        writeFile("e.in_err", "E");
+        List<String> response = request("build");
+        for (int i = 0; i < 50 && !status(response).equals("FAILED"); ++i) {
+            Thread.sleep(100);
+            response = request("build");
+        }
+        assertThat(status(response), is("FAILED"));
+        assertTrue(response.get(0).startsWith("ERROR"));
+
+        new File(root, "e.in_err").delete();
+        for (int i = 0; i < 50 && !status(response).equals("OK"); ++i) {
+            Thread.sleep(100);
+            response = request("build");
+        }
+        assertThat(status(response), is("OK"));
+    }
+}
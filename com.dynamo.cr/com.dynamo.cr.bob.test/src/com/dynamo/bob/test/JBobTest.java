@@ -17,8 +17,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.security.MessageDigest;
@@ -31,9 +33,13 @@ import java.util.Set;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
@@ -47,9 +53,12 @@ import com.dynamo.bob.ClassLoaderScanner;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.bob.cache.BuildCacheServer;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.test.util.MockFileSystem;
 import com.dynamo.bob.test.util.MockResource;
+import com.dynamo.bob.util.BuildTrace;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.TaskResult;
 
@@ -194,6 +203,46 @@ public class JBobTest {
         }
     }
 
+    @BuilderParams(name = "CountingBuilder", inExts = ".counted", outExt = ".countedc")
+    public static class CountingBuilder extends CopyBuilder {
+        static int creates = 0;
+
+        @Override
+        public Task<Void> create(IResource input) {
+            ++creates;
+            return super.create(input);
+        }
+    }
+
+    @BuilderParams(name = "CheckingBuilder", inExts = ".checking", outExt = ".checkingc")
+    public static class CheckingBuilder extends CountingBuilder {
+        @Override
+        public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
+            // The referenced resource is checked but is not an input of the task
+            if (!project.getResource(new String(input.getContent())).exists()) {
+                throw new CompileExceptionError(input, 0, "Missing resource");
+            }
+            return super.create(input);
+        }
+    }
+
+    @BuilderParams(name = "GeneratingBuilder", inExts = ".gen", outExt = ".genc")
+    public static class GeneratingBuilder extends Builder<Void> {
+        @Override
+        public Task<Void> create(IResource input) {
+            // The output doesn't depend on any input
+            return Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addOutput(input.changeExt(params.outExt()))
+                    .build();
+        }
+
+        @Override
+        public void build(Task<Void> task) throws IOException {
+            task.output(0).setContent("generated".getBytes());
+        }
+    }
+
     @BuilderParams(name = "FailOnEmptyAlwaysOutput", inExts = ".foeao", outExt = ".foeaoc")
     public static class FailOnEmptyAlwaysOutputBuilder extends Builder<Void> {
         @Override
@@ -210,6 +259,9 @@ public class JBobTest {
         }
     }
 
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     private MockFileSystem fileSystem;
     private Project project;
 
@@ -398,6 +450,340 @@ public class JBobTest {
         assertThat(result.get(2).getTask().getProductOf(), is((Task) result.get(0).getTask()));
     }
 
+    @Test
+    public void testParallelBuild() throws Exception {
+        project.setOption("jobs", "4");
+        List<String> inputs = new ArrayList<String>();
+        StringBuilder expected = new StringBuilder();
+        inputs.add("test.proj");
+        fileSystem.addFile("test.proj", "".getBytes());
+        for (int i = 0; i < 32; ++i) {
+            String name = String.format("test%02d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+            expected.append(i);
+        }
+        fileSystem.addFile("test.dynamic", "1\n2\n".getBytes());
+        inputs.add("test.dynamic");
+        project.setInputs(inputs);
+
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(32 + 1 + 3));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        // The archive task depends on all other outputs and must be built last
+        assertTrue(result.get(result.size() - 1).getTask().getBuilder() instanceof ArcBuilder);
+        assertThat(getResourceString("test_0.numberc"), is("10"));
+        assertThat(getResourceString("test_1.numberc"), is("20"));
+        assertThat(getResourceString("test.arc"), is(expected.toString() + "1020" + "12"));
+
+        result = build();
+        assertThat(result.size(), is(0));
+    }
+
+    @Test
+    public void testParallelBuildFailing() throws Exception {
+        project.setOption("jobs", "4");
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in"));
+        List<TaskResult> result = build();
+        // The archive depends on the failing task and is never built
+        assertThat(result.size(), is(2));
+        assertThat(getResourceString("test2.out"), is("B"));
+        assertFalse(fileSystem.get("test.arc").output().exists());
+    }
+
+    @Test
+    public void testIncrementalCreate() throws Exception {
+        project.setIncremental(true);
+        CountingBuilder.creates = 0;
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("a.counted", "A".getBytes());
+        fileSystem.addFile("b.counted", "B".getBytes());
+        fileSystem.addFile("test.dynamic", "1\n2\n".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "a.counted", "b.counted", "test.dynamic"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(6));
+        assertThat(CountingBuilder.creates, is(2));
+
+        // Nothing changed, the tasks are reused
+        result = build();
+        assertThat(result.size(), is(0));
+        assertThat(CountingBuilder.creates, is(2));
+
+        // Only the task of the changed file is created again
+        ((MockResource) fileSystem.get("a.counted")).forceSetContent("C".getBytes());
+        project.invalidate(Arrays.asList("/a.counted"));
+        result = build();
+        assertThat(result.size(), is(2));
+        assertThat(CountingBuilder.creates, is(3));
+        assertThat(getResourceString("a.countedc"), is("C"));
+
+        // Tasks created through buildResource are created again with their parent task
+        ((MockResource) fileSystem.get("test.dynamic")).forceSetContent("1\n2\n3\n".getBytes());
+        project.invalidate(Arrays.asList("test.dynamic"));
+        build();
+        assertThat(getResourceString("test_2.numberc"), is("30"));
+        assertThat(CountingBuilder.creates, is(3));
+
+        // Changes not reported with invalidate are still built, but the tasks are not created again
+        ((MockResource) fileSystem.get("b.counted")).forceSetContent("D".getBytes());
+        result = build();
+        assertThat(result.size(), is(2));
+        assertThat(getResourceString("b.countedc"), is("D"));
+        assertThat(CountingBuilder.creates, is(3));
+
+        project.invalidateAll();
+        build();
+        assertThat(CountingBuilder.creates, is(5));
+    }
+
+    private List<TaskResult> buildNewProject(boolean taskGraphCache, String... inputs) throws Exception {
+        project.dispose();
+        project = new Project(fileSystem);
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        project.setInputs(Arrays.asList(inputs));
+        if (taskGraphCache) {
+            project.setOption("task-graph-cache", "true");
+        }
+        return build();
+    }
+
+    private List<TaskResult> buildNewProject() throws Exception {
+        return buildNewProject(true, "test.proj", "a.counted", "b.counted", "test.dynamic");
+    }
+
+    @Test
+    public void testPersistentTaskGraph() throws Exception {
+        CountingBuilder.creates = 0;
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("a.counted", "A".getBytes());
+        fileSystem.addFile("b.counted", "B".getBytes());
+        fileSystem.addFile("test.dynamic", "1\n2\n".getBytes());
+        List<TaskResult> result = buildNewProject();
+        assertThat(result.size(), is(6));
+        assertThat(CountingBuilder.creates, is(2));
+        assertTrue(fileSystem.get("build/task_graph").exists());
+
+        // The tasks are restored in a new project when nothing has changed
+        result = buildNewProject();
+        assertThat(result.size(), is(0));
+        assertThat(CountingBuilder.creates, is(2));
+
+        // Only the task of the changed file is created again
+        ((MockResource) fileSystem.get("a.counted")).forceSetContent("C".getBytes());
+        result = buildNewProject();
+        assertThat(result.size(), is(2));
+        assertThat(CountingBuilder.creates, is(3));
+        assertThat(getResourceString("a.countedc"), is("C"));
+
+        // Tasks created through buildResource are restored with their parent task
+        ((MockResource) fileSystem.get("test.dynamic")).forceSetContent("1\n2\n3\n".getBytes());
+        buildNewProject();
+        assertThat(getResourceString("test_2.numberc"), is("30"));
+        result = buildNewProject();
+        assertThat(result.size(), is(0));
+        ((MockResource) fileSystem.get("test.dynamic")).forceSetContent("4\n2\n3\n".getBytes());
+        buildNewProject();
+        assertThat(getResourceString("test_0.numberc"), is("40"));
+
+        // Removed outputs are built again from the restored tasks
+        fileSystem.get("build/b.countedc").remove();
+        result = buildNewProject();
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("b.countedc"), is("B"));
+        assertThat(CountingBuilder.creates, is(3));
+
+        // All tasks are created again when the options change
+        project.dispose();
+        project = new Project(fileSystem);
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        project.setInputs(Arrays.asList("test.proj", "a.counted", "b.counted", "test.dynamic"));
+        project.setOption("task-graph-cache", "true");
+        project.setOption("texture-compression", "true");
+        build();
+        assertThat(CountingBuilder.creates, is(5));
+    }
+
+    @Test
+    public void testPersistentTaskGraphDisabled() throws Exception {
+        CountingBuilder.creates = 0;
+        fileSystem.addFile("a.counted", "A".getBytes());
+        buildNewProject(false, "a.counted");
+        buildNewProject(false, "a.counted");
+        assertThat(CountingBuilder.creates, is(2));
+        assertFalse(fileSystem.get("build/task_graph").exists());
+    }
+
+    @Test
+    public void testPersistentTaskGraphLookups() throws Exception {
+        CountingBuilder.creates = 0;
+        fileSystem.addFile("a.checking", "/ref.txt".getBytes());
+        fileSystem.addFile("ref.txt", "ref".getBytes());
+        buildNewProject(true, "a.checking");
+        buildNewProject(true, "a.checking");
+        assertThat(CountingBuilder.creates, is(1));
+
+        // The task is created again when a resource looked up when creating it changes
+        ((MockResource) fileSystem.get("ref.txt")).forceSetContent("changed".getBytes());
+        buildNewProject(true, "a.checking");
+        assertThat(CountingBuilder.creates, is(2));
+
+        // or is removed, which is then reported by the builder
+        fileSystem.get("ref.txt").remove();
+        try {
+            buildNewProject(true, "a.checking");
+            fail();
+        } catch (CompileExceptionError e) {
+            assertThat(e.getMessage(), is("Missing resource"));
+        }
+    }
+
+    @Test
+    public void testBuildTraceWithoutInputs() throws Exception {
+        fileSystem.addFile("test.gen", "".getBytes());
+        project.setInputs(Arrays.asList("test.gen"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(1));
+        assertTrue(result.get(0).isOk());
+        assertThat(getResourceString("test.genc"), is("generated"));
+
+        // Traced by the output
+        int traced = 0;
+        for (BuildTrace.Event event : project.getBuildTrace().getEvents()) {
+            if (event.getCategory().equals("build")) {
+                assertTrue(event.getName().endsWith("test.genc"));
+                ++traced;
+            }
+        }
+        assertThat(traced, is(1));
+    }
+
+    @Test
+    public void testBuildTrace() throws Exception {
+        File traceFile = tmpFolder.newFile("trace.json");
+        project.setOption("build-trace", traceFile.getAbsolutePath());
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in", "A".getBytes());
+        fileSystem.addFile("test2.in_err", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in", "test2.in_err"));
+        build();
+
+        Map<String, String> statuses = new HashMap<String, String>();
+        int creates = 0;
+        for (BuildTrace.Event event : project.getBuildTrace().getEvents()) {
+            if (event.getCategory().equals("build")) {
+                statuses.put(event.getName(), event.getStatus());
+                assertTrue(event.getDuration() >= 0);
+            } else if (event.getCategory().equals("create")) {
+                ++creates;
+            }
+        }
+        assertThat(creates, is(3));
+        // The archive depends on the failing task and is never built
+        assertThat(statuses.size(), is(2));
+        assertThat(statuses.get("test1.in"), is("built"));
+        assertThat(statuses.get("test2.in_err"), is("failed"));
+
+        JsonNode trace = new ObjectMapper().readTree(traceFile);
+        int completeEvents = 0;
+        for (JsonNode event : trace.get("traceEvents")) {
+            if (event.get("ph").getTextValue().equals("X")) {
+                ++completeEvents;
+                assertTrue(event.has("ts"));
+                assertTrue(event.has("dur"));
+            }
+        }
+        assertThat(completeEvents, is(5));
+
+        String summary = project.getBuildTrace().getSummary(10);
+        assertTrue(summary.contains("InCopyBuilder"));
+        assertTrue(summary.contains("test2.in_err"));
+
+        project.setInputs(Arrays.asList("test1.in"));
+        build();
+        List<BuildTrace.Event> events = project.getBuildTrace().getEvents();
+        assertThat(events.get(events.size() - 1).getStatus(), is("up-to-date"));
+    }
+
+    private Project createCheckout(String... files) throws Exception {
+        return createCheckout(tmpFolder.getRoot(), files);
+    }
+
+    private Project createCheckout(File buildCacheDir, String... files) throws Exception {
+        fileSystem = new MockFileSystem();
+        project.dispose();
+        project = new Project(fileSystem);
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        project.setOption("build-cache-dir", buildCacheDir.getAbsolutePath());
+        for (int i = 0; i < files.length; i += 2) {
+            fileSystem.addFile(files[i], files[i + 1].getBytes());
+        }
+        project.setInputs(Arrays.asList("test.proj", "test1.in", "test2.in"));
+        return project;
+    }
+
+    @Test
+    public void testBuildCache() throws Exception {
+        createCheckout("test.proj", "", "test1.in", "A", "test2.in", "B");
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(3));
+        BuildCache buildCache = project.getBuildCache();
+        assertThat(buildCache.getHits(), is(0));
+        assertThat(buildCache.getMisses(), is(3));
+        assertThat(buildCache.getStores(), is(3));
+
+        // Clean checkout of the same project
+        createCheckout("test.proj", "", "test1.in", "A", "test2.in", "B");
+        result = build();
+        assertThat(result.size(), is(3));
+        buildCache = project.getBuildCache();
+        assertThat(buildCache.getHits(), is(3));
+        assertThat(buildCache.getMisses(), is(0));
+        assertThat(getResourceString("test1.out"), is("A"));
+        assertThat(getResourceString("test.arc"), is("AB"));
+
+        // Restored outputs are up to date
+        result = build();
+        assertThat(result.size(), is(0));
+
+        // Checkout with a changed file
+        createCheckout("test.proj", "", "test1.in", "C", "test2.in", "B");
+        result = build();
+        buildCache = project.getBuildCache();
+        assertThat(buildCache.getHits(), is(1));
+        assertThat(buildCache.getMisses(), is(2));
+        assertThat(getResourceString("test.arc"), is("CB"));
+    }
+
+    @Test
+    public void testRemoteBuildCache() throws Exception {
+        BuildCacheServer server = new BuildCacheServer(0, tmpFolder.newFolder("server"), 1024 * 1024);
+        server.start();
+        try {
+            createCheckout(tmpFolder.newFolder("first"), "test.proj", "", "test1.in", "A", "test2.in", "B");
+            project.setOption("build-cache-remote", String.format("http://localhost:%d", server.getPort()));
+            project.setOption("jobs", "2");
+            build();
+            assertThat(project.getBuildCache().getStores(), is(3));
+
+            // Clean checkout with an empty local cache, e.g. on another machine
+            createCheckout(tmpFolder.newFolder("second"), "test.proj", "", "test1.in", "A", "test2.in", "B");
+            project.setOption("build-cache-remote", String.format("http://localhost:%d", server.getPort()));
+            project.setOption("jobs", "2");
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(3));
+            BuildCache buildCache = project.getBuildCache();
+            assertThat(buildCache.getRemoteHits(), is(3));
+            assertThat(buildCache.getMisses(), is(0));
+            assertThat(getResourceString("test.arc"), is("AB"));
+        } finally {
+            server.stop();
+        }
+    }
 
     @Test
     public void testChangeOptions() throws Exception {
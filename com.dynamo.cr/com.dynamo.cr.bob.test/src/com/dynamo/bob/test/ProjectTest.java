@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -68,6 +69,8 @@ public class ProjectTest {
     private ArrayList<URL> libraryUrls = new ArrayList<URL>();
 
     private AtomicInteger _304Count = new AtomicInteger();
+    private AtomicInteger _206Count = new AtomicInteger();
+    private AtomicInteger _416Count = new AtomicInteger();
 
     @Rule
     public TestLibrariesRule testLibs = new TestLibrariesRule();
@@ -156,6 +159,57 @@ System.out.printf("testResolve start");
         System.out.printf("testResolve end");
     }
 
+    @Test
+    public void testResolveResume() throws Exception {
+        File lib = new File(project.getLibPath());
+        if (lib.exists()) {
+            FileUtils.cleanDirectory(lib);
+        }
+        FileUtils.forceMkdir(lib);
+
+        // Simulate an interrupted download of the first library
+        File serverFile = new File(testLibs.getServerLocation(), "test_lib1.zip");
+        byte[] content = FileUtils.readFileToByteArray(serverFile);
+        String filename = LibraryUtil.libUrlToFilename(libraryUrls.get(0));
+        File partFile = new File(lib, filename + ".part");
+        FileUtils.writeByteArrayToFile(partFile, Arrays.copyOf(content, content.length / 2));
+        FileUtils.writeStringToFile(new File(lib, filename + ".part.etag"), LibraryUtil.readArchiveComment(serverFile));
+
+        project.resolveLibUrls(new NullProgress());
+        assertEquals(1, _206Count.get());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(lib, filename)));
+        assertFalse(partFile.exists());
+        assertFalse(new File(lib, filename + ".part.etag").exists());
+        for (URL url : libraryUrls) {
+            assertTrue(libExists(LibraryUtil.libUrlToFilename(url)));
+        }
+    }
+
+    @Test
+    public void testResolveCompletePart() throws Exception {
+        File lib = new File(project.getLibPath());
+        if (lib.exists()) {
+            FileUtils.cleanDirectory(lib);
+        }
+        FileUtils.forceMkdir(lib);
+
+        // Simulate a download interrupted after the library was downloaded but before it was moved into place
+        File serverFile = new File(testLibs.getServerLocation(), "test_lib1.zip");
+        byte[] content = FileUtils.readFileToByteArray(serverFile);
+        String filename = LibraryUtil.libUrlToFilename(libraryUrls.get(0));
+        File partFile = new File(lib, filename + ".part");
+        FileUtils.writeByteArrayToFile(partFile, content);
+        FileUtils.writeStringToFile(new File(lib, filename + ".part.etag"), LibraryUtil.readArchiveComment(serverFile));
+
+        // The range can't be satisfied, the library is downloaded again
+        project.resolveLibUrls(new NullProgress());
+        assertEquals(1, _416Count.get());
+        assertEquals(0, _206Count.get());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(lib, filename)));
+        assertFalse(partFile.exists());
+        assertFalse(new File(lib, filename + ".part.etag").exists());
+    }
+
     @Test
     public void testMountPoints() throws Exception {
         System.out.printf("testMountPoints start");
@@ -270,10 +324,29 @@ System.out.printf("testResolve start");
                 if (sha1 != null) {
                     response.setHeader("ETag", sha1);
                 }
+                String range = request.getHeader("Range");
+                String ifRange = request.getHeader("If-Range");
                 if (etag != null && etag.equals(sha1)) {
                     _304Count.incrementAndGet();
                     response.setStatus(304);
                     baseRequest.setHandled(true);
+                } else if (range != null && range.startsWith("bytes=") && range.endsWith("-") && sha1 != null && sha1.equals(ifRange)) {
+                    // Partial content for resumed downloads, from an offset to the end of the file
+                    byte[] content = FileUtils.readFileToByteArray(file);
+                    int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    if (offset >= content.length) {
+                        _416Count.incrementAndGet();
+                        response.setStatus(416);
+                        response.setHeader("Content-Range", String.format("bytes */%d", content.length));
+                        baseRequest.setHandled(true);
+                        return;
+                    }
+                    _206Count.incrementAndGet();
+                    response.setStatus(206);
+                    response.setHeader("Content-Range", String.format("bytes %d-%d/%d", offset, content.length - 1, content.length));
+                    response.setContentLength(content.length - offset);
+                    response.getOutputStream().write(content, offset, content.length - offset);
+                    baseRequest.setHandled(true);
                 } else {
                     super.handle(target, baseRequest, request, response);
                 }
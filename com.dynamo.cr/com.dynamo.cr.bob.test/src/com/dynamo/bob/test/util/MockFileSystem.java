@@ -33,7 +33,7 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     // To easier handle walking we want the resources to be sorted by their key.
     protected Map<String, MockResource> resources = new TreeMap<String, MockResource>();
 
-    public void addFile(String path, byte[] content, long lastModified) {
+    public synchronized void addFile(String path, byte[] content, long lastModified) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
@@ -54,7 +54,7 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     }
 
     @Override
-    public IResource get(String path) {
+    public synchronized IResource get(String path) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
@@ -77,6 +77,9 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     @Override
     public void saveCache() {}
 
+    @Override
+    public void prefetchSignatures(Collection<IResource> resources, int jobs) {}
+
     // Sort a list of paths based on lexicographically
     // Needed to be able to mimic the directory traversal on disc
     class SortPath implements Comparator<String> {
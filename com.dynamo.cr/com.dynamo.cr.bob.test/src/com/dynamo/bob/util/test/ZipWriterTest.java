@@ -0,0 +1,150 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.util.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.util.ZipWriter;
+
+public class ZipWriterTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static byte[] content(int i) {
+        return String.format("entry %d entry %d entry %d", i, i, i).getBytes();
+    }
+
+    private void writeEntries(File file, int count) throws IOException {
+        List<Callable<ZipWriter.Entry>> tasks = new ArrayList<Callable<ZipWriter.Entry>>();
+        for (int i = 0; i < count; ++i) {
+            final int index = i;
+            tasks.add(new Callable<ZipWriter.Entry>() {
+                @Override
+                public ZipWriter.Entry call() {
+                    return ZipWriter.deflated("dir/entry" + index, content(index), Deflater.BEST_SPEED);
+                }
+            });
+        }
+        ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+        try {
+            writer.putEntries(tasks, 4);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void verifyEntries(File file, int count) throws IOException {
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            assertEquals(count, zipFile.size());
+            // Entries are written in order
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            for (int i = 0; i < count; ++i) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals("dir/entry" + i, entry.getName());
+                assertArrayEquals(content(i), IOUtils.toByteArray(zipFile.getInputStream(entry)));
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testPutEntries() throws Exception {
+        File file = tmpFolder.newFile("test.zip");
+        writeEntries(file, 100);
+        verifyEntries(file, 100);
+    }
+
+    @Test
+    public void testZip64() throws Exception {
+        // More entries than fit in the end of central directory record
+        File file = tmpFolder.newFile("test.zip");
+        writeEntries(file, 70000);
+        verifyEntries(file, 70000);
+    }
+
+    @Test
+    public void testReadCompressed() throws Exception {
+        File source = tmpFolder.newFile("source.zip");
+        ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(source));
+        try {
+            zipOut.putNextEntry(new ZipEntry("res/"));
+            zipOut.putNextEntry(new ZipEntry("res/a.xml"));
+            zipOut.write(content(1));
+            zipOut.putNextEntry(new ZipEntry("res/b/c.xml"));
+            zipOut.write(content(2));
+            zipOut.putNextEntry(new ZipEntry("other.xml"));
+            zipOut.write(content(3));
+            ZipEntry stored = new ZipEntry("manifest.xml");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content(4).length);
+            CRC32 crc = new CRC32();
+            crc.update(content(4));
+            stored.setCrc(crc.getValue());
+            zipOut.putNextEntry(stored);
+            zipOut.write(content(4));
+        } finally {
+            zipOut.close();
+        }
+
+        List<ZipWriter.Entry> entries = ZipWriter.readCompressed(source, Arrays.asList("res/", "manifest.xml"));
+        assertEquals(3, entries.size());
+        assertEquals(ZipEntry.DEFLATED, entries.get(0).getMethod());
+        assertEquals(ZipEntry.STORED, entries.get(2).getMethod());
+
+        File file = tmpFolder.newFile("test.zip");
+        ZipWriter writer = new ZipWriter(new FileOutputStream(file));
+        try {
+            for (ZipWriter.Entry entry : entries) {
+                writer.putEntry(entry.getName().equals("manifest.xml") ? entry.withName("manifest/manifest.xml") : entry);
+            }
+        } finally {
+            writer.close();
+        }
+
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            assertEquals(3, zipFile.size());
+            assertArrayEquals(content(1), IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("res/a.xml"))));
+            assertArrayEquals(content(2), IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("res/b/c.xml"))));
+            assertArrayEquals(content(4), IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("manifest/manifest.xml"))));
+            assertNull(zipFile.getEntry("other.xml"));
+        } finally {
+            zipFile.close();
+        }
+    }
+}
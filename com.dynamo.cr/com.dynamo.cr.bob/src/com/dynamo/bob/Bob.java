@@ -406,6 +406,17 @@ public class Bob {
 
         options.addOption(null, "version", false, "Prints the version number to the output");
 
+        options.addOption("j", "jobs", true, "Number of tasks to build in parallel, also used for hashing files and writing archives. Default is 1, use 0 for one job per available processor");
+        options.addOption(null, "build-cache-dir", true, "Directory of a build cache shared between builds and project checkouts. Disabled by default");
+        options.addOption(null, "build-cache-size", true, "Maximum size in megabytes of the build cache. Default is 5120");
+        options.addOption(null, "build-cache-remote", true, "URL of a remote build cache shared between machines, see com.dynamo.bob.cache.BuildCacheServer");
+        options.addOption(null, "build-trace", true, "Filepath where to save the timing of the build tasks in Chrome trace event format. Also prints the slowest builders and resources, as does --verbose");
+        options.addOption(null, "compression-cache-size", true, "Maximum size in megabytes of the cache of compressed archive data in the build directory. Default is 1024");
+        options.addOption(null, "task-graph-cache", false, "Save the created tasks in the build directory and restore them in the next build for inputs that haven't changed, instead of creating them again");
+        options.addOption(null, "proto-cache-size", true, "Maximum number of parsed text format resources, such as collections and gui templates, kept in memory during the build. Default is no limit");
+        options.addOption(null, "daemon", false, "Keep running and build on requests over a local socket, see com.dynamo.bob.BuildDaemon");
+        options.addOption(null, "daemon-port", true, "Port of the build daemon. Default is any free port, which is printed on start");
+
         // debug options
         options.addOption(null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip");
 
@@ -613,6 +624,16 @@ public class Bob {
             project.setOption("bundle-format", cmd.getOptionValue("bundle-format"));
         }
 
+        if (cmd.hasOption("daemon")) {
+            BuildDaemon daemon = new BuildDaemon(project, sourceDirectory);
+            int port = daemon.start(Integer.parseInt(cmd.getOptionValue("daemon-port", "0")));
+            System.out.println(String.format("Build daemon listening on port %d", port));
+            daemon.run();
+            project.dispose();
+            System.exit(0);
+            return;
+        }
+
         boolean ret = true;
         StringBuilder errors = new StringBuilder();
 
@@ -621,13 +642,36 @@ public class Bob {
             result = project.build(new ConsoleProgress(), commands);
         } catch(MultipleCompileException e) {
             ret = false;
-            errors.append("\n");
-            for (MultipleCompileException.Info info : e.issues)
-            {
-                errors.append(logExceptionToString(info.getSeverity(), info.getResource(), info.getLineNumber(), info.getMessage()) + "\n");
-            }
-            errors.append("\nFull log: \n" + e.getRawLog() + "\n");
+            appendCompileErrors(e, errors);
+        }
+        if (!appendTaskErrors(result, errors)) {
+            ret = false;
+        }
+        if (!ret) {
+            System.out.println("\nThe build failed for the following reasons:");
+            System.out.println(errors.toString());
+        }
+        project.dispose();
+        System.exit(ret ? 0 : 1);
+    }
+
+    static void appendCompileErrors(MultipleCompileException e, StringBuilder errors) {
+        errors.append("\n");
+        for (MultipleCompileException.Info info : e.issues)
+        {
+            errors.append(logExceptionToString(info.getSeverity(), info.getResource(), info.getLineNumber(), info.getMessage()) + "\n");
         }
+        errors.append("\nFull log: \n" + e.getRawLog() + "\n");
+    }
+
+    /**
+     * Append the errors of failed tasks
+     * @param result task results of a build
+     * @param errors receives one line per failed task
+     * @return true if all tasks succeeded
+     */
+    static boolean appendTaskErrors(List<TaskResult> result, StringBuilder errors) {
+        boolean ret = true;
         for (TaskResult taskResult : result) {
             if (!taskResult.isOk()) {
                 ret = false;
@@ -657,12 +701,7 @@ public class Bob {
                 }
             }
         }
-        if (!ret) {
-            System.out.println("\nThe build failed for the following reasons:");
-            System.out.println(errors.toString());
-        }
-        project.dispose();
-        System.exit(ret ? 0 : 1);
+        return ret;
     }
 
     private static String getOptionsValue(CommandLine cmd, char o, String defaultValue) {
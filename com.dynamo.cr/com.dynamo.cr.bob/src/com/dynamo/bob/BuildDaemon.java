@@ -0,0 +1,261 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Long running build process keeping a {@link Project} with its tasks, build state and
+ * file signatures in memory between builds. Changes to the project files are tracked
+ * with a {@link WatchService} and only the tasks of the changed files are created again,
+ * see {@link Project#setIncremental(boolean)}.
+ *
+ * Builds are requested over a local socket, one request per line:
+ * <ul>
+ * <li>a space separated list of commands, e.g. "build" or "distclean build", responded to with
+ * the errors of the build, one per line, followed by a line with "OK" or "FAILED"</li>
+ * <li>"shutdown" to stop the daemon</li>
+ * </ul>
+ */
+public class BuildDaemon {
+
+    private final Project project;
+    private final String sourceDirectory;
+    private final Set<String> skipDirs;
+    private final Path rootPath;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+    private ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    /**
+     * Create a daemon for a project. The project must be set up, i.e. mounted and with
+     * the sources found, before the daemon is created.
+     * @param project project to build
+     * @param sourceDirectory source directory relative to the project root directory
+     * @throws IOException
+     */
+    public BuildDaemon(Project project, String sourceDirectory) throws IOException {
+        this.project = project;
+        this.sourceDirectory = sourceDirectory;
+        this.skipDirs = new HashSet<String>(Arrays.asList(".git", project.getBuildDirectory(), ".internal"));
+        this.rootPath = Paths.get(project.getRootDirectory()).toAbsolutePath().normalize();
+        this.watchService = rootPath.getFileSystem().newWatchService();
+        project.setIncremental(true);
+        watchDirectories(rootPath.resolve(sourceDirectory).normalize());
+    }
+
+    private boolean isSkipped(Path dir) {
+        String path = rootPath.relativize(dir).toString().replace('\\', '/');
+        for (String skipDir : skipDirs) {
+            if (path.equals(skipDir) || path.startsWith(skipDir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void watchDirectories(Path start) throws IOException {
+        if (!Files.isDirectory(start)) {
+            return;
+        }
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(rootPath) && isSkipped(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Apply the file changes reported since the previous build to the project
+     * @throws IOException
+     */
+    private void processChanges() throws IOException {
+        List<String> changed = new ArrayList<String>();
+        boolean sourcesChanged = false;
+        boolean everythingChanged = false;
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            Path dir = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    everythingChanged = true;
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (isSkipped(path)) {
+                    continue;
+                }
+                String relativePath = "/" + rootPath.relativize(path).toString().replace('\\', '/');
+                changed.add(relativePath);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    sourcesChanged = true;
+                    watchDirectories(path);
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    sourcesChanged = true;
+                }
+                if (relativePath.equals("/game.project")) {
+                    // Project settings are read by the builders when creating tasks
+                    everythingChanged = true;
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+
+        if (sourcesChanged || everythingChanged) {
+            project.findSources(sourceDirectory, skipDirs);
+        }
+        if (everythingChanged) {
+            project.invalidateAll();
+        } else if (!changed.isEmpty()) {
+            project.invalidate(changed);
+        }
+    }
+
+    /**
+     * Build the project
+     * @param commands build commands, e.g. "build"
+     * @param errors receives the errors of the build
+     * @return true if the build succeeded
+     * @throws IOException
+     */
+    public synchronized boolean build(String[] commands, StringBuilder errors) throws IOException {
+        processChanges();
+        try {
+            if (Arrays.asList(commands).contains("resolve")) {
+                project.resolveLibUrls(new ConsoleProgress());
+                project.mount(new ClassLoaderResourceScanner());
+                project.findSources(sourceDirectory, skipDirs);
+                project.invalidateAll();
+            }
+            List<TaskResult> result = project.build(new ConsoleProgress(), commands);
+            return Bob.appendTaskErrors(result, errors);
+        } catch (MultipleCompileException e) {
+            Bob.appendCompileErrors(e, errors);
+        } catch (CompileExceptionError e) {
+            errors.append(Bob.logExceptionToString(MultipleCompileException.Info.SEVERITY_ERROR, e.getResource(), e.getLineNumber(), e.getMessage())).append("\n");
+        } catch (LibraryException e) {
+            errors.append(String.format("ERROR %s\n", e.getMessage()));
+        }
+        // Don't reuse tasks created from a possibly incomplete build
+        project.invalidateAll();
+        return false;
+    }
+
+    /**
+     * Start listening for build requests
+     * @param port port to listen on, 0 for any free port
+     * @return the port listened on
+     * @throws IOException
+     */
+    public int start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Serve build requests until shut down, one connection at a time
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        try {
+            while (running) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    // The server socket was closed
+                    break;
+                }
+                try {
+                    handle(socket);
+                } catch (IOException e) {
+                    System.err.println(String.format("Failed to handle build request: %s", e.getMessage()));
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.equals("shutdown")) {
+                running = false;
+                writer.println("OK");
+                writer.flush();
+                return;
+            }
+            StringBuilder errors = new StringBuilder();
+            boolean ok = build(line.split("\\s+"), errors);
+            for (String error : errors.toString().split("\n")) {
+                if (!error.isEmpty()) {
+                    writer.println(error);
+                }
+            }
+            writer.println(ok ? "OK" : "FAILED");
+            writer.flush();
+        }
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        watchService.close();
+    }
+}
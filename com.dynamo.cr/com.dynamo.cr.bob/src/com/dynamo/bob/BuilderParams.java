@@ -52,4 +52,12 @@ public @interface BuilderParams {
      * @return create order
      */
     int createOrder() default 0;
+
+    /**
+     * Whether the outputs of the tasks can be stored in and restored from
+     * the build cache. Builders with side effects besides writing the task
+     * outputs, e.g. modifying the project, must not be cached
+     * @return true if the task outputs can be cached
+     */
+    boolean cacheable() default true;
 }
@@ -38,6 +38,7 @@ public abstract class CopyBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws IOException {
         IResource in = task.getInputs().get(0);
         IResource out = task.getOutputs().get(0);
-        out.setContent(in.getContent());
+        // Streamed to avoid loading large files, e.g. videos, into memory
+        out.setContent(in.openInputStream());
     }
 }
@@ -53,7 +53,7 @@ public class CopyCustomResourcesBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws IOException {
         int n = task.getInputs().size();
         for (int i = 0; i < n; i++) {
-            task.getOutputs().get(i).setContent(task.getInputs().get(i).getContent());
+            task.getOutputs().get(i).setContent(task.getInputs().get(i).openInputStream());
         }
     }
 }
@@ -14,7 +14,6 @@ package com.dynamo.bob;
 
 import static org.apache.commons.io.FilenameUtils.normalizeNoEndSeparator;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -26,12 +25,14 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URI;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -41,9 +42,19 @@ import java.util.Enumeration;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -76,14 +87,19 @@ import com.dynamo.bob.bundle.LinuxBundler;
 import com.dynamo.bob.bundle.OSXBundler;
 import com.dynamo.bob.bundle.Win32Bundler;
 import com.dynamo.bob.bundle.Win64Bundler;
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.bob.cache.RemoteBuildCache;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.pipeline.ExtenderUtil;
+import com.dynamo.bob.pipeline.ProtoCache;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.LibraryUtil;
+import com.dynamo.bob.util.BuildTrace;
 import com.dynamo.bob.util.ReportGenerator;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 
@@ -97,6 +113,18 @@ public class Project {
     public final static String LIB_DIR = ".internal/lib";
     public final static String CACHE_DIR = ".internal/cache";
 
+    // Default maximum size of the build cache in megabytes, see the "build-cache-size" option
+    private final static long DEFAULT_BUILD_CACHE_SIZE = 5 * 1024;
+    // Options that don't affect the task outputs and are left out of the build cache keys
+    private final static Set<String> BUILD_CACHE_IGNORED_OPTIONS = new HashSet<String>(Arrays.asList(
+            "jobs", "build-cache-dir", "build-cache-size", "build-cache-remote", "build-report", "build-report-html", "email", "auth",
+            "root", "verbose", "bundle-output", "binary-output", "liveupdate", "daemon", "daemon-port", "build-trace",
+            "compression-cache-size", "task-graph-cache"));
+    // Number of rows in each table of the build summary
+    private final static int BUILD_SUMMARY_COUNT = 10;
+    // Number of libraries downloaded at the same time
+    private final static int LIB_DOWNLOAD_THREADS = 8;
+
     public enum OutputFlags {
         NONE,
         UNCOMPRESSED
@@ -108,6 +136,18 @@ public class Project {
     private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
     private ArrayList<Task<?>> newTasks;
     private State state;
+    private BuildCache buildCache;
+    private BuildTrace buildTrace = new BuildTrace();
+    private ProtoCache protoCache;
+    // Tasks kept between builds, see setIncremental
+    private boolean incremental = false;
+    private Map<String, List<Task<?>>> createdTasks;
+    private Set<String> changedPaths = new HashSet<String>();
+    // Tasks of the previous build, see createTasks
+    private TaskGraphCache taskGraph;
+    // Resources looked up through getResource while the tasks of an input are created, see createTasks
+    private final ThreadLocal<List<IResource>> createLookups = new ThreadLocal<List<IResource>>();
+    private boolean createAll = false;
     private String rootDirectory = ".";
     private String buildDirectory = "build";
     private Map<String, String> options = new HashMap<String, String>();
@@ -137,9 +177,46 @@ public class Project {
     }
 
     public void dispose() {
+        if (incremental) {
+            this.fileSystem.saveCache();
+        }
         this.fileSystem.close();
     }
 
+    /**
+     * Keep the tasks, the build state and the file signature cache in memory between builds,
+     * for long running processes such as {@link BuildDaemon}. Tasks are then only created
+     * again for inputs that have changed since the previous build, see {@link #invalidate(Collection)}.
+     * Tasks of builders with a create order, which depend on the other tasks, are always created again.
+     * @param incremental true to keep tasks and caches between builds
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        this.createdTasks = null;
+    }
+
+    /**
+     * Mark files as changed since the previous build. Tasks reading any of the files are
+     * created again in the next build, unless the content of the files is unchanged.
+     * @param paths project relative paths, with or without a leading slash, of changed, added or removed files
+     */
+    public void invalidate(Collection<String> paths) {
+        synchronized (changedPaths) {
+            for (String path : paths) {
+                changedPaths.add(stripLeadingSlash(path));
+            }
+        }
+    }
+
+    /**
+     * Mark all files as changed since the previous build. All tasks are created again in
+     * the next build.
+     */
+    public void invalidateAll() {
+        createdTasks = null;
+        createAll = true;
+    }
+
     public String getRootDirectory() {
         return rootDirectory;
     }
@@ -172,6 +249,34 @@ public class Project {
         return this.publisher;
     }
 
+    /**
+     * Get the timing of the tasks of the last build
+     * @return build trace
+     */
+    public BuildTrace getBuildTrace() {
+        return buildTrace;
+    }
+
+    /**
+     * Get the build cache of the last build
+     * @return build cache or null if the build cache isn't enabled
+     */
+    public BuildCache getBuildCache() {
+        return this.buildCache;
+    }
+
+    /**
+     * Get the cache of parsed text format resources. The cache is kept between builds
+     * for incremental projects, see {@link #setIncremental(boolean)}
+     * @return proto cache
+     */
+    public synchronized ProtoCache getProtoCache() {
+        if (protoCache == null) {
+            protoCache = createProtoCache();
+        }
+        return protoCache;
+    }
+
     /**
      * Scan package for builder classes
      * @param scanner class scanner
@@ -285,7 +390,9 @@ public class Project {
 
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            synchronized (newTasks) {
+                newTasks.add(task);
+            }
         }
         return task;
     }
@@ -300,7 +407,9 @@ public class Project {
     public Task<?> buildResource(IResource input, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            synchronized (newTasks) {
+                newTasks.add(task);
+            }
         }
         return task;
     }
@@ -323,19 +432,133 @@ public class Project {
         return sortedInputs;
     }
 
-    private void createTasks() throws CompileExceptionError {
+    private boolean isChanged(String input, List<Task<?>> tasks, Set<String> changed) {
+        if (changed.contains(stripLeadingSlash(input))) {
+            return true;
+        }
+        for (Task<?> task : tasks) {
+            for (IResource r : task.getInputs()) {
+                if (changed.contains(stripLeadingSlash(r.getPath()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the key of the settings affecting the created tasks, see {@link TaskGraphCache}
+     * @return key
+     * @throws IOException
+     */
+    private String getTaskGraphKey() throws IOException {
+        List<byte[]> parts = new ArrayList<byte[]>();
+        parts.add(EngineVersion.sha1.getBytes());
+        parts.add(getProjectOptions().getBytes());
+        IResource gameProject = getGameProjectResource();
+        if (gameProject.exists()) {
+            parts.add(gameProject.sha1());
+        }
+        for (String propertyFile : propertyFiles) {
+            File file = new File(propertyFile);
+            if (file.isFile()) {
+                parts.add(FileUtils.readFileToByteArray(file));
+            }
+        }
+        return BuildCache.createKey(parts.toArray(new byte[parts.size()][]));
+    }
+
+    private void createTasks() throws CompileExceptionError, IOException {
         newTasks = new ArrayList<Task<?>>();
         List<String> sortedInputs = sortInputs();
 
+        // The tasks created for an input in the previous build, including the tasks
+        // created by the builder through buildResource, are reused if none of their
+        // inputs have changed
+        Map<String, List<Task<?>>> previousTasks = incremental ? createdTasks : null;
+        Map<String, List<Task<?>>> tasksByInput = new HashMap<String, List<Task<?>>>();
+        Set<String> changed;
+        synchronized (changedPaths) {
+            changed = new HashSet<String>(changedPaths);
+            changedPaths.clear();
+        }
+
+        // Otherwise the tasks are restored from the previous build if the digests of
+        // their inputs are unchanged, when enabled with the "task-graph-cache" option
+        boolean persistTaskGraph = hasOption("task-graph-cache");
+        String taskGraphKey = persistTaskGraph ? getTaskGraphKey() : "";
+        IResource taskGraphResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "task_graph"));
+        TaskGraphCache previousGraph = taskGraph;
+        if (createAll || !persistTaskGraph) {
+            previousGraph = new TaskGraphCache(taskGraphKey);
+            createAll = false;
+        } else if (previousGraph == null || !previousGraph.getKey().equals(taskGraphKey)) {
+            previousGraph = TaskGraphCache.load(taskGraphResource, taskGraphKey);
+        }
+        if (previousTasks == null && previousGraph.size() > 0) {
+            fileSystem.prefetchSignatures(previousGraph.getResources(this), getJobCount());
+        }
+        TaskGraphCache nextGraph = new TaskGraphCache(taskGraphKey);
+        int createdCount = 0;
+
         for (String input : sortedInputs) {
-            Task<?> task = doCreateTask(input);
+            List<Task<?>> previous = previousTasks != null ? previousTasks.get(input) : null;
+            if (previous != null && !isChanged(input, previous, changed)) {
+                newTasks.addAll(previous);
+                tasksByInput.put(input, previous);
+                nextGraph.copy(previousGraph, input);
+                continue;
+            }
+            Class<? extends Builder<?>> builderClass = getBuilderFromExtension(input);
+            if (builderClass != null) {
+                List<Task<?>> restored = previousGraph.restore(input, builderClass, this);
+                if (restored != null) {
+                    newTasks.addAll(restored);
+                    tasksByInput.put(input, restored);
+                    nextGraph.copy(previousGraph, input);
+                    continue;
+                }
+            }
+            int first = newTasks.size();
+            long start = buildTrace.now();
+            long cpuStart = buildTrace.cpuTime();
+            List<IResource> lookups = new ArrayList<IResource>();
+            Task<?> task;
+            if (persistTaskGraph) {
+                createLookups.set(lookups);
+            }
+            try {
+                task = doCreateTask(input);
+            } finally {
+                createLookups.remove();
+            }
+            buildTrace.add("create", input, builderClass != null ? builderClass.getSimpleName() : null, null, start, cpuStart, 0, 0);
             if (task != null) {
                 newTasks.add(task);
+                BuilderParams params = task.getBuilder().getParams();
+                if (params != null && params.createOrder() == 0) {
+                    List<Task<?>> tasks = new ArrayList<Task<?>>(newTasks.subList(first, newTasks.size()));
+                    tasksByInput.put(input, tasks);
+                    if (persistTaskGraph) {
+                        nextGraph.put(input, tasks, lookups);
+                    }
+                    ++createdCount;
+                }
+            }
+        }
+        createdTasks = incremental ? tasksByInput : null;
+
+        taskGraph = nextGraph;
+        if (persistTaskGraph && (createdCount > 0 || nextGraph.size() != previousGraph.size())) {
+            try {
+                nextGraph.save(taskGraphResource);
+            } catch (IOException e) {
+                logWarning("Unable to save task graph: %s", e.getMessage());
             }
         }
     }
 
-    private void logWarning(String fmt, Object... args) {
+    public void logWarning(String fmt, Object... args) {
         System.err.println(String.format(fmt, args));
     }
 
@@ -359,7 +582,9 @@ public class Project {
                     } else if (PublisherSettings.PublishMode.Defold.equals(settings.getMode())) {
                         this.publisher = new DefoldPublisher(settings);
                     } else if (PublisherSettings.PublishMode.Zip.equals(settings.getMode())) {
-                        this.publisher = new ZipPublisher(getRootDirectory(), settings);
+                        ZipPublisher zipPublisher = new ZipPublisher(getRootDirectory(), settings);
+                        zipPublisher.setJobCount(getJobCount());
+                        this.publisher = zipPublisher;
                     } else {
                         throw new CompileExceptionError("The publisher specified is not supported", null);
                     }
@@ -767,9 +992,16 @@ public class Project {
     }
 
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws IOException, CompileExceptionError, MultipleCompileException {
-        fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
-        state = State.load(stateResource);
+        if (!incremental || state == null) {
+            fileSystem.loadCache();
+            state = State.load(stateResource);
+        }
+        buildCache = createBuildCache();
+        buildTrace = new BuildTrace();
+        if (!incremental) {
+            protoCache = createProtoCache();
+        }
         createTasks();
         validateBuildResourceMapping();
         List<TaskResult> result = new ArrayList<TaskResult>();
@@ -806,9 +1038,21 @@ public class Project {
                     m.beginTask("Building...", newTasks.size());
                     result = runTasks(m);
                     m.done();
+                    if (this.hasOption("build-trace")) {
+                        buildTrace.write(new File(this.option("build-trace", "trace.json")));
+                    }
+                    if (hasBuildSummary()) {
+                        System.out.print(buildTrace.getSummary(BUILD_SUMMARY_COUNT));
+                    }
                     if (anyFailing(result)) {
                         break loop;
                     }
+                    // Drop signatures of outputs no longer part of the project
+                    state.retainSignatures(outputs.keySet());
+                    if (buildCache != null) {
+                        buildCache.trim();
+                        Bob.verbose("%s", buildCache.getStatistics());
+                    }
                     BundleHelper.throwIfCanceled(monitor);
 
                     final String[] platforms = getPlatformStrings();
@@ -884,6 +1128,10 @@ public class Project {
                     m.beginTask("Cleaning...", newTasks.size());
                     BundleHelper.throwIfCanceled(monitor);
                     FileUtils.deleteDirectory(new File(FilenameUtils.concat(rootDirectory, buildDirectory)));
+                    if (incremental) {
+                        // The state kept in memory refers to the deleted outputs
+                        state = State.load(fileSystem.get(FilenameUtils.concat(buildDirectory, "state")));
+                    }
                     m.worked(1);
                     m.done();
                     break;
@@ -898,166 +1146,495 @@ public class Project {
 
         monitor.done();
         state.save(stateResource);
-        fileSystem.saveCache();
+        if (!incremental) {
+            // Saved on dispose otherwise
+            fileSystem.saveCache();
+        }
         return result;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
-
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
-
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+    /**
+     * Get the number of tasks to build in parallel, as set with the "jobs" option.
+     * Other parallel work of the build, e.g. hashing files and writing archives,
+     * uses the same number of threads. A value of zero or less means one job per
+     * available processor.
+     * @return number of parallel jobs, at least one
+     */
+    public int getJobCount() {
+        String value = option("jobs", "1");
+        int jobs = 1;
+        try {
+            jobs = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logWarning("Invalid number of jobs '%s', building with one job", value);
+        }
+        if (jobs <= 0) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+        return jobs;
+    }
 
-        List<TaskResult> result = new ArrayList<>();
+    /**
+     * Dependency graph of the tasks being built. Each task keeps a count of
+     * its inputs that are still to be produced by other tasks and becomes
+     * ready once that count reaches zero.
+     */
+    private static class TaskGraph {
+        // task producing each output
+        private Map<IResource, Task<?>> producers = new HashMap<>();
+        // tasks waiting for each output that is not yet produced
+        private Map<IResource, List<Task<?>>> consumers = new HashMap<>();
+        private Map<Task<?>, Integer> pendingInputs = new HashMap<>();
+        private Set<IResource> completedOutputs = new HashSet<>();
+        private ArrayDeque<Task<?>> readyTasks = new ArrayDeque<>();
+
+        /**
+         * Add tasks to the graph. Outputs of all tasks are registered before
+         * dependencies are resolved since a task may be created before the
+         * task producing its inputs, e.g. embedded resources.
+         * @param tasks tasks to add
+         */
+        void addTasks(List<Task<?>> tasks) {
+            for (Task<?> task : tasks) {
+                for (IResource output : task.getOutputs()) {
+                    producers.put(output, task);
+                }
+            }
 
-        List<Task<?>> tasks = new ArrayList<>(newTasks);
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : newTasks) {
-            allOutputs.addAll(task.getOutputs());
+            for (Task<?> task : tasks) {
+                int pending = 0;
+                for (IResource input : new HashSet<>(task.getInputs())) {
+                    Task<?> producer = producers.get(input);
+                    if (producer != null && producer != task && !completedOutputs.contains(input)) {
+                        List<Task<?>> waiting = consumers.get(input);
+                        if (waiting == null) {
+                            waiting = new ArrayList<>();
+                            consumers.put(input, waiting);
+                        }
+                        waiting.add(task);
+                        ++pending;
+                    }
+                }
+                if (pending == 0) {
+                    readyTasks.add(task);
+                } else {
+                    pendingInputs.put(task, pending);
+                }
+            }
         }
-        newTasks.clear();
 
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
-        }
-
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < tasks.size()) {
-            for (Task<?> task : tasks) {
-                BundleHelper.throwIfCanceled(monitor);
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
+        /**
+         * Mark all outputs of a task as produced, making dependent tasks ready
+         * @param task completed task
+         */
+        void completeTask(Task<?> task) {
+            for (IResource output : task.getOutputs()) {
+                if (!completedOutputs.add(output)) {
+                    continue;
+                }
+                List<Task<?>> waiting = consumers.remove(output);
+                if (waiting == null) {
                     continue;
                 }
+                for (Task<?> consumer : waiting) {
+                    int pending = pendingInputs.get(consumer) - 1;
+                    if (pending == 0) {
+                        pendingInputs.remove(consumer);
+                        readyTasks.add(consumer);
+                    } else {
+                        pendingInputs.put(consumer, pending);
+                    }
+                }
+            }
+        }
 
-                monitor.worked(1);
+        List<Task<?>> takeReadyTasks() {
+            List<Task<?>> tasks = new ArrayList<>(readyTasks);
+            readyTasks.clear();
+            return tasks;
+        }
 
-                byte[] taskSignature = task.calculateSignature(this);
+        int getBlockedTaskCount() {
+            return pendingInputs.size();
+        }
+    }
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : task.getOutputs()) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
-                    }
+    private List<Task<?>> takeNewTasks() {
+        synchronized (newTasks) {
+            List<Task<?>> tasks = new ArrayList<>(newTasks);
+            newTasks.clear();
+            return tasks;
+        }
+    }
+
+    private ProtoCache createProtoCache() {
+        int maxEntries = 0;
+        try {
+            maxEntries = Integer.parseInt(option("proto-cache-size", "0"));
+        } catch (NumberFormatException e) {
+            logWarning("Invalid proto cache size '%s', using no limit", option("proto-cache-size", ""));
+        }
+        return new ProtoCache(maxEntries);
+    }
+
+    private BuildCache createBuildCache() {
+        String directory = option("build-cache-dir", null);
+        String remoteUrl = option("build-cache-remote", null);
+        if (directory == null && remoteUrl == null) {
+            return null;
+        } else if (directory == null) {
+            // Outputs fetched from the remote cache are kept in a local cache
+            directory = FilenameUtils.concat(System.getProperty("user.home"), ".defold/bob-cache");
+        }
+        long maxSize = DEFAULT_BUILD_CACHE_SIZE;
+        try {
+            maxSize = Long.parseLong(option("build-cache-size", Long.toString(DEFAULT_BUILD_CACHE_SIZE)));
+        } catch (NumberFormatException e) {
+            logWarning("Invalid build cache size '%s', using %d MB", option("build-cache-size", ""), DEFAULT_BUILD_CACHE_SIZE);
+        }
+        BuildCache cache = new BuildCache(new File(directory), maxSize * 1024 * 1024);
+        if (remoteUrl != null) {
+            cache.setRemote(new RemoteBuildCache(remoteUrl));
+        }
+        return cache;
+    }
+
+    /**
+     * Get the key of a task in the build cache. The key is based on the task signature
+     * and the project relative paths of the inputs and outputs, so that the same task
+     * built in another checkout of the project maps to the same key.
+     * @param task task
+     * @param taskSignature signature of the task
+     * @return key or null if the task can't be cached
+     */
+    private String getBuildCacheKey(Task<?> task, byte[] taskSignature) {
+        BuilderParams params = task.getBuilder().getParams();
+        if (params == null || !params.cacheable() || task.getOutputs().isEmpty()) {
+            return null;
+        }
+        StringBuilder paths = new StringBuilder();
+        for (IResource r : task.getInputs()) {
+            paths.append(r.getPath()).append('\n');
+        }
+        for (IResource r : task.getOutputs()) {
+            paths.append(r.getPath()).append('\n');
+        }
+        return BuildCache.createKey(EngineVersion.sha1.getBytes(), task.getBuilder().getClass().getName().getBytes(),
+                taskSignature, paths.toString().getBytes(), getProjectOptions().getBytes());
+    }
+
+    // Options affecting the task outputs, one per line
+    private String getProjectOptions() {
+        StringBuilder projectOptions = new StringBuilder();
+        for (String key : new TreeSet<String>(options.keySet())) {
+            if (!BUILD_CACHE_IGNORED_OPTIONS.contains(key)) {
+                projectOptions.append(key).append('=').append(options.get(key)).append('\n');
+            }
+        }
+        return projectOptions.toString();
+    }
+
+    // Outputs are written from the cached content rather than linked to the blobs of the
+    // cache. Outputs are replaced rather than modified in place, so a link would be safe,
+    // but writing skips outputs that are unchanged and records the digests of the others.
+    private boolean restoreFromBuildCache(Task<?> task, String key) throws IOException {
+        List<BuildCache.Output> cached = buildCache.get(key, task.getOutputs().size());
+        if (cached == null) {
+            return false;
+        }
+        for (int i = 0; i < cached.size(); ++i) {
+            BuildCache.Output output = cached.get(i);
+            IResource r = task.output(i);
+            r.setContent(output.getContent());
+            for (OutputFlags flag : OutputFlags.values()) {
+                if ((output.getFlags() & (1 << flag.ordinal())) != 0) {
+                    addOutputFlags(r.getAbsPath(), flag);
                 }
+            }
+        }
+        return true;
+    }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                List<byte[]> outputSigs = new ArrayList<byte[]>();
-                for (IResource r : task.getOutputs()) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    outputSigs.add(s);
+    private void storeInBuildCache(Task<?> task, String key) {
+        try {
+            List<BuildCache.Output> cached = new ArrayList<BuildCache.Output>();
+            for (IResource r : task.getOutputs()) {
+                int flags = 0;
+                synchronized (outputs) {
+                    EnumSet<OutputFlags> outputFlags = outputs.get(r.getAbsPath());
+                    if (outputFlags != null) {
+                        for (OutputFlags flag : outputFlags) {
+                            flags |= 1 << flag.ordinal();
+                        }
+                    }
                 }
-                boolean allSigsEquals = true;
-                for (byte[] sig : outputSigs) {
-                    if (!Arrays.equals(sig, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
+                cached.add(new BuildCache.Output(r.getContent(), flags));
+            }
+            buildCache.put(key, cached);
+        } catch (IOException e) {
+            // The cache is an optimization, the build still succeeded
+            logWarning("Failed to store '%s' in the build cache: %s", task.getOutputs().get(0).getPath(), e.getMessage());
+        }
+    }
+
+    private void addOutputs(List<Task<?>> tasks) {
+        synchronized (outputs) {
+            for (Task<?> task : tasks) {
+                for (IResource res : task.getOutputs()) {
+                    if (!outputs.containsKey(res.getAbsPath())) {
+                        outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
                     }
                 }
+            }
+        }
+    }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+    private boolean isUpToDate(Task<?> task, byte[] taskSignature) {
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
+        }
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(task.getOutputs());
-                    }
-                    continue;
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        boolean allSigsEquals = true;
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
+
+        return allOutputExists && allSigsEquals;
+    }
+
+    /**
+     * Build a single task unless all outputs exist and have a signature matching the
+     * current signature of the task, and record the time spent in the build trace.
+     * Invoked concurrently from the build workers.
+     * @param task task to build
+     * @return result of the build or null if the task was already up to date
+     * @throws IOException
+     */
+    private TaskResult runTask(Task<?> task) throws IOException {
+        long start = buildTrace.now();
+        long cpuStart = buildTrace.cpuTime();
+        String status = "failed";
+        long bytesRead = 0;
+        long bytesWritten = 0;
+        try {
+            // Calculated once, used for the up to date check and the build cache key
+            byte[] taskSignature = task.calculateSignature(this);
+            TaskResult taskResult = buildTask(task, taskSignature);
+            if (taskResult == null) {
+                status = "up-to-date";
+            } else if (taskResult.isOk()) {
+                status = taskResult.isFromBuildCache() ? "cached" : "built";
+            }
+            if (taskResult != null && hasBuildSummary()) {
+                for (IResource r : task.getInputs()) {
+                    bytesRead += getSize(r);
+                }
+                for (IResource r : task.getOutputs()) {
+                    bytesWritten += getSize(r);
                 }
+            }
+            return taskResult;
+        } finally {
+            // Tasks without inputs are traced by their first output, or their name
+            String path = !task.getInputs().isEmpty() ? task.input(0).getPath() : !task.getOutputs().isEmpty() ? task.output(0).getPath() : task.getName();
+            buildTrace.add("build", path, task.getBuilder().getClass().getSimpleName(), status, start, cpuStart, bytesRead, bytesWritten);
+        }
+    }
 
-                completedTasks.add(task);
+    private boolean hasBuildSummary() {
+        return hasOption("build-trace") || hasOption("verbose");
+    }
 
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                try {
-                    builder.build(task);
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), taskSignature);
-                    }
+    private static long getSize(IResource resource) {
+        // Only files on disk, other resources load their whole content to report a size
+        if (!(resource instanceof DefaultResource)) {
+            return 0;
+        }
+        return Math.max(0, ((DefaultResource) resource).size());
+    }
 
-                    for (IResource r : task.getOutputs()) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
-                        }
-                    }
-                    completedOutputs.addAll(task.getOutputs());
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskResult buildTask(Task<?> task, byte[] taskSignature) throws IOException {
+        if (isUpToDate(task, taskSignature)) {
+            // Task is successfully completed in a previous build
+            return null;
+        }
 
-                } catch (CompileExceptionError e) {
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
+        TaskResult taskResult = new TaskResult(task);
+        String buildCacheKey = buildCache != null ? getBuildCacheKey(task, taskSignature) : null;
+        if (buildCacheKey != null && restoreFromBuildCache(task, buildCacheKey)) {
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), taskSignature);
+            }
+            taskResult.setFromBuildCache(true);
+            return taskResult;
+        }
+
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        try {
+            builder.build(task);
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), taskSignature);
+            }
+
+            for (IResource r : task.getOutputs()) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
                     ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
+                    break;
+                }
+            }
+        } catch (CompileExceptionError e) {
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            ok = false;
+            message = e.getMessage();
+            exception = e;
 
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (ok && buildCacheKey != null) {
+            storeInBuildCache(task, buildCacheKey);
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
+            }
+        }
+        return taskResult;
+    }
+
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+        List<TaskResult> result = new ArrayList<>();
+
+        TaskGraph graph = new TaskGraph();
+        List<Task<?>> tasks = takeNewTasks();
+
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>();
+        addOutputs(tasks);
+        graph.addTasks(tasks);
+
+        final int jobs = getJobCount();
+
+        // Compute the signatures of all source files up front, in parallel, rather than
+        // one at a time as the task signatures are calculated
+        Set<IResource> sources = new LinkedHashSet<>();
+        for (Task<?> task : tasks) {
+            for (IResource input : task.getInputs()) {
+                if (!outputs.containsKey(input.getAbsPath())) {
+                    sources.add(input);
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
-                    }
-                    if (abort) {
-                        break run;
+            }
+        }
+        fileSystem.prefetchSignatures(sources, jobs);
+
+        // Tasks are built on a pool of workers while the dependency graph is only
+        // updated from this thread. A failing task blocks its dependent tasks but
+        // independent tasks are still built in order to report all errors. An unexpected
+        // exception aborts the build once the tasks in flight have finished.
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        CompletionService<TaskResult> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<TaskResult>, Task<?>> runningTasks = new HashMap<>();
+        ArrayDeque<Task<?>> readyTasks = new ArrayDeque<>();
+        boolean abort = false;
+        try {
+            while (true) {
+                BundleHelper.throwIfCanceled(monitor);
+                readyTasks.addAll(graph.takeReadyTasks());
+                while (!abort && runningTasks.size() < jobs && !readyTasks.isEmpty()) {
+                    final Task<?> task = readyTasks.poll();
+                    monitor.worked(1);
+                    Future<TaskResult> future = completionService.submit(new Callable<TaskResult>() {
+                        @Override
+                        public TaskResult call() throws Exception {
+                            return runTask(task);
+                        }
+                    });
+                    runningTasks.put(future, task);
+                }
+
+                if (runningTasks.isEmpty()) {
+                    break;
+                }
+
+                Future<TaskResult> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
+                }
+                Task<?> task = runningTasks.remove(future);
+                TaskResult taskResult = getTaskResult(future);
+                if (taskResult != null) {
+                    result.add(taskResult);
+                    if (!taskResult.isOk()) {
+                        abort = abort || taskResult.getException() != null;
+                        continue;
                     }
                 }
+                graph.completeTask(task);
+
+                // Tasks created by builders while building, see buildResource
+                List<Task<?>> createdTasks = takeNewTasks();
+                if (!createdTasks.isEmpty()) {
+                    addOutputs(createdTasks);
+                    graph.addTasks(createdTasks);
+                }
             }
-            if (taskFailed) {
-                break;
-            }
-            // set of *all* possible output files
-            for (Task<?> task : newTasks) {
-                allOutputs.addAll(task.getOutputs());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while building", e);
+        } finally {
+            executor.shutdownNow();
+            if (buildCache != null) {
+                // Uploads are done and the upload threads stopped before the build returns
+                buildCache.close();
             }
-            tasks.addAll(newTasks);
-            newTasks.clear();
+        }
+
+        if (!abort && !anyFailing(result) && graph.getBlockedTaskCount() > 0) {
+            logWarning("%d task(s) could not be built due to circular dependencies", graph.getBlockedTaskCount());
         }
         return result;
     }
 
+    private static TaskResult getTaskResult(Future<TaskResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while building", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     /**
      * Set files to compile
      * @param inputs list of input files
@@ -1076,13 +1653,14 @@ run:
      * @param flag OutputFlag to add
      */
     public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
-        EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
-        if(currentFlags == null) {
-            return false;
+        synchronized (outputs) {
+            EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
+            if(currentFlags == null) {
+                return false;
+            }
+            currentFlags.add(flag);
+            return true;
         }
-        currentFlags.add(flag);
-        outputs.replace(resourcePath, currentFlags);
-        return true;
     }
 
     /**
@@ -1094,120 +1672,192 @@ run:
         this.libUrls = libUrls;
     }
 
+    // Adds the credentials of the project, or the basic auth credentials of the URL, to a request
+    private void addLibAuthentication(URL url, HttpURLConnection connection) {
+        // Check if URL contains basic auth credentials
+        String basicAuthData = null;
+        try {
+            URI uri = new URI(url.toString());
+            basicAuthData = uri.getUserInfo();
+        } catch (URISyntaxException e1) {
+            // Ignored, could not get URI and basic auth data from URL.
+        }
+
+        // Pass correct headers along to server depending on auth alternative.
+        if (basicAuthData != null) {
+            String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
+            connection.setRequestProperty("Authorization", basicAuth);
+        } else {
+            connection.addRequestProperty("X-Email", this.options.get("email"));
+            connection.addRequestProperty("X-Auth", this.options.get("auth"));
+        }
+    }
+
+    private static boolean isContentRangeFrom(HttpURLConnection connection, long offset) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        return contentRange != null && contentRange.trim().startsWith("bytes " + offset + "-");
+    }
+
     /**
-     * Resolve (i.e. download from server) the stored lib URLs.
-     * @throws IOException
+     * Download a library, unless the local copy is up to date. The library is
+     * downloaded to a temporary file that replaces the library once it is validated.
+     * An interrupted download is resumed with a range request, if the library is
+     * unchanged on the server. A partial download the server can't resume from,
+     * e.g. one that is already complete, is discarded and the library is downloaded again.
      */
-    public void resolveLibUrls(IProgress progress) throws IOException, LibraryException {
+    private void resolveLibUrl(URL url, File f) throws IOException, LibraryException {
+        String sha1 = f.exists() ? LibraryUtil.readArchiveComment(f) : null;
+
+        // The ETag of a partial download identifies the version being downloaded
+        File partFile = new File(f.getPath() + ".part");
+        File partETagFile = new File(f.getPath() + ".part.etag");
+        String partETag = null;
+        if (partFile.isFile() && partFile.length() > 0 && partETagFile.isFile()) {
+            partETag = FileUtils.readFileToString(partETagFile).trim();
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (sha1 != null) {
+            connection.addRequestProperty("If-None-Match", sha1);
+        }
+        if (partETag != null) {
+            connection.addRequestProperty("Range", "bytes=" + partFile.length() + "-");
+            connection.addRequestProperty("If-Range", partETag);
+        }
+        addLibAuthentication(url, connection);
+
+        InputStream input = null;
         try {
-            String libPath = getLibPath();
-            File libDir = new File(libPath);
-            // Clean lib dir first
-            //FileUtils.deleteQuietly(libDir);
-            FileUtils.forceMkdir(libDir);
-            // Download libs
-            List<File> libFiles = LibraryUtil.convertLibraryUrlsToFiles(libPath, libUrls);
-            int count = this.libUrls.size();
-            IProgress subProgress = progress.subProgress(count);
-            subProgress.beginTask("Download archives", count);
-            for (int i = 0; i < count; ++i) {
-                BundleHelper.throwIfCanceled(progress);
-                File f = libFiles.get(i);
-                String sha1 = null;
-
-                if (f.exists()) {
-                    ZipFile zipFile = null;
-
-                    try {
-                        zipFile = new ZipFile(f);
-                        sha1 = zipFile.getComment();
-                    } finally {
-                        if (zipFile != null) {
-                            zipFile.close();
-                        }
-                    }
-                }
+            connection.connect();
+            int code = connection.getResponseCode();
+            if (code == 304) {
+                // Reusing cached library, the connection is kept for later requests
+                input = connection.getInputStream();
+                return;
+            }
 
-                URL url = libUrls.get(i);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                if (sha1 != null) {
-                    connection.addRequestProperty("If-None-Match", sha1);
+            String serverETag = connection.getHeaderField("ETag");
+            if (code == 200 && sha1 != null && serverETag != null) {
+                // GitHub uses eTags and we can check we have the up to date version by comparing SHA1 and server eTag if we get a 200 OK response
+                if (sha1.equals(serverETag.replace("\"", ""))) {
+                    // Reusing cached library
+                    connection.disconnect();
+                    return;
                 }
+            }
+            if (code == 416 && partETag != null) {
+                // Range not satisfiable, the partial download is at least as large as the library
+                connection.disconnect();
+                FileUtils.deleteQuietly(partFile);
+                FileUtils.deleteQuietly(partETagFile);
+                resolveLibUrl(url, f);
+                return;
+            }
 
-                // Check if URL contains basic auth credentials
-                String basicAuthData = null;
-                try {
-                    URI uri = new URI(url.toString());
-                    basicAuthData = uri.getUserInfo();
-                } catch (URISyntaxException e1) {
-                    // Ignored, could not get URI and basic auth data from URL.
+            input = connection.getInputStream();
+            boolean resume = code == 206;
+            if (resume && !isContentRangeFrom(connection, partFile.length())) {
+                FileUtils.deleteQuietly(partFile);
+                FileUtils.deleteQuietly(partETagFile);
+                throw new LibraryException(String.format("Unexpected partial content from %s", url.toString()), null);
+            }
+            if (!resume) {
+                // Weak ETags don't identify the content exactly and can't be used to resume
+                if (serverETag != null && !serverETag.startsWith("W/")) {
+                    FileUtils.writeStringToFile(partETagFile, serverETag);
+                } else {
+                    FileUtils.deleteQuietly(partETagFile);
                 }
+            }
 
-                // Pass correct headers along to server depending on auth alternative.
-                if (basicAuthData != null) {
-                    String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
-                    connection.setRequestProperty("Authorization", basicAuth);
-                } else {
-                    connection.addRequestProperty("X-Email", this.options.get("email"));
-                    connection.addRequestProperty("X-Auth", this.options.get("auth"));
+            FileOutputStream output = new FileOutputStream(partFile, resume);
+            try {
+                IOUtils.copyLarge(input, output, new byte[64 * 1024]);
+            } finally {
+                output.close();
+            }
+
+            try {
+                ZipFile zip = new ZipFile(partFile);
+                zip.close();
+            } catch (ZipException e) {
+                FileUtils.deleteQuietly(partFile);
+                FileUtils.deleteQuietly(partETagFile);
+                throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
+            }
+            Files.move(partFile.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileUtils.deleteQuietly(partETagFile);
+        } catch (ConnectException e) {
+            throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
+        } catch (FileNotFoundException e) {
+            throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+        } finally {
+            // Closing the fully read response keeps the connection for later requests
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Resolve (i.e. download from server) the stored lib URLs.
+     * Libraries are resolved concurrently, see LIB_DOWNLOAD_THREADS.
+     * @throws IOException
+     */
+    public void resolveLibUrls(final IProgress progress) throws IOException, LibraryException {
+        String libPath = getLibPath();
+        File libDir = new File(libPath);
+        // Clean lib dir first
+        //FileUtils.deleteQuietly(libDir);
+        FileUtils.forceMkdir(libDir);
+        // Download libs
+        List<File> libFiles = LibraryUtil.convertLibraryUrlsToFiles(libPath, libUrls);
+        int count = this.libUrls.size();
+        IProgress subProgress = progress.subProgress(count);
+        subProgress.beginTask("Download archives", count);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(count, LIB_DOWNLOAD_THREADS)));
+        try {
+            // A library listed more than once is only downloaded once
+            Map<File, Future<Void>> downloads = new HashMap<File, Future<Void>>();
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < count; ++i) {
+                final URL url = libUrls.get(i);
+                final File f = libFiles.get(i);
+                Future<Void> future = downloads.get(f);
+                if (future == null) {
+                    future = executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            BundleHelper.throwIfCanceled(progress);
+                            resolveLibUrl(url, f);
+                            return null;
+                        }
+                    });
+                    downloads.put(f, future);
                 }
+                futures.add(future);
+            }
 
-                InputStream input = null;
+            // Errors are reported in the order of the libraries
+            for (Future<Void> future : futures) {
                 try {
-                    connection.connect();
-                    int code = connection.getResponseCode();
-                    if (code == 304) {
-                        // Reusing cached library
-                    } else {
-                        boolean serverSha1Match = false;
-                        if(code == 200) {
-                            // GitHub uses eTags and we can check we have the up to date version by comparing SHA1 and server eTag if we get a 200 OK response
-                            if (sha1 != null) {
-                                String serverETag = connection.getHeaderField("ETag");
-                                if (serverETag != null) {
-                                    if (sha1.equals(serverETag.replace("\"", ""))) {
-                                        // Reusing cached library
-                                        serverSha1Match = true;
-                                    }
-                                }
-                            }
-                        }
-                        if(!serverSha1Match) {
-                            input = new BufferedInputStream(connection.getInputStream());
-                            FileUtils.copyInputStreamToFile(input, f);
-
-                            try {
-                                ZipFile zip = new ZipFile(f);
-                                zip.close();
-                            } catch (ZipException e) {
-                                f.delete();
-                                throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
-                            }
-                        }
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof LibraryException) {
+                        throw (LibraryException) cause;
                     }
-                    connection.disconnect();
-                } catch (ConnectException e) {
-                    throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
-                } catch (FileNotFoundException e) {
-                    throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
-                } finally {
-                    if(input != null) {
-                        IOUtils.closeQuietly(input);
-                    }
-                    subProgress.worked(1);
+                    throw new LibraryException(cause.getMessage(), cause);
                 }
+                subProgress.worked(1);
             }
-        }
-        catch(IOException ioe) {
-            throw ioe;
-        }
-        catch(LibraryException le) {
-            throw le;
-        }
-        catch(Exception e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new LibraryException(e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
         }
-   }
+    }
 
     /**
      * Set option
@@ -1323,7 +1973,12 @@ run:
     }
 
     public IResource getResource(String path) {
-        return fileSystem.get(FilenameUtils.normalize(path, true));
+        IResource resource = fileSystem.get(FilenameUtils.normalize(path, true));
+        List<IResource> lookups = createLookups.get();
+        if (lookups != null && resource != null) {
+            lookups.add(resource);
+        }
+        return resource;
     }
 
     public IResource getGameProjectResource() {
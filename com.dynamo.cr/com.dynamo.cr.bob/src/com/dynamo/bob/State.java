@@ -1,54 +1,348 @@
 // Copyright 2020 The Defold Foundation
 // Licensed under the Defold License version 1.0 (the "License"); you may not use
 // this file except in compliance with the License.
-// 
+//
 // You may obtain a copy of the License, together with FAQs at
 // https://www.defold.com/license
-// 
+//
 // Unless required by applicable law or agreed to in writing, software distributed
 // under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
 // CONDITIONS OF ANY KIND, either express or implied. See the License for the
 // specific language governing permissions and limitations under the License.
 
+
 package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
 
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.MurmurHash;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ *
+ * The state is stored as a table of path hashes and fixed size signatures sorted by
+ * hash. The table is read as a whole when loaded and signatures are looked up on demand.
+ * The table is not memory mapped, since a mapped file can't be replaced on some platforms.
+ * Each entry also holds a second, independent hash of the path, and a signature is
+ * only used if both hashes match. Paths with colliding hashes therefore rebuild their
+ * tasks rather than share a signature.
+ * Signatures changed during a build are appended to a journal next to the state file,
+ * and the journal is merged into a new table once it has grown large enough.
  * @author Christian Murray
  *
  */
 public class State implements Serializable {
 
     private static final long serialVersionUID = -275410118302470803L;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+
+    public static final int SIGNATURE_SIZE = 20;
+
+    static final int MAGIC = 0x42535431; // "BST1"
+    static final int VERSION = 2;
+    // magic, version, generation, entry count, signature size
+    static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    // key, check, signature
+    static final int ENTRY_SIZE = 8 + 8 + SIGNATURE_SIZE;
+    // magic, version, generation
+    static final int JOURNAL_HEADER_SIZE = 4 + 4 + 8;
+    // key, check, signature length (zero for removed entries), signature
+    static final int JOURNAL_RECORD_SIZE = 8 + 8 + 1 + SIGNATURE_SIZE;
+    static final int MIN_COMPACT_RECORDS = 4096;
+
+    private static final short SERIALIZATION_MAGIC = (short) 0xaced;
 
     /**
-     * Get signature for path
+     * Signature of a path, together with the second hash of the path
+     */
+    private static class Entry {
+        final long check;
+        final byte[] signature;
+
+        Entry(long check, byte[] signature) {
+            this.check = check;
+            this.signature = signature;
+        }
+    }
+
+    private static final Entry REMOVED = new Entry(0, new byte[0]);
+
+    // Only used to migrate states saved with Java serialization by older versions of bob
+    Map<String, byte[]> signatures;
+
+    // Sorted table of entries as read from the state file
+    private transient ByteBuffer table;
+    private transient int tableCount;
+    private transient long generation;
+    // Entries changed since the table was written, including the journal. Overrides the table.
+    private transient Map<Long, Entry> changes = new HashMap<Long, Entry>();
+    // Entries changed since the journal was written
+    private transient Map<Long, Entry> pending = new HashMap<Long, Entry>();
+    private transient int journalRecords;
+    private transient boolean compact;
+
+    static long key(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash.hash64(bytes, bytes.length);
+    }
+
+    // 64 bit FNV-1a, independent of the key
+    static long check(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static File getFile(IResource resource) {
+        if (resource instanceof DefaultResource) {
+            return new File(resource.getAbsPath());
+        }
+        return null;
+    }
+
+    private static IResource getJournal(IResource resource) {
+        return resource.getResource(FilenameUtils.getName(resource.getPath()) + ".journal");
+    }
+
+    private int findEntry(long key) {
+        int low = 0;
+        int high = tableCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = table.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Entry getEntry(int index) {
+        byte[] signature = new byte[SIGNATURE_SIZE];
+        ByteBuffer entry = table.duplicate();
+        entry.position(HEADER_SIZE + index * ENTRY_SIZE + 8);
+        long check = entry.getLong();
+        entry.get(signature);
+        return new Entry(check, signature);
+    }
+
+    private Entry get(long key) {
+        Entry entry = changes.get(key);
+        if (entry != null) {
+            return entry == REMOVED ? null : entry;
+        }
+        if (table != null) {
+            int index = findEntry(key);
+            if (index != -1) {
+                return getEntry(index);
+            }
+        }
+        return null;
+    }
+
+    private void put(long key, Entry entry) {
+        changes.put(key, entry);
+        pending.put(key, entry);
+    }
+
+    /**
+     * Get the signature stored for a key and check, see {@link #key(String)} and {@link #check(String)}
+     * @param key first hash of the path
+     * @param check second hash of the path
+     * @return signature or null if no mapping exists for both hashes
+     */
+    synchronized byte[] getSignature(long key, long check) {
+        Entry entry = get(key);
+        if (entry == null || entry.check != check) {
+            // Not stored, or stored for another path with the same key
+            return null;
+        }
+        return entry.signature;
+    }
+
+    synchronized void putSignature(long key, long check, byte[] signature) {
+        if (signature.length == 0) {
+            put(key, REMOVED);
+        } else {
+            put(key, new Entry(check, Arrays.copyOf(signature, SIGNATURE_SIZE)));
+        }
+    }
+
+    /**
+     * Get signature for path. Safe to call from concurrently running tasks.
      * @param path path to get sha1 for
      * @return signature or null of no mapping exists
      */
-    public byte[] getSignature(String path) {
-        return signatures.get(path);
+    public synchronized byte[] getSignature(String path) {
+        return getSignature(key(path), check(path));
     }
 
     /**
-     * Add signature
+     * Add signature. Safe to call from concurrently running tasks.
+     * An empty signature removes the mapping.
      * @param path path to set sha1 for
-     * @param signature signature to set
+     * @param signature signature to set, {@link #SIGNATURE_SIZE} bytes or empty
      */
-    public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+    public synchronized void putSignature(String path, byte[] signature) {
+        if (signature.length == 0 || signature.length == SIGNATURE_SIZE) {
+            putSignature(key(path), check(path), signature);
+        } else {
+            throw new IllegalArgumentException(String.format("Signature for '%s' must be %d bytes", path, SIGNATURE_SIZE));
+        }
+    }
+
+    /**
+     * Remove all signatures except the ones for the supplied paths, i.e. the outputs
+     * of the current build. The state file is rewritten when it is saved.
+     * @param paths paths to keep signatures for
+     * @return number of removed signatures
+     */
+    public synchronized int retainSignatures(Collection<String> paths) {
+        Set<Long> live = new HashSet<Long>(paths.size());
+        for (String path : paths) {
+            live.add(key(path));
+        }
+
+        Set<Long> stale = new HashSet<Long>();
+        for (int i = 0; i < tableCount; ++i) {
+            long key = table.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+            if (!live.contains(key) && !changes.containsKey(key)) {
+                stale.add(key);
+            }
+        }
+        for (Map.Entry<Long, Entry> entry : changes.entrySet()) {
+            if (entry.getValue() != REMOVED && !live.contains(entry.getKey())) {
+                stale.add(entry.getKey());
+            }
+        }
+
+        for (Long key : stale) {
+            put(key, REMOVED);
+        }
+        if (!stale.isEmpty()) {
+            compact = true;
+        }
+        return stale.size();
+    }
+
+    private void readTable(IResource resource) throws IOException, ClassNotFoundException {
+        File file = getFile(resource);
+        ByteBuffer buffer;
+        if (file != null) {
+            if (!file.isFile()) {
+                return;
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) == -1) {
+                        throw new IOException("Unexpected end of state file");
+                    }
+                }
+                buffer.flip();
+            } finally {
+                raf.close();
+            }
+        } else {
+            byte[] content = resource.getContent();
+            if (content == null) {
+                return;
+            }
+            buffer = ByteBuffer.wrap(content);
+        }
+
+        if (buffer.limit() >= 2 && buffer.getShort(0) == SERIALIZATION_MAGIC) {
+            migrate(buffer);
+            return;
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Invalid state file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            // Entries of other versions can't be verified, all tasks are built again
+            compact = true;
+            return;
+        }
+        int count = buffer.getInt(16);
+        if (buffer.getInt(20) != SIGNATURE_SIZE || buffer.limit() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+            throw new IOException("Corrupt state file");
+        }
+        generation = buffer.getLong(8);
+        tableCount = count;
+        table = buffer;
+    }
+
+    private void migrate(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        byte[] content = new byte[buffer.limit()];
+        buffer.get(content);
+        ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
+        State legacy = (State) is.readObject();
+        if (legacy.signatures != null) {
+            for (Map.Entry<String, byte[]> entry : legacy.signatures.entrySet()) {
+                putSignature(entry.getKey(), entry.getValue());
+            }
+        }
+        // Always rewrite the state in the new format
+        compact = true;
+    }
+
+    private void readJournal(IResource resource) throws IOException {
+        byte[] content = getJournal(resource).getContent();
+        if (content == null || content.length < JOURNAL_HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != generation) {
+            // Journal belonging to another version of the state table
+            return;
+        }
+        // Any incomplete record at the end of the journal is ignored
+        while (buffer.remaining() >= JOURNAL_RECORD_SIZE) {
+            long key = buffer.getLong();
+            long check = buffer.getLong();
+            int length = buffer.get();
+            byte[] signature = new byte[SIGNATURE_SIZE];
+            buffer.get(signature);
+            changes.put(key, length == 0 ? REMOVED : new Entry(check, signature));
+            ++journalRecords;
+        }
+        if (buffer.hasRemaining()) {
+            // Rewrite the journal instead of appending after a partial record
+            compact = true;
+        }
     }
 
     /**
@@ -58,33 +352,163 @@ public class State implements Serializable {
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
+        State state = new State();
+        try {
+            state.readTable(resource);
+            state.readJournal(resource);
+            return state;
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+            state = new State();
+            // Make sure the broken state is replaced
+            state.compact = true;
+            return state;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream os, long key, Entry entry) throws IOException {
+        os.writeLong(key);
+        os.writeLong(entry.check);
+        if (entry == REMOVED) {
+            os.writeByte(0);
+            os.write(new byte[SIGNATURE_SIZE]);
         } else {
+            os.writeByte(SIGNATURE_SIZE);
+            os.write(entry.signature);
+        }
+    }
+
+    private void appendJournal(IResource resource) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(JOURNAL_HEADER_SIZE + pending.size() * JOURNAL_RECORD_SIZE);
+        DataOutputStream os = new DataOutputStream(bos);
+        IResource journal = getJournal(resource);
+        boolean newJournal = journalRecords == 0 || !journal.exists();
+        if (newJournal) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeLong(generation);
+        }
+        for (Map.Entry<Long, Entry> entry : pending.entrySet()) {
+            writeRecord(os, entry.getKey(), entry.getValue());
+        }
+        os.close();
+
+        File file = getFile(journal);
+        if (file != null) {
+            file.getParentFile().mkdirs();
+            FileOutputStream fos = new FileOutputStream(file, !newJournal);
             try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+                fos.write(bos.toByteArray());
+            } finally {
+                fos.close();
             }
+        } else if (newJournal) {
+            journal.setContent(bos.toByteArray());
+        } else {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            content.write(journal.getContent());
+            content.write(bos.toByteArray());
+            journal.setContent(content.toByteArray());
         }
+        journalRecords += pending.size();
+        pending.clear();
+    }
+
+    private byte[] writeTable(long newGeneration) throws IOException {
+        long[] changedKeys = new long[changes.size()];
+        int changedCount = 0;
+        for (Long key : changes.keySet()) {
+            changedKeys[changedCount++] = key;
+        }
+        Arrays.sort(changedKeys);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(HEADER_SIZE + (tableCount + changedCount) * ENTRY_SIZE);
+        DataOutputStream os = new DataOutputStream(bos);
+        // Header is written once the number of entries is known
+        os.write(new byte[HEADER_SIZE]);
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < tableCount || j < changedCount) {
+            long tableKey = i < tableCount ? table.getLong(HEADER_SIZE + i * ENTRY_SIZE) : Long.MAX_VALUE;
+            long changedKey = j < changedCount ? changedKeys[j] : Long.MAX_VALUE;
+            long key;
+            Entry entry;
+            if (j >= changedCount || (i < tableCount && tableKey < changedKey)) {
+                key = tableKey;
+                entry = getEntry(i++);
+            } else {
+                if (i < tableCount && tableKey == changedKey) {
+                    ++i;
+                }
+                key = changedKey;
+                entry = changes.get(changedKeys[j++]);
+            }
+            if (entry != REMOVED) {
+                os.writeLong(key);
+                os.writeLong(entry.check);
+                os.write(entry.signature);
+                ++count;
+            }
+        }
+        os.close();
+
+        ByteBuffer content = ByteBuffer.wrap(bos.toByteArray());
+        content.putInt(MAGIC);
+        content.putInt(VERSION);
+        content.putLong(newGeneration);
+        content.putInt(count);
+        content.putInt(SIGNATURE_SIZE);
+        return content.array();
+    }
+
+    private boolean writeCompacted(IResource resource) throws IOException {
+        long newGeneration = new Random().nextLong();
+        byte[] content = writeTable(newGeneration);
+
+        File file = getFile(resource);
+        IResource journal = getJournal(resource);
+        if (file != null) {
+            file.getParentFile().mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            Files.write(tmp.toPath(), content);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // The table may be open in another process, which prevents it from being
+                // replaced on some platforms. Keep using the journal until next time.
+                tmp.delete();
+                return false;
+            }
+        } else {
+            resource.setContent(content);
+        }
+        journal.remove();
+        generation = newGeneration;
+        return true;
     }
 
     /**
-     * Save state
+     * Save state. Changed signatures are appended to the journal,
+     * and the table is rewritten when the journal has grown large enough.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+    public synchronized void save(IResource resource) throws IOException {
+        int records = journalRecords + pending.size();
+        if (compact || records > Math.max(MIN_COMPACT_RECORDS, tableCount / 4)) {
+            if (writeCompacted(resource)) {
+                // The changes are kept in memory since they override the loaded table
+                pending.clear();
+                journalRecords = 0;
+                compact = false;
+                return;
+            }
+        }
+        if (!pending.isEmpty()) {
+            appendJournal(resource);
+        }
     }
 
 }
@@ -80,6 +80,16 @@ public class Task<T> {
             task.data = data;
             return this;
         }
+
+        TaskBuilder<T> addDependency(IResource dependency) {
+            task.dependencies.add(dependency);
+            return this;
+        }
+
+        TaskBuilder<T> setOption(String key, String value) {
+            task.options.put(key, value);
+            return this;
+        }
     }
 
     public Task(Builder<T> builder) {
@@ -98,6 +108,10 @@ public class Task<T> {
         return data;
     }
 
+    public String getName() {
+        return name;
+    }
+
     @Override
     public String toString() {
         return String.format("task(%s) %s -> %s", name, inputs.toString(), outputs.toString());
@@ -119,6 +133,14 @@ public class Task<T> {
         return outputs.get(i);
     }
 
+    List<IResource> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    Map<String, String> getOptions() {
+        return Collections.unmodifiableMap(options);
+    }
+
     public byte[] calculateSignature(Project project) throws IOException {
         // TODO: Checksum of builder-class byte-code. Seems to be rather difficult though..
         MessageDigest digest;
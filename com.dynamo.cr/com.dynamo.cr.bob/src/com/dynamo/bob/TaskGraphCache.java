@@ -0,0 +1,368 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+
+package com.dynamo.bob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Persistent record of the tasks created for each input of a project, including the
+ * tasks created by the builders through {@link Project#buildResource(IResource)}.
+ * Enabled with the "task-graph-cache" option.
+ *
+ * Along with the tasks, the digests of the task inputs are stored, except for inputs
+ * generated by the tasks themselves, and the digests of the resources the builders
+ * looked up through {@link Project#getResource(String)} while creating the tasks, e.g.
+ * when checking that referenced resources exist. A resource that didn't exist is
+ * stored with an empty digest. As long as the digests are unchanged the tasks are
+ * restored from the record instead of running {@link Builder#create(IResource)} again.
+ * Builders must therefore not keep state in the builder instance between
+ * {@link Builder#create(IResource)} and {@link Builder#build(Task)}.
+ */
+public class TaskGraphCache {
+
+    static final int MAGIC = 0x42544731; // "BTG1"
+    static final int VERSION = 2;
+
+    static class TaskRecord {
+        String builder;
+        String name;
+        List<String> inputs = new ArrayList<String>();
+        List<String> outputs = new ArrayList<String>();
+        List<String> dependencies = new ArrayList<String>();
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        // Index of the task this task is a product of, -1 if none
+        int productOf = -1;
+    }
+
+    static class Entry {
+        List<TaskRecord> tasks = new ArrayList<TaskRecord>();
+        Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+    }
+
+    private final String key;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Create an empty cache
+     * @param key key of the settings the tasks are created with, e.g. project options.
+     * Records saved with another key are discarded when loaded.
+     */
+    public TaskGraphCache(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the number of inputs with recorded tasks
+     * @return number of inputs
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Record the tasks created for an input. The digests of the task inputs are computed,
+     * and the tasks are not recorded if any of the task inputs is missing.
+     * @param input project relative path of the input
+     * @param tasks tasks created for the input, the task created for the input first
+     * @param lookups resources looked up while creating the tasks
+     * @return true if the tasks were recorded
+     */
+    public boolean put(String input, List<Task<?>> tasks, Collection<IResource> lookups) {
+        Entry entry = new Entry();
+        Map<Task<?>, Integer> indices = new IdentityHashMap<Task<?>, Integer>();
+        Set<String> outputs = new HashSet<String>();
+        for (Task<?> task : tasks) {
+            indices.put(task, indices.size());
+            for (IResource r : task.getOutputs()) {
+                outputs.add(r.getPath());
+            }
+        }
+        try {
+            for (Task<?> task : tasks) {
+                TaskRecord record = new TaskRecord();
+                record.builder = task.getBuilder().getClass().getName();
+                record.name = task.getName();
+                for (IResource r : task.getInputs()) {
+                    record.inputs.add(r.getPath());
+                    // Inputs generated by the tasks themselves follow from the other inputs
+                    if (!outputs.contains(r.getPath()) && !entry.digests.containsKey(r.getPath())) {
+                        entry.digests.put(r.getPath(), r.sha1());
+                    }
+                }
+                for (IResource r : task.getOutputs()) {
+                    record.outputs.add(r.getPath());
+                }
+                for (IResource r : task.getDependencies()) {
+                    record.dependencies.add(r.getPath());
+                    if (!outputs.contains(r.getPath()) && !entry.digests.containsKey(r.getPath())) {
+                        entry.digests.put(r.getPath(), r.sha1());
+                    }
+                }
+                record.options.putAll(task.getOptions());
+                Integer productOf = task.getProductOf() != null ? indices.get(task.getProductOf()) : null;
+                if (task.getProductOf() != null && productOf == null) {
+                    // Product of a task not created for this input
+                    entries.remove(input);
+                    return false;
+                }
+                record.productOf = productOf != null ? productOf : -1;
+                entry.tasks.add(record);
+            }
+            for (IResource r : lookups) {
+                // Outputs are rewritten by the build, changes to them don't affect the created tasks
+                if (r.isOutput() || outputs.contains(r.getPath()) || entry.digests.containsKey(r.getPath())) {
+                    continue;
+                }
+                entry.digests.put(r.getPath(), r.exists() ? r.sha1() : new byte[0]);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Missing inputs are reported when the task is built
+            entries.remove(input);
+            return false;
+        }
+        entries.put(input, entry);
+        return true;
+    }
+
+    /**
+     * Copy the record of an input from another cache, e.g. for tasks kept in memory
+     * @param other cache to copy from
+     * @param input project relative path of the input
+     */
+    public void copy(TaskGraphCache other, String input) {
+        Entry entry = other.entries.get(input);
+        if (entry != null) {
+            entries.put(input, entry);
+        } else {
+            entries.remove(input);
+        }
+    }
+
+    /**
+     * Get the resources with recorded digests, e.g. to compute their current signatures
+     * ahead of {@link #restore(String, Class, Project)}
+     * @param project project to get the resources from
+     * @return resources
+     */
+    public Collection<IResource> getResources(Project project) {
+        Set<String> paths = new LinkedHashSet<String>();
+        for (Entry entry : entries.values()) {
+            paths.addAll(entry.digests.keySet());
+        }
+        List<IResource> resources = new ArrayList<IResource>(paths.size());
+        for (String path : paths) {
+            resources.add(project.getResource(path));
+        }
+        return resources;
+    }
+
+    /**
+     * Restore the tasks recorded for an input, if the digests of the task inputs are unchanged
+     * @param input project relative path of the input
+     * @param builderClass builder currently used for the input
+     * @param project project to create the tasks for
+     * @return restored tasks, the task created for the input first, or null if the tasks must be created
+     */
+    public List<Task<?>> restore(String input, Class<? extends Builder<?>> builderClass, Project project) {
+        Entry entry = entries.get(input);
+        if (entry == null || entry.tasks.isEmpty() || !entry.tasks.get(0).builder.equals(builderClass.getName())) {
+            return null;
+        }
+        try {
+            for (Map.Entry<String, byte[]> digest : entry.digests.entrySet()) {
+                IResource resource = project.getResource(digest.getKey());
+                if (digest.getValue().length == 0) {
+                    // Didn't exist when the tasks were created
+                    if (resource.exists()) {
+                        return null;
+                    }
+                } else if (!Arrays.equals(resource.sha1(), digest.getValue())) {
+                    return null;
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+        List<Task<?>> tasks = new ArrayList<Task<?>>(entry.tasks.size());
+        try {
+            for (TaskRecord record : entry.tasks) {
+                Builder<?> builder = (Builder<?>) Class.forName(record.builder).newInstance();
+                builder.setProject(project);
+                Task<?> task = newTask(builder, record, project);
+                if (record.productOf != -1) {
+                    task.setProductOf(tasks.get(record.productOf));
+                }
+                tasks.add(task);
+            }
+        } catch (ReflectiveOperationException | ClassCastException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // E.g. a builder that no longer exists
+            return null;
+        }
+        return tasks;
+    }
+
+    private static <T> Task<T> newTask(Builder<T> builder, TaskRecord record, Project project) {
+        Task.TaskBuilder<T> taskBuilder = Task.<T>newBuilder(builder).setName(record.name);
+        for (String path : record.inputs) {
+            taskBuilder.addInput(project.getResource(path));
+        }
+        for (String path : record.outputs) {
+            taskBuilder.addOutput(project.getResource(path));
+        }
+        for (String path : record.dependencies) {
+            taskBuilder.addDependency(project.getResource(path));
+        }
+        for (Map.Entry<String, String> option : record.options.entrySet()) {
+            taskBuilder.setOption(option.getKey(), option.getValue());
+        }
+        return taskBuilder.build();
+    }
+
+    /**
+     * Load a cache. An empty cache is returned if the resource doesn't exist, can't be read
+     * or was saved with another key.
+     * @param resource resource to load from
+     * @param key key of the settings the tasks are created with
+     * @return loaded cache
+     */
+    public static TaskGraphCache load(IResource resource, String key) {
+        TaskGraphCache cache = new TaskGraphCache(key);
+        try {
+            byte[] content = resource.getContent();
+            if (content == null) {
+                return cache;
+            }
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(content));
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || !is.readUTF().equals(key)) {
+                return cache;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String input = is.readUTF();
+                Entry entry = new Entry();
+                int taskCount = is.readInt();
+                for (int t = 0; t < taskCount; ++t) {
+                    TaskRecord record = new TaskRecord();
+                    record.builder = is.readUTF();
+                    record.name = is.readBoolean() ? is.readUTF() : null;
+                    int inputCount = is.readInt();
+                    for (int j = 0; j < inputCount; ++j) {
+                        record.inputs.add(is.readUTF());
+                    }
+                    int outputCount = is.readInt();
+                    for (int j = 0; j < outputCount; ++j) {
+                        record.outputs.add(is.readUTF());
+                    }
+                    int dependencyCount = is.readInt();
+                    for (int j = 0; j < dependencyCount; ++j) {
+                        record.dependencies.add(is.readUTF());
+                    }
+                    int optionCount = is.readInt();
+                    for (int j = 0; j < optionCount; ++j) {
+                        record.options.put(is.readUTF(), is.readUTF());
+                    }
+                    record.productOf = is.readInt();
+                    entry.tasks.add(record);
+                }
+                int digestCount = is.readInt();
+                for (int j = 0; j < digestCount; ++j) {
+                    String path = is.readUTF();
+                    byte[] digest = new byte[is.readUnsignedByte()];
+                    is.readFully(digest);
+                    entry.digests.put(path, digest);
+                }
+                cache.entries.put(input, entry);
+            }
+        } catch (IOException e) {
+            // Truncated or otherwise broken, all tasks are created again
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Save the cache
+     * @param resource resource to save to
+     * @throws IOException
+     */
+    public void save(IResource resource) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeUTF(key);
+        os.writeInt(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            os.writeUTF(e.getKey());
+            os.writeInt(entry.tasks.size());
+            for (TaskRecord record : entry.tasks) {
+                os.writeUTF(record.builder);
+                os.writeBoolean(record.name != null);
+                if (record.name != null) {
+                    os.writeUTF(record.name);
+                }
+                os.writeInt(record.inputs.size());
+                for (String path : record.inputs) {
+                    os.writeUTF(path);
+                }
+                os.writeInt(record.outputs.size());
+                for (String path : record.outputs) {
+                    os.writeUTF(path);
+                }
+                os.writeInt(record.dependencies.size());
+                for (String path : record.dependencies) {
+                    os.writeUTF(path);
+                }
+                os.writeInt(record.options.size());
+                for (Map.Entry<String, String> option : record.options.entrySet()) {
+                    os.writeUTF(option.getKey());
+                    os.writeUTF(option.getValue());
+                }
+                os.writeInt(record.productOf);
+            }
+            os.writeInt(entry.digests.size());
+            for (Map.Entry<String, byte[]> digest : entry.digests.entrySet()) {
+                os.writeUTF(digest.getKey());
+                os.writeByte(digest.getValue().length);
+                os.write(digest.getValue());
+            }
+        }
+        os.close();
+        resource.setContent(bos.toByteArray());
+    }
+}
@@ -23,6 +23,7 @@ public class TaskResult {
     private Task<?> task;
     private Throwable exception;
     private int lineNumber = 0;
+    private boolean fromBuildCache = false;
 
     public TaskResult(Task<?> task) {
         this.task = task;
@@ -104,4 +105,20 @@ public class TaskResult {
     public int getLineNumber() {
         return this.lineNumber;
     }
+
+    /**
+     * Set if the outputs were restored from the build cache rather than built
+     * @param fromBuildCache true if restored from the build cache
+     */
+    public void setFromBuildCache(boolean fromBuildCache) {
+        this.fromBuildCache = fromBuildCache;
+    }
+
+    /**
+     * Get if the outputs were restored from the build cache
+     * @return true if restored from the build cache
+     */
+    public boolean isFromBuildCache() {
+        return fromBuildCache;
+    }
 }
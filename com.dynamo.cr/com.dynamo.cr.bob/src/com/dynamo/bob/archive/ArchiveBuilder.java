@@ -12,28 +12,49 @@
 
 package com.dynamo.bob.archive;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.BuildTrace;
 import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+import com.dynamo.liveupdate.proto.Manifest.HashDigest;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
+import com.google.protobuf.ByteString;
 
 import net.jpountz.lz4.LZ4Compressor;
 import net.jpountz.lz4.LZ4Factory;
@@ -47,6 +68,9 @@ public class ArchiveBuilder {
 
     private static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
 
+    // Upper limit of the resource data being prepared for writing at any time
+    private static final long MAX_IN_FLIGHT_BYTES = 256 * 1024 * 1024;
+
     private static final List<String> ENCRYPTED_EXTS = Arrays.asList("luac", "scriptc", "gui_scriptc", "render_scriptc");
 
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
@@ -54,6 +78,17 @@ public class ArchiveBuilder {
     private ManifestBuilder manifestBuilder = null;
     private LZ4Compressor lz4Compressor;
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
+    // Offsets of the data written to the archive, by hash, size and flags of the data
+    private Map<String, Integer> payloadOffsets = new HashMap<String, Integer>();
+    private int sharedEntryCount = 0;
+    private long sharedEntryBytes = 0;
+    // Index of the previous archive, data of unchanged resources is copied from it
+    private ArchiveCache previousArchiveCache = null;
+    private ArchiveCache archiveCache = new ArchiveCache();
+    private int reusedEntryCount = 0;
+    private CompressionCache compressionCache = null;
+    private BuildTrace buildTrace = null;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder) {
         this.root = new File(root).getAbsolutePath();
@@ -98,6 +133,68 @@ public class ArchiveBuilder {
         return this.archiveIndexMD5;
     }
 
+    /**
+     * Number of entries in the last written archive that share their data with
+     * another entry
+     */
+    public int getSharedEntryCount() {
+        return this.sharedEntryCount;
+    }
+
+    /**
+     * Number of bytes saved in the last written archive by sharing data between entries
+     */
+    public long getSharedEntryBytes() {
+        return this.sharedEntryBytes;
+    }
+
+    /**
+     * Set the index of the previous archive. Resources with the same content as in the
+     * previous archive have their data copied from the previous data file instead of
+     * being compressed and encrypted again. The written archive is the same as without
+     * the index.
+     */
+    public void setPreviousArchiveCache(ArchiveCache previousArchiveCache) {
+        this.previousArchiveCache = previousArchiveCache;
+    }
+
+    /**
+     * Set a cache of compressed data to get the data of resources compressed
+     * before from, and to store newly compressed data in
+     */
+    public void setCompressionCache(CompressionCache compressionCache) {
+        this.compressionCache = compressionCache;
+    }
+
+    /**
+     * Set a build trace to record the compression of each resource in
+     */
+    public void setBuildTrace(BuildTrace buildTrace) {
+        this.buildTrace = buildTrace;
+    }
+
+    /**
+     * Set the number of threads preparing entries when the archive is written.
+     * Defaults to one thread per available processor.
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Index of the last written archive, to be saved with the data file
+     */
+    public ArchiveCache getArchiveCache() {
+        return this.archiveCache;
+    }
+
+    /**
+     * Number of entries in the last written archive that were copied from the previous archive
+     */
+    public int getReusedEntryCount() {
+        return this.reusedEntryCount;
+    }
+
     public byte[] loadResourceData(String filepath) throws IOException {
         File fhandle = new File(filepath);
         return FileUtils.readFileToByteArray(fhandle);
@@ -119,6 +216,38 @@ public class ArchiveBuilder {
         return Crypt.encryptCTR(buffer, KEY);
     }
 
+    // Copy a file to the current position of a channel, without going through the Java heap where supported
+    private static void transferResourceData(File source, FileChannel target) throws IOException {
+        FileInputStream is = new FileInputStream(source);
+        try {
+            FileChannel channel = is.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long n = channel.transferTo(position, size - position, target);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    public void writeResourcePack(String filename, String directory, File source, byte flags, int size) throws IOException {
+        File fhandle = new File(directory, filename);
+        if (!fhandle.exists()) {
+            writeResourcePack(filename, directory, new byte[0], flags, size);
+            FileOutputStream outputStream = new FileOutputStream(fhandle, true);
+            try {
+                transferResourceData(source, outputStream.getChannel());
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
     public void writeResourcePack(String filename, String directory, byte[] buffer, byte flags, int size) throws IOException {
         FileOutputStream outputStream = null;
         try {
@@ -150,19 +279,224 @@ public class ArchiveBuilder {
     }
 
     public boolean excludeResource(String filepath, List<String> excludedResources) {
-        boolean result = false;
+        return excludeResource(filepath, new HashSet<String>(excludedResources));
+    }
+
+    // as long as one tree path requires the resource, we cannot exclude it
+    public boolean excludeResource(String filepath, Set<String> excludedResources) {
         if (this.manifestBuilder != null) {
-            List<ArrayList<String>> parentChains = this.manifestBuilder.getParentCollections(filepath);
-            for (List<String> parents : parentChains) {
-                boolean excluded = isTreeExcluded(parents, excludedResources);
-                if (!excluded) {
-                    return false; // as long as one tree path requires this resource, we cannot exclude it
+            return this.manifestBuilder.isExcluded(filepath, excludedResources);
+        }
+        return false;
+    }
+
+    // An archive entry that is loaded, compressed, encrypted and hashed, ready to be written
+    private static class PreparedEntry {
+        ArchiveEntry entry;
+        // Null if the resource is streamed from disk
+        byte[] buffer;
+        byte archiveEntryFlags;
+        int compressedSize;
+        boolean encrypted;
+        byte[] hashDigest;
+        // Key of the data in the archive index, null if the resource is streamed from disk
+        String cacheKey;
+        // Data in the previous archive, null if the data was prepared
+        ArchiveCache.Entry cached;
+    }
+
+    private PreparedEntry prepareEntry(ArchiveEntry entry) throws IOException {
+        PreparedEntry prepared = new PreparedEntry();
+        prepared.entry = entry;
+        String extension = FilenameUtils.getExtension(entry.fileName);
+        boolean encrypt = ENCRYPTED_EXTS.indexOf(extension) != -1;
+        // Resources stored as they are, e.g. audio and video, are streamed from disk
+        // instead of being loaded into memory
+        boolean stream = entry.compressedSize == ArchiveEntry.FLAG_UNCOMPRESSED && !encrypt;
+        byte[] buffer = stream ? null : this.loadResourceData(entry.fileName);
+        byte archiveEntryFlags = (byte) entry.flags;
+        int compressedSize = entry.compressedSize;
+        byte[] sourceDigest = null;
+        if (!stream) {
+            HashAlgorithm hashAlgorithm = manifestBuilder.getResourceHashAlgorithm();
+            try {
+                sourceDigest = ManifestBuilder.CryptographicOperations.hash(buffer, HashAlgorithm.HASH_SHA1);
+                prepared.cacheKey = ArchiveCache.getKey(sourceDigest, compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED, encrypt, hashAlgorithm);
+            } catch (NoSuchAlgorithmException exception) {
+                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+            }
+            ArchiveCache.Entry cached = previousArchiveCache != null ? previousArchiveCache.get(prepared.cacheKey) : null;
+            if (cached != null) {
+                // The data is copied from the previous archive when written
+                if (cached.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                }
+                if (encrypt) {
+                    archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+                }
+                prepared.cached = cached;
+                prepared.archiveEntryFlags = archiveEntryFlags;
+                prepared.compressedSize = cached.compressedSize;
+                prepared.encrypted = encrypt;
+                prepared.hashDigest = cached.hash;
+                return prepared;
+            }
+        }
+        if (compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+            // Compress data
+            byte[] compressed = getCompressedResourceData(entry, buffer, ManifestBuilder.CryptographicOperations.hexdigest(sourceDigest));
+            if (compressed != CompressionCache.INCOMPRESSIBLE) {
+                archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                buffer = compressed;
+                compressedSize = compressed.length;
+            } else {
+                compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+            }
+        }
+
+        // Encrypt data
+        if (encrypt) {
+            archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+            buffer = this.encryptResourceData(buffer);
+        }
+
+        // Calculate hash digest values for resource
+        try {
+            if (stream) {
+                FileInputStream is = new FileInputStream(entry.fileName);
+                try {
+                    prepared.hashDigest = ManifestBuilder.CryptographicOperations.hash(is, manifestBuilder.getResourceHashAlgorithm());
+                } finally {
+                    is.close();
                 }
-                result = true;
+            } else {
+                prepared.hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
             }
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
         }
 
-        return result;
+        prepared.buffer = buffer;
+        prepared.archiveEntryFlags = archiveEntryFlags;
+        prepared.compressedSize = compressedSize;
+        prepared.encrypted = encrypt;
+        return prepared;
+    }
+
+    /**
+     * Compress data, or get the result of compressing the same data before from the compression cache
+     * @return compressed data or {@link CompressionCache#INCOMPRESSIBLE} if the data doesn't compress well
+     */
+    private byte[] getCompressedResourceData(ArchiveEntry entry, byte[] buffer, String key) throws IOException {
+        long start = buildTrace != null ? buildTrace.now() : 0;
+        long cpuStart = buildTrace != null ? buildTrace.cpuTime() : 0;
+        byte[] compressed = compressionCache != null ? compressionCache.get(key, buffer.length) : null;
+        String status = "cached";
+        if (compressed == null) {
+            compressed = this.compressResourceData(buffer);
+            if (!this.shouldUseCompressedResourceData(buffer, compressed)) {
+                compressed = CompressionCache.INCOMPRESSIBLE;
+            }
+            if (compressionCache != null) {
+                try {
+                    compressionCache.put(key, compressed);
+                } catch (IOException e) {
+                    // Not cached, the data is compressed again by the next build
+                }
+            }
+            status = "compressed";
+        }
+        if (buildTrace != null) {
+            buildTrace.add("compress", entry.relName, getClass().getSimpleName(), status, start, cpuStart, buffer.length, compressed.length);
+        }
+        return compressed;
+    }
+
+    private static PreparedEntry getPreparedEntry(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing archive", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void writeEntry(int index, PreparedEntry prepared, RandomAccessFile archiveData, Path resourcePackDirectory, Set<String> excludedResources) throws IOException {
+        ArchiveEntry entry = prepared.entry;
+        boolean cached = prepared.cached != null;
+        boolean stream = prepared.buffer == null && !cached;
+        byte[] buffer = prepared.buffer;
+        if (cached) {
+            reusedEntryCount++;
+        }
+        byte archiveEntryFlags = prepared.archiveEntryFlags;
+        int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
+        if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+            entry.compressedSize = prepared.compressedSize;
+        }
+        if (prepared.encrypted) {
+            entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+        }
+
+        // Add entry to manifest
+        String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+
+        byte[] hashDigest = prepared.hashDigest;
+        entry.hash = new byte[HASH_MAX_LENGTH];
+        System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
+        String hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
+
+        // Write resource to data archive
+        if (this.excludeResource(normalisedPath, excludedResources)) {
+            resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
+            if (cached) {
+                buffer = previousArchiveCache.readData(prepared.cached);
+            }
+            if (stream) {
+                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), new File(entry.fileName), archiveEntryFlags, entry.size);
+            } else {
+                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
+            }
+            entries.remove(index);
+        } else {
+            // Entries with identical data, e.g. copies of the same texture, point to the
+            // data written for the first of them
+            int payloadSize = cached ? prepared.cached.size : stream ? entry.size : buffer.length;
+            int payloadFlags = archiveEntryFlags & (ArchiveEntry.FLAG_COMPRESSED | ArchiveEntry.FLAG_ENCRYPTED);
+            String payloadKey = hexDigest + ":" + payloadSize + ":" + payloadFlags;
+            Integer payloadOffset = payloadOffsets.get(payloadKey);
+            if (payloadOffset != null) {
+                entry.resourceOffset = payloadOffset;
+                sharedEntryCount++;
+                sharedEntryBytes += payloadSize;
+            } else {
+                alignBuffer(archiveData, 4);
+                entry.resourceOffset = (int) archiveData.getFilePointer();
+                if (cached) {
+                    previousArchiveCache.transferData(prepared.cached, archiveData.getChannel());
+                } else if (stream) {
+                    transferResourceData(new File(entry.fileName), archiveData.getChannel());
+                } else {
+                    archiveData.write(buffer, 0, buffer.length);
+                }
+                payloadOffsets.put(payloadKey, entry.resourceOffset);
+            }
+            if (prepared.cacheKey != null) {
+                archiveCache.put(prepared.cacheKey, new ArchiveCache.Entry(entry.resourceOffset, payloadSize, prepared.compressedSize, hashDigest));
+            }
+        }
+
+        // The manifest uses the same hash algorithm, no need to hash the data again
+        HashDigest hash = HashDigest.newBuilder().setData(ByteString.copyFrom(hashDigest)).build();
+        manifestBuilder.addResourceEntry(normalisedPath, hash, resourceEntryFlags);
     }
 
     public void write(RandomAccessFile archiveIndex, RandomAccessFile archiveData, Path resourcePackDirectory, List<String> excludedResources) throws IOException {
@@ -179,88 +513,80 @@ public class ArchiveBuilder {
         int archiveIndexHeaderOffset = (int) archiveIndex.getFilePointer();
 
         Collections.sort(entries); // Since it has no hash, it sorts on path
-
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-            byte[] buffer = this.loadResourceData(entry.fileName);
-            byte archiveEntryFlags = (byte) entry.flags;
-            int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
-            if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
-                    buffer = compressed;
-                    entry.compressedSize = compressed.length;
-                } else {
-                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+        payloadOffsets.clear();
+        sharedEntryCount = 0;
+        sharedEntryBytes = 0;
+        archiveCache = new ArchiveCache();
+        reusedEntryCount = 0;
+        Set<String> excludedResourceSet = new HashSet<String>(excludedResources);
+
+        // Entries are loaded, compressed, encrypted and hashed on worker threads, a few entries
+        // ahead of the entry being written. They are written in the same order as before,
+        // so the archive is the same regardless of the number of threads.
+        int threads = threadCount;
+        long maxInFlightBytes = Math.min(MAX_IN_FLIGHT_BYTES, Runtime.getRuntime().maxMemory() / 4);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<PreparedEntry>> inFlight = new ArrayDeque<Future<PreparedEntry>>();
+        long inFlightBytes = 0;
+        int next = entries.size() - 1;
+        try {
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                while (next >= 0 && (inFlight.isEmpty() || (inFlight.size() < threads * 4 && inFlightBytes + entries.get(next).size <= maxInFlightBytes))) {
+                    final ArchiveEntry entry = entries.get(next);
+                    inFlight.add(executor.submit(new Callable<PreparedEntry>() {
+                        @Override
+                        public PreparedEntry call() throws Exception {
+                            return prepareEntry(entry);
+                        }
+                    }));
+                    inFlightBytes += entry.size;
+                    --next;
                 }
+                PreparedEntry prepared = getPreparedEntry(inFlight.poll());
+                inFlightBytes -= prepared.entry.size;
+                writeEntry(i, prepared, archiveData, resourcePackDirectory, excludedResourceSet);
             }
-
-            // Encrypt data
-            String extension = FilenameUtils.getExtension(entry.fileName);
-            if (ENCRYPTED_EXTS.indexOf(extension) != -1) {
-                archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
-                entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
-                buffer = this.encryptResourceData(buffer);
-            }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
-
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.hash = new byte[HASH_MAX_LENGTH];
-                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
-            }
-
-            // Write resource to data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
-                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
-                entries.remove(i);
-            } else {
-                alignBuffer(archiveData, 4);
-                entry.resourceOffset = (int) archiveData.getFilePointer();
-                archiveData.write(buffer, 0, buffer.length);
-            }
-
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, resourceEntryFlags);
+        } finally {
+            executor.shutdownNow();
         }
 
         Collections.sort(entries); // Since it has a hash, it sorts on hash
 
-        // Write sorted hashes to index file
-        int hashOffset = (int) archiveIndex.getFilePointer();
+        // Write sorted hashes and entries to index file. The MD5 hash of the index is
+        // calculated as it is written, rather than by reading the index back.
+        MessageDigest indexDigest = null;
+        try {
+            indexDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println("The algorithm specified is not supported!");
+            e.printStackTrace();
+        }
+        OutputStream indexStream = new BufferedOutputStream(Channels.newOutputStream(archiveIndex.getChannel()));
+        if (indexDigest != null) {
+            indexStream = new DigestOutputStream(indexStream, indexDigest);
+        }
+        DataOutputStream indexOutput = new DataOutputStream(indexStream);
+
+        int hashOffset = archiveIndexHeaderOffset;
         for(ArchiveEntry entry : entries) {
-            archiveIndex.write(entry.hash);
+            indexOutput.write(entry.hash);
         }
 
-        // Write sorted entries to index file
-        int entryOffset = (int) archiveIndex.getFilePointer();
-        alignBuffer(archiveIndex, 4);
+        int entryOffset = hashOffset + indexOutput.size();
+        int padding = (4 - entryOffset % 4) % 4;
+        for (int i = 0; i < padding; ++i) {
+            indexOutput.writeByte(0);
+        }
         for (ArchiveEntry entry : entries) {
-            archiveIndex.writeInt(entry.resourceOffset);
-            archiveIndex.writeInt(entry.size);
-            archiveIndex.writeInt(entry.compressedSize);
-            archiveIndex.writeInt(entry.flags);
+            indexOutput.writeInt(entry.resourceOffset);
+            indexOutput.writeInt(entry.size);
+            indexOutput.writeInt(entry.compressedSize);
+            indexOutput.writeInt(entry.flags);
         }
-
-        try {
-            // Calc index file MD5 hash
-            archiveIndex.seek(archiveIndexHeaderOffset);
-            int num_bytes = (int) archiveIndex.length() - archiveIndexHeaderOffset;
-            byte[] archiveIndexBytes = new byte[num_bytes];
-            archiveIndex.readFully(archiveIndexBytes);
-            this.archiveIndexMD5 = ManifestBuilder.CryptographicOperations.hash(archiveIndexBytes, HashAlgorithm.HASH_MD5);
-        } catch (NoSuchAlgorithmException e) {
-            System.err.println("The algorithm specified is not supported!");
-            e.printStackTrace();
+        // Flush without closing, closing would close the index file
+        indexOutput.flush();
+        if (indexDigest != null) {
+            this.archiveIndexMD5 = indexDigest.digest();
         }
 
         // Update index header with offsets
@@ -388,6 +714,9 @@ public class ArchiveBuilder {
             List<String> excludedResources = new ArrayList<String>();
             archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
             manifestBuilder.setArchiveIdentifier(archiveBuilder.getArchiveIndexHash());
+            if (archiveBuilder.getSharedEntryCount() > 0) {
+                System.out.println("Shared data of " + Integer.toString(archiveBuilder.getSharedEntryCount()) + " identical entries, saving " + Long.toString(archiveBuilder.getSharedEntryBytes()) + " bytes.");
+            }
 
             System.out.println("Writing " + filepathManifest.getCanonicalPath());
             byte[] manifestFile = manifestBuilder.buildManifest();
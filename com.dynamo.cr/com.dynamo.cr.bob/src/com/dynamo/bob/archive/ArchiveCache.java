@@ -0,0 +1,219 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.util.FileStamp;
+import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+
+/**
+ * Index of the data in an archive data file (arcd), by the resource content the
+ * data was prepared from. An archive written with the index of the previous archive
+ * copies the compressed and encrypted data of unchanged resources from the previous
+ * data file instead of preparing it again.
+ *
+ * The index is saved next to the data file and is only valid for that file, which
+ * is checked by the size, modification time and file key (e.g. the inode, where
+ * supported) of the data file.
+ */
+public class ArchiveCache {
+
+    private static final int CACHE_MAGIC = 0x42414331;
+    private static final int CACHE_VERSION = 1;
+
+    /**
+     * Data of a resource in the data file
+     */
+    static class Entry {
+        final int offset;
+        final int size;
+        final int compressedSize;
+        final byte[] hash;
+
+        Entry(int offset, int size, int compressedSize, byte[] hash) {
+            this.offset = offset;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.hash = hash;
+        }
+    }
+
+    // Looked up when entries are prepared on worker threads
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private File dataFile = null;
+    private FileChannel dataChannel = null;
+
+    /**
+     * Key of the data prepared from a resource. Everything that changes how the
+     * data is prepared is part of the key.
+     * @param sourceDigest SHA1 digest of the resource content
+     * @param compress true if compression was requested for the resource
+     * @param encrypt true if the resource is encrypted
+     * @param hashAlgorithm algorithm of the resource hashes
+     */
+    static String getKey(byte[] sourceDigest, boolean compress, boolean encrypt, HashAlgorithm hashAlgorithm) {
+        return ManifestBuilder.CryptographicOperations.hexdigest(sourceDigest) + ":" + compress + ":" + encrypt + ":" + hashAlgorithm;
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private synchronized FileChannel getDataChannel() throws IOException {
+        if (dataChannel == null) {
+            dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        }
+        return dataChannel;
+    }
+
+    /**
+     * Copy the data of an entry to the current position of a channel, without
+     * going through the Java heap where supported
+     */
+    void transferData(Entry entry, FileChannel target) throws IOException {
+        FileChannel channel = getDataChannel();
+        long position = entry.offset;
+        long end = position + entry.size;
+        while (position < end) {
+            long n = channel.transferTo(position, end - position, target);
+            if (n <= 0) {
+                throw new IOException(String.format("Unable to read %d bytes at offset %d of %s", entry.size, entry.offset, dataFile));
+            }
+            position += n;
+        }
+    }
+
+    byte[] readData(Entry entry) throws IOException {
+        FileChannel channel = getDataChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(entry.size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.offset + buffer.position()) <= 0) {
+                throw new IOException(String.format("Unable to read %d bytes at offset %d of %s", entry.size, entry.offset, dataFile));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Close the data file of a loaded index. Must be done before the data file is replaced.
+     */
+    public synchronized void close() {
+        IOUtils.closeQuietly(dataChannel);
+        dataChannel = null;
+    }
+
+    /**
+     * Load the index of a data file. An empty index is returned if there is no
+     * index, or if the index is in another format or was saved for another data file.
+     * @param cacheFile index file
+     * @param dataFile data file the index was saved for
+     * @return loaded index
+     */
+    public static ArchiveCache load(File cacheFile, File dataFile) {
+        ArchiveCache cache = new ArchiveCache();
+        DataInputStream is = null;
+        try {
+            BasicFileAttributes attributes = FileStamp.readAttributes(dataFile);
+            if (attributes == null || !attributes.isRegularFile() || !cacheFile.isFile()) {
+                return cache;
+            }
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (is.readInt() != CACHE_MAGIC || is.readInt() != CACHE_VERSION) {
+                return cache;
+            }
+            if (!FileStamp.read(is).matches(attributes)) {
+                return cache;
+            }
+            long size = attributes.size();
+            int count = is.readInt();
+            Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>(count);
+            for (int i = 0; i < count; ++i) {
+                String key = is.readUTF();
+                int offset = is.readInt();
+                int entrySize = is.readInt();
+                int compressedSize = is.readInt();
+                byte[] hash = new byte[is.readUnsignedByte()];
+                is.readFully(hash);
+                if (offset < 0 || entrySize < 0 || (long) offset + entrySize > size) {
+                    return cache;
+                }
+                entries.put(key, new Entry(offset, entrySize, compressedSize, hash));
+            }
+            cache.entries.putAll(entries);
+            cache.dataFile = dataFile;
+        } catch (IOException e) {
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return cache;
+    }
+
+    /**
+     * Save the index for a data file. The data file must be completely written.
+     * @param cacheFile index file
+     * @param dataFile data file the index describes
+     * @throws IOException
+     */
+    public void save(File cacheFile, File dataFile) throws IOException {
+        BasicFileAttributes attributes = FileStamp.readAttributes(dataFile);
+        if (attributes == null) {
+            cacheFile.delete();
+            return;
+        }
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+        try {
+            os.writeInt(CACHE_MAGIC);
+            os.writeInt(CACHE_VERSION);
+            new FileStamp(attributes).write(os);
+            List<Map.Entry<String, Entry>> snapshot = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+            os.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot) {
+                Entry entry = e.getValue();
+                os.writeUTF(e.getKey());
+                os.writeInt(entry.offset);
+                os.writeInt(entry.size);
+                os.writeInt(entry.compressedSize);
+                os.writeByte(entry.hash.length);
+                os.write(entry.hash);
+            }
+        } finally {
+            os.close();
+        }
+    }
+}
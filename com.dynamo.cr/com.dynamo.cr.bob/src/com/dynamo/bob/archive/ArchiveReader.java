@@ -14,20 +14,35 @@ package com.dynamo.bob.archive;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+/**
+ * Reader of an archive index (arci) and data file (arcd). Both files are memory mapped,
+ * entry data is returned as slices of the mapped data file without copying.
+ */
 public class ArchiveReader {
     public static final int VERSION = 4;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
+    private static final int ENTRY_BYTESIZE = 16;
 
     private ArrayList<ArchiveEntry> entries = null;
 
@@ -39,8 +54,11 @@ public class ArchiveReader {
     private final String archiveIndexFilepath;
     private final String archiveDataFilepath;
     private final String manifestFilepath;
-    private RandomAccessFile archiveIndexFile = null;
-    private RandomAccessFile archiveDataFile = null;
+    private FileChannel archiveIndexChannel = null;
+    private FileChannel archiveDataChannel = null;
+    private MappedByteBuffer archiveIndex = null;
+    // Null if the data file is too large to be mapped at once, entries are then mapped one by one
+    private MappedByteBuffer archiveData = null;
     private ManifestFile manifestFile = null;
 
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
@@ -50,85 +68,89 @@ public class ArchiveReader {
     }
 
     public void read() throws IOException {
-    	this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
-        this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
-        
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
-        
+        this.archiveIndexChannel = FileChannel.open(new File(this.archiveIndexFilepath).toPath(), StandardOpenOption.READ);
+        this.archiveDataChannel = FileChannel.open(new File(this.archiveDataFilepath).toPath(), StandardOpenOption.READ);
+
+        this.archiveIndex = this.archiveIndexChannel.map(MapMode.READ_ONLY, 0, this.archiveIndexChannel.size());
+        long dataSize = this.archiveDataChannel.size();
+        if (dataSize <= Integer.MAX_VALUE) {
+            this.archiveData = this.archiveDataChannel.map(MapMode.READ_ONLY, 0, dataSize);
+        }
+
         if (this.manifestFilepath != null) {
-	        InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
-	        this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
-	        manifestInputStream.close();
+            InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
+            this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
+            manifestInputStream.close();
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.archiveIndex.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
             throw new IOException("Unsupported archive index version: " + indexVersion);
         }
     }
-    
-    private boolean matchHash(byte[] a, byte[] b, int hlen) {
-    	if (a.length < hlen || b.length < hlen) {
-    		return false;
-    	}
-    	
-    	for (int i = 0; i < hlen; ++i) {
-    		if (a[i] != b[i]) {
-    			return false;
-    		}
-    	}
-    	
-    	return true;
+
+    private Map<String, String> getResourceUrls() throws IOException {
+        Map<String, String> urls = new HashMap<String, String>();
+        if (this.manifestFile != null) {
+            ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
+            for (ResourceEntry resource : manifestData.getResourcesList()) {
+                byte[] hash = resource.getHash().getData().toByteArray();
+                if (hash.length >= this.hashLength) {
+                    urls.put(ManifestBuilder.CryptographicOperations.hexdigest(hash).substring(0, this.hashLength * 2), resource.getUrl());
+                }
+            }
+        }
+        return urls;
     }
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        ByteBuffer index = archiveIndex.duplicate();
+        index.position(4 + 4 + 8); // Version, pad and UserData
+        entryCount = index.getInt();
+        entryOffset = index.getInt();
+        hashOffset = index.getInt();
+        hashLength = index.getInt();
+        if (entryCount < 0 || hashLength < 0 || hashLength > HASH_BUFFER_BYTESIZE
+                || (long) hashOffset + (long) entryCount * HASH_BUFFER_BYTESIZE > index.limit()
+                || (long) entryOffset + (long) entryCount * ENTRY_BYTESIZE > index.limit()) {
+            throw new IOException("Invalid archive index: " + this.archiveIndexFilepath);
+        }
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
 
+        // Resource urls by hash, instead of searching the manifest for each entry
+        Map<String, String> urls = getResourceUrls();
+
         // Hashes are stored linearly in memory instead of within each entry, so the hashes are read in a separate loop.
         // Once the hashes are read, the rest of the entries are read.
-
-        archiveIndexFile.seek(hashOffset);
-        // Read entry hashes
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             e.hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(e.hash, 0, hashLength);
-
-            if (this.manifestFile != null) {
-                ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
-                for (ResourceEntry resource : manifestData.getResourcesList()) {
-	            	if (matchHash(e.hash, resource.getHash().getData().toByteArray(), this.hashLength)) {
-	            		e.fileName = resource.getUrl();
-	            		e.relName = resource.getUrl();
-	            	}
-	            }
+            index.position(hashOffset + i * HASH_BUFFER_BYTESIZE);
+            index.get(e.hash, 0, hashLength);
+
+            String url = urls.get(ManifestBuilder.CryptographicOperations.hexdigest(e.hash).substring(0, hashLength * 2));
+            if (url != null) {
+                e.fileName = url;
+                e.relName = url;
             }
-            
+
             entries.add(e);
         }
 
         // Read entries
-        archiveIndexFile.seek(entryOffset);
+        index.position(entryOffset);
         for (int i=0; i<entryCount; ++i) {
             ArchiveEntry e = entries.get(i);
 
-            e.resourceOffset = archiveIndexFile.readInt();
-            e.size = archiveIndexFile.readInt();
-            e.compressedSize = archiveIndexFile.readInt();
-            e.flags = archiveIndexFile.readInt();
+            e.resourceOffset = index.getInt();
+            e.size = index.getInt();
+            e.compressedSize = index.getInt();
+            e.flags = index.getInt();
         }
     }
 
@@ -136,47 +158,143 @@ public class ArchiveReader {
         return entries;
     }
 
-    public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
-        byte[] buf = new byte[entry.size];
-        archiveDataFile.seek(entry.resourceOffset);
-        archiveDataFile.read(buf, 0, entry.size);
+    private int compareHash(int i, byte[] hash) {
+        int offset = hashOffset + i * HASH_BUFFER_BYTESIZE;
+        for (int j = 0; j < hashLength; ++j) {
+            int a = archiveIndex.get(offset + j) & 0xff;
+            int b = j < hash.length ? hash[j] & 0xff : 0;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
 
+    /**
+     * Find an entry by its hash, with a binary search of the sorted hashes of the index
+     * @param hash hash of the entry, at least the hash length of the archive
+     * @return entry or null if not found
+     */
+    public ArchiveEntry findEntry(byte[] hash) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareHash(mid, hash);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the data of an entry as stored in the archive, i.e. compressed and encrypted
+     * as given by the flags of the entry. The returned buffer is a read only slice
+     * of the mapped data file, valid until the reader is closed.
+     * @param entry entry to get the data of
+     * @return data of the entry
+     * @throws IOException
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) throws IOException {
+        // Offsets are unsigned
+        long offset = entry.resourceOffset & 0xffffffffL;
+        int size = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED ? entry.compressedSize : entry.size;
+        if (offset + size > archiveDataChannel.size()) {
+            throw new IOException(String.format("Entry %s is outside of the archive data", entry.fileName));
+        }
+        if (archiveData == null) {
+            return archiveDataChannel.map(MapMode.READ_ONLY, offset, size).asReadOnlyBuffer();
+        }
+        ByteBuffer data = archiveData.asReadOnlyBuffer();
+        data.position((int) offset);
+        data.limit((int) offset + size);
+        return data.slice();
+    }
+
+    public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
+        ByteBuffer data = getEntryData(entry);
+        byte[] buf = new byte[data.remaining()];
+        data.get(buf);
         return buf;
     }
 
+    private void extractEntry(ArchiveEntry entry, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        ByteBuffer data = getEntryData(entry);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write the data of all entries, as stored in the archive, to files named by the
+     * entries. The entries are written in parallel.
+     * @param path directory to write to
+     * @throws IOException
+     */
     public void extractAll(String path) throws IOException {
 
         int entryCount = entries.size();
 
         System.out.println("Extracting entries to " + path + ": ");
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>(entryCount);
         for (int i = 0; i < entryCount; i++) {
-            ArchiveEntry entry = entries.get(i);
-            String outdir = path + entry.fileName;
+            final ArchiveEntry entry = entries.get(i);
+            final File file = new File(path + entry.fileName);
             System.out.println("> " + entry.fileName);
-            int readSize = entry.compressedSize;
-
-            // extract
-            byte[] buf = new byte[entry.size];
-            archiveDataFile.seek(entry.resourceOffset);
-            archiveDataFile.read(buf, 0, readSize);
+            calls.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    extractEntry(entry, file);
+                    return null;
+                }
+            });
+        }
 
-            File fo = new File(outdir);
-            fo.getParentFile().mkdirs();
-            FileOutputStream os = new FileOutputStream(fo);
-            os.write(buf);
-            os.close();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Future<Void> future : executor.invokeAll(calls)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting archive", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
         }
     }
 
     public void close() throws IOException {
-        if (archiveIndexFile != null) {
-            archiveIndexFile.close();
-            archiveIndexFile = null;
+        // The mapped buffers are released when garbage collected
+        archiveIndex = null;
+        archiveData = null;
+
+        if (archiveIndexChannel != null) {
+            archiveIndexChannel.close();
+            archiveIndexChannel = null;
         }
 
-        if (archiveDataFile != null) {
-            archiveDataFile.close();
-            archiveDataFile = null;
+        if (archiveDataChannel != null) {
+            archiveDataChannel.close();
+            archiveDataChannel = null;
         }
     }
 }
@@ -0,0 +1,204 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of compressed resource data, by the digest of the uncompressed data.
+ * Data that doesn't compress well is stored as such, so that it isn't compressed again.
+ *
+ * Each entry is a file, written to a temporary file and moved into place. The least
+ * recently used entries are evicted when the total size exceeds the maximum size of
+ * the cache, see {@link #trim()}.
+ */
+public class CompressionCache {
+
+    // Stored before the data, entries of other versions are ignored
+    private static final byte VERSION = 1;
+    private static final byte FLAG_INCOMPRESSIBLE = 0;
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final int HEADER_SIZE = 2;
+    // Keep a margin when trimming the cache to avoid trimming on every build
+    private static final double TRIM_FACTOR = 0.9;
+
+    /**
+     * Returned for data that doesn't compress well. Compressed data is never empty.
+     */
+    public static final byte[] INCOMPRESSIBLE = new byte[0];
+
+    private final File directory;
+    private final long maxSize;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * Create a cache
+     * @param directory cache directory, created if it doesn't exist
+     * @param maxSize maximum size in bytes of the entries
+     */
+    public CompressionCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    /**
+     * Get the compressed data
+     * @param key hex encoded digest of the uncompressed data
+     * @param size size of the uncompressed data
+     * @return compressed data, {@link #INCOMPRESSIBLE} or null if not in the cache
+     */
+    public byte[] get(String key, int size) {
+        File file = getFile(key);
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            if (data.length < HEADER_SIZE || data[0] != VERSION) {
+                misses.incrementAndGet();
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            savedBytes.addAndGet(size);
+            if (data[1] == FLAG_INCOMPRESSIBLE) {
+                return INCOMPRESSIBLE;
+            }
+            return Arrays.copyOfRange(data, HEADER_SIZE, data.length);
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Store compressed data
+     * @param key hex encoded digest of the uncompressed data
+     * @param compressed compressed data or {@link #INCOMPRESSIBLE}
+     * @throws IOException
+     */
+    public void put(String key, byte[] compressed) throws IOException {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath()));
+            try {
+                os.write(VERSION);
+                os.write(compressed.length > 0 ? FLAG_COMPRESSED : FLAG_INCOMPRESSIBLE);
+                os.write(compressed);
+            } finally {
+                os.close();
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the size of the cache is below the maximum size
+     * @return number of evicted entries
+     */
+    public int trim() {
+        List<File> files = new ArrayList<File>();
+        File[] subDirectories = directory.listFiles();
+        if (subDirectories != null) {
+            for (File subDirectory : subDirectories) {
+                File[] children = subDirectory.listFiles();
+                if (children != null) {
+                    Collections.addAll(files, children);
+                }
+            }
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return 0;
+        }
+
+        // Sort on the time of last use, the time is read once as it might change during the sort
+        final List<Long> lastModified = new ArrayList<Long>(files.size());
+        List<Integer> order = new ArrayList<Integer>(files.size());
+        for (int i = 0; i < files.size(); ++i) {
+            lastModified.add(files.get(i).lastModified());
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified.get(a), lastModified.get(b));
+            }
+        });
+
+        int evicted = 0;
+        long targetSize = (long) (maxSize * TRIM_FACTOR);
+        for (int i : order) {
+            if (size <= targetSize) {
+                break;
+            }
+            File file = files.get(i);
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                ++evicted;
+            }
+        }
+        return evicted;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of uncompressed bytes that didn't need to be compressed
+     * @return number of bytes
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * Get a summary of the cache statistics
+     * @return summary
+     */
+    public String getStatistics() {
+        int lookups = getHits() + getMisses();
+        return String.format("Compression cache: %d hits, %d misses (%.0f%% hit rate), %d kB not compressed again",
+                getHits(), getMisses(), lookups > 0 ? 100.0 * getHits() / lookups : 0.0, getSavedBytes() / 1024);
+    }
+}
@@ -14,6 +14,7 @@ package com.dynamo.bob.archive;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -32,9 +33,10 @@ import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -63,24 +65,37 @@ public class ManifestBuilder {
 
         }
 
-        public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
-            MessageDigest messageDigest = null;
+        private static MessageDigest getMessageDigest(HashAlgorithm algorithm) throws NoSuchAlgorithmException {
             if (algorithm.equals(HashAlgorithm.HASH_MD5)) {
-                messageDigest = MessageDigest.getInstance("MD5");
+                return MessageDigest.getInstance("MD5");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA1)) {
-                messageDigest = MessageDigest.getInstance("SHA-1");
+                return MessageDigest.getInstance("SHA-1");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA256)) {
-                messageDigest = MessageDigest.getInstance("SHA-256");
+                return MessageDigest.getInstance("SHA-256");
             } else if (algorithm.equals(HashAlgorithm.HASH_SHA512)) {
-                messageDigest = MessageDigest.getInstance("SHA-512");
+                return MessageDigest.getInstance("SHA-512");
             } else {
                 throw new NoSuchAlgorithmException("The algorithm specified is not supported!");
             }
+        }
 
+        public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            MessageDigest messageDigest = getMessageDigest(algorithm);
             messageDigest.update(data);
             return messageDigest.digest();
         }
 
+        // Hash data read in chunks from a stream, the stream is not closed
+        public static byte[] hash(InputStream data, HashAlgorithm algorithm) throws NoSuchAlgorithmException, IOException {
+            MessageDigest messageDigest = getMessageDigest(algorithm);
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = data.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, n);
+            }
+            return messageDigest.digest();
+        }
+
         public static String hexdigest(byte[] bytes) {
             char[] hexArray = "0123456789abcdef".toCharArray();
             char[] hexChars = new char[bytes.length * 2];
@@ -279,6 +294,7 @@ public class ManifestBuilder {
     private String publicKeyFilepath = null;
     private String projectIdentifier = null;
     private ResourceNode dependencies = null;
+    private ResourceNodeIndex dependencyIndex = null;
     private boolean outputManifestHash = false;
     private byte[] manifestDataHash = null;
     private byte[] archiveIdentifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
@@ -341,6 +357,15 @@ public class ManifestBuilder {
 
     public void setDependencies(ResourceNode dependencies) {
         this.dependencies = dependencies;
+        this.dependencyIndex = null;
+    }
+
+    // The index is built on first use, the dependency tree must be complete by then
+    private synchronized ResourceNodeIndex getDependencyIndex() {
+        if (this.dependencyIndex == null) {
+            this.dependencyIndex = new ResourceNodeIndex(this.dependencies);
+        }
+        return this.dependencyIndex;
     }
 
     public void setPrivateKeyFilepath(String filepath) {
@@ -386,67 +411,59 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
             HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            this.resourceEntries.add(builder.buildPartial());
+            addResourceEntry(url, hash, flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    /**
+     * Add a resource entry with a precomputed hash
+     * @param url path of the resource
+     * @param hash hash of the resource data, computed with the resource hash algorithm
+     * @param flags resource entry flags
+     */
+    public void addResourceEntry(String url, HashDigest hash, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        builder.setHash(hash);
+        builder.setFlags(flags);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     // Calculate all parent collection paths (to the root) for a resource
     // Resource could occur multiple times in the tree (referenced from several collections) or several times within the same collection
     public List<ArrayList<String>> getParentCollections(String filepath) {
-        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
-        List<ResourceNode> candidates = new LinkedList<ResourceNode>();
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        // Find occurences of resource in tree (may be referenced from several collections for example)
-        while (!queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-
-            if (current != null) {
-                if (current.relativeFilepath.equals(filepath)) {
-                    if (!candidates.contains(current)) {
-                        candidates.add(current);
-                    }
-                } else {
-                    queue.addAll(current.getChildren());
-                }
-            }
+        ResourceNodeIndex index = getDependencyIndex();
+        synchronized (index) {
+            return index.getParentCollections(filepath);
         }
+    }
 
-        int i = 0;
-        while (!candidates.isEmpty()) {
-            ResourceNode current = candidates.remove(0).getParent();
-            result.add(new ArrayList<String>());
-            while (current != null) {
-                if (current.relativeFilepath.endsWith("collectionproxyc") ||
-                    current.relativeFilepath.endsWith("collectionc")) {
-                    result.get(i).add(current.relativeFilepath);
-                }
-
-                current = current.getParent();
-            }
-            ++i;
+    /**
+     * Check if a resource can be excluded from the archive
+     * @param filepath path of the resource
+     * @param excludedResources excluded collections and collection proxies
+     * @return true if the resource is in the dependency tree and every occurrence of it
+     * is below an excluded collection or collection proxy
+     */
+    public boolean isExcluded(String filepath, Set<String> excludedResources) {
+        ResourceNodeIndex index = getDependencyIndex();
+        synchronized (index) {
+            return index.isExcluded(filepath, excludedResources);
         }
-        return result;
     }
 
     public List<String> getDependants(String filepath) throws IOException {
-        /* This function first tries to find the correct resource in the
-           dependency tree. Since there is no index we have to iterate over
-           the structure and match the relative filepaths that identifies the
-           resource.
+        /* The resource is looked up in the dependency index, the first
+           occurrence found by a breadth first search of the tree is used.
 
-           Once a candidate has been found the children, the children, and so
-           on are added to the list of dependants. If a CollectionProxy is
-           found that resource itself is added to the list of dependants, but
-           it is seen as a leaf and the Collection that it points to is ignored.
+           The children, their children, and so on are added to the list of
+           dependants. If a CollectionProxy is found that resource itself is
+           added to the list of dependants, but it is seen as a leaf and the
+           Collection that it points to is ignored.
 
            The reason children of a CollectionProxy is ignored is that they are
            not required to load the parent Collection. This allows us to
@@ -454,36 +471,10 @@ public class ManifestBuilder {
            and thus create a partial archive that has to be updated (through
            LiveUpdate) before that CollectionProxy can be loaded.
         */
-        ResourceNode candidate = null;
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        while (candidate == null && !queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-            if (current.relativeFilepath.equals(filepath)) {
-                candidate = current;
-            } else {
-                for (ResourceNode child : current.getChildren()) {
-                    queue.add(child);
-                }
-            }
-        }
-
-        List<String> dependants = new ArrayList<String>();
-        if (candidate != null) {
-            queue.clear();
-            queue.add(candidate);
-            while (!queue.isEmpty()) {
-                ResourceNode current = queue.remove(0);
-                for (ResourceNode child : current.getChildren()) {
-                    dependants.add(child.relativeFilepath);
-                    if (!child.relativeFilepath.endsWith("collectionproxyc")) {
-                        queue.add(child);
-                    }
-                }
-            }
+        ResourceNodeIndex index = getDependencyIndex();
+        synchronized (index) {
+            return index.getDependants(filepath);
         }
-
-        return dependants;
     }
 
     public ManifestHeader buildManifestHeader() throws IOException {
@@ -511,18 +502,21 @@ public class ManifestBuilder {
         builder.setHeader(manifestHeader);
 
         builder.addAllEngineVersions(this.supportedEngineVersions);
+        Map<String, ResourceEntry> entriesByUrl = new HashMap<String, ResourceEntry>();
+        for (ResourceEntry entry : this.resourceEntries) {
+            entriesByUrl.put(entry.getUrl(), entry);
+        }
         for (ResourceEntry entry : this.resourceEntries) {
             ResourceEntry.Builder resourceEntryBuilder = entry.toBuilder();
 
             List<String> dependants = this.getDependants(entry.getUrl());
             for (String dependant : dependants) {
-                for (ResourceEntry dependantEntry : this.resourceEntries) {
-                    if (dependantEntry.getUrl().equals(dependant)) {
-                        if (dependantEntry.hasHash()) {
-                            resourceEntryBuilder.addDependants(dependantEntry.getHash());
-                        } else {
-                            throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
-                        }
+                ResourceEntry dependantEntry = entriesByUrl.get(dependant);
+                if (dependantEntry != null) {
+                    if (dependantEntry.hasHash()) {
+                        resourceEntryBuilder.addDependants(dependantEntry.getHash());
+                    } else {
+                        throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
                     }
                 }
             }
@@ -0,0 +1,204 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.pipeline.ResourceNode;
+
+/**
+ * Index over a resource dependency tree, built with a single traversal.
+ *
+ * The occurrences of a path are the nodes a breadth first search for that path
+ * finds without descending into matching nodes, in the order they are found.
+ * Each node links to its nearest collection or collection proxy ancestor, so
+ * the parent collections of an occurrence are found in O(depth), and whether
+ * a collection has an excluded ancestor is memoized per set of excluded
+ * resources.
+ */
+class ResourceNodeIndex {
+
+    private static class Entry {
+        final ResourceNode node;
+        final Entry parent;
+
+        Entry(ResourceNode node, Entry parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+    }
+
+    private static final ResourceNode NO_COLLECTION = new ResourceNode("<None>", "<None>");
+
+    private final Map<String, List<ResourceNode>> occurrences = new HashMap<String, List<ResourceNode>>();
+    private final Map<ResourceNode, ResourceNode> collectionParents = new IdentityHashMap<ResourceNode, ResourceNode>();
+    private Set<String> excludedResources = null;
+    private final Map<ResourceNode, Boolean> excludedCollections = new IdentityHashMap<ResourceNode, Boolean>();
+
+    ResourceNodeIndex(ResourceNode root) {
+        if (root == null) {
+            return;
+        }
+        ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+        queue.add(new Entry(root, null));
+        while (!queue.isEmpty()) {
+            Entry current = queue.poll();
+            String path = current.node.relativeFilepath;
+            if (!hasAncestor(current, path)) {
+                List<ResourceNode> nodes = occurrences.get(path);
+                if (nodes == null) {
+                    nodes = new ArrayList<ResourceNode>(1);
+                    occurrences.put(path, nodes);
+                }
+                // The same node can be reached through several parents
+                if (!containsNode(nodes, current.node)) {
+                    nodes.add(current.node);
+                }
+            }
+            for (ResourceNode child : current.node.getChildren()) {
+                queue.add(new Entry(child, current));
+            }
+        }
+    }
+
+    private static boolean hasAncestor(Entry entry, String path) {
+        for (Entry ancestor = entry.parent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor.node.relativeFilepath.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsNode(List<ResourceNode> nodes, ResourceNode node) {
+        for (ResourceNode n : nodes) {
+            if (n == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCollection(ResourceNode node) {
+        return node.relativeFilepath.endsWith("collectionproxyc") || node.relativeFilepath.endsWith("collectionc");
+    }
+
+    List<ResourceNode> getOccurrences(String filepath) {
+        List<ResourceNode> nodes = occurrences.get(filepath);
+        return nodes != null ? nodes : Collections.<ResourceNode>emptyList();
+    }
+
+    /**
+     * Nearest ancestor of the node, following parent pointers, that is a collection or collection proxy
+     */
+    ResourceNode getCollectionParent(ResourceNode node) {
+        ResourceNode result = collectionParents.get(node);
+        if (result == null) {
+            // Walk up to the nearest collection or already resolved node, then
+            // resolve every node on the way. Iterate rather than recurse, the
+            // tree can be deep.
+            List<ResourceNode> path = new ArrayList<ResourceNode>();
+            path.add(node);
+            ResourceNode parent = node.getParent();
+            while (parent != null && !isCollection(parent) && !collectionParents.containsKey(parent)) {
+                path.add(parent);
+                parent = parent.getParent();
+            }
+            if (parent == null) {
+                result = NO_COLLECTION;
+            } else if (isCollection(parent)) {
+                result = parent;
+            } else {
+                result = collectionParents.get(parent);
+            }
+            for (ResourceNode n : path) {
+                collectionParents.put(n, result);
+            }
+        }
+        return result != NO_COLLECTION ? result : null;
+    }
+
+    List<ArrayList<String>> getParentCollections(String filepath) {
+        List<ResourceNode> nodes = getOccurrences(filepath);
+        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>(nodes.size());
+        for (ResourceNode node : nodes) {
+            ArrayList<String> parents = new ArrayList<String>();
+            for (ResourceNode c = getCollectionParent(node); c != null; c = getCollectionParent(c)) {
+                parents.add(c.relativeFilepath);
+            }
+            result.add(parents);
+        }
+        return result;
+    }
+
+    private boolean isCollectionExcluded(ResourceNode collection) {
+        if (collection == null) {
+            return false;
+        }
+        Boolean excluded = excludedCollections.get(collection);
+        if (excluded == null) {
+            excluded = excludedResources.contains(collection.relativeFilepath) || isCollectionExcluded(getCollectionParent(collection));
+            excludedCollections.put(collection, excluded);
+        }
+        return excluded;
+    }
+
+    /**
+     * A resource is excluded if it occurs in the tree and every occurrence has an
+     * excluded collection or collection proxy among its ancestors. The result
+     * is memoized for the set, which must not change between calls.
+     */
+    boolean isExcluded(String filepath, Set<String> excludedResources) {
+        if (this.excludedResources != excludedResources) {
+            this.excludedResources = excludedResources;
+            this.excludedCollections.clear();
+        }
+        List<ResourceNode> nodes = getOccurrences(filepath);
+        for (ResourceNode node : nodes) {
+            if (!isCollectionExcluded(getCollectionParent(node))) {
+                return false;
+            }
+        }
+        return !nodes.isEmpty();
+    }
+
+    /**
+     * Resources below the first occurrence of the path, collection proxies are
+     * included but not the collections they load
+     */
+    List<String> getDependants(String filepath) {
+        List<String> result = new ArrayList<String>();
+        List<ResourceNode> nodes = getOccurrences(filepath);
+        if (!nodes.isEmpty()) {
+            ArrayDeque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+            queue.add(nodes.get(0));
+            while (!queue.isEmpty()) {
+                ResourceNode current = queue.poll();
+                for (ResourceNode child : current.getChildren()) {
+                    result.add(child.relativeFilepath);
+                    if (!child.relativeFilepath.endsWith("collectionproxyc")) {
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -12,22 +12,83 @@
 
 package com.dynamo.bob.archive.publisher;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.Grant;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.Permission;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.dynamo.bob.CompileExceptionError;
 
+/**
+ * Publishes liveupdate resources to an Amazon S3 bucket, or an S3 compatible server
+ * given by the amazon-endpoint setting.
+ *
+ * Resources are named by the hex digest of their content and are never changed once
+ * uploaded, so resources already in the bucket with the same size are skipped. The
+ * keys under the prefix are listed up front, a thousand per request. The rest are
+ * uploaded concurrently, large resources in parts, and failed requests are retried
+ * with an increasing delay.
+ */
 public class AWSPublisher extends Publisher {
 
+    // Resources larger than this are uploaded in parts
+    static final long MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+    static final long PART_SIZE = 8 * 1024 * 1024;
+    private static final int UPLOAD_THREADS = 16;
+    private static final int MAX_ATTEMPTS = 5;
+    // Delay before the first retry in milliseconds, doubled for each retry
+    private static final long RETRY_DELAY = 500;
+
+    private int uploadedCount = 0;
+    private int skippedCount = 0;
+
     public AWSPublisher(PublisherSettings settings) {
         super(settings);
     }
 
+    /**
+     * Number of resources uploaded by the last publish
+     */
+    public int getUploadedCount() {
+        return uploadedCount;
+    }
+
+    /**
+     * Number of resources skipped by the last publish since they were already in the bucket
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
     private CompileExceptionError amazonException(String reason, Throwable exception) {
         String message = "Amazon S3: " + reason;
         return new CompileExceptionError(message, exception);
@@ -49,6 +110,178 @@ public class AWSPublisher extends Publisher {
         return false;
     }
 
+    /**
+     * Create the client to publish with
+     * @return client
+     */
+    protected AmazonS3 createClient() {
+        String credentialProfile = this.getPublisherSettings().getAmazonCredentialProfile();
+        AWSCredentialsProvider credentials = new ProfileCredentialsProvider(credentialProfile);
+        AmazonS3Client client = new AmazonS3Client(credentials);
+        String endpoint = this.getPublisherSettings().getAmazonEndpoint();
+        if (endpoint != null) {
+            // S3 compatible servers, e.g. for testing, are addressed by path rather than by host name
+            client.setEndpoint(endpoint);
+            client.setS3ClientOptions(S3ClientOptions.builder().setPathStyleAccess(true).build());
+        }
+        return client;
+    }
+
+    private static String getKey(String prefix, String name) {
+        return (prefix + "/" + name).replaceAll("//+", "/");
+    }
+
+    // Resources are named by their hex digest, other entries, e.g. the manifest, change between publishes
+    private static boolean isContentAddressed(String name) {
+        return name.matches("[0-9a-f]+");
+    }
+
+    private static boolean isRetryable(AmazonClientException exception) {
+        if (exception instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) exception;
+            int status = serviceException.getStatusCode();
+            return status >= 500 || status == 429 || "SlowDown".equals(serviceException.getErrorCode())
+                    || "RequestTimeout".equals(serviceException.getErrorCode());
+        }
+        // E.g. connection failures
+        return true;
+    }
+
+    private <T> T retry(Callable<T> request) throws Exception {
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                return request.call();
+            } catch (AmazonClientException exception) {
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(exception)) {
+                    throw exception;
+                }
+                Thread.sleep(RETRY_DELAY << (attempt - 1));
+            }
+        }
+    }
+
+    /**
+     * Get the sizes of the objects under a prefix
+     * @return object sizes by key
+     */
+    private Map<String, Long> listObjects(final AmazonS3 client, String bucket, String prefix) throws Exception {
+        Map<String, Long> objects = new HashMap<String, Long>();
+        final ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix);
+        ListObjectsV2Result result;
+        do {
+            result = retry(new Callable<ListObjectsV2Result>() {
+                @Override
+                public ListObjectsV2Result call() {
+                    return client.listObjectsV2(request);
+                }
+            });
+            for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                objects.put(summary.getKey(), summary.getSize());
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        return objects;
+    }
+
+    private void upload(final AmazonS3 client, final String bucket, final String key, final File file) throws Exception {
+        if (file.length() <= MULTIPART_THRESHOLD) {
+            retry(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    client.putObject(new PutObjectRequest(bucket, key, file));
+                    return null;
+                }
+            });
+            return;
+        }
+
+        // Failed parts are retried on their own, rather than uploading the whole file again
+        final String uploadId = retry(new Callable<String>() {
+            @Override
+            public String call() {
+                return client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+            }
+        });
+        try {
+            long size = file.length();
+            int partCount = (int) ((size + PART_SIZE - 1) / PART_SIZE);
+            final List<PartETag> partETags = new ArrayList<PartETag>(partCount);
+            for (int i = 0; i < partCount; ++i) {
+                long offset = i * PART_SIZE;
+                final UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucket)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(i + 1)
+                        .withFile(file)
+                        .withFileOffset(offset)
+                        .withPartSize(Math.min(PART_SIZE, size - offset))
+                        .withLastPart(i == partCount - 1);
+                partETags.add(retry(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() {
+                        return client.uploadPart(request).getPartETag();
+                    }
+                }));
+            }
+            retry(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+                    return null;
+                }
+            });
+        } catch (Exception exception) {
+            try {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            } catch (AmazonClientException abortException) {
+                // Parts of uploads that are never completed are removed by the lifecycle rules of the bucket, if any
+            }
+            throw exception;
+        }
+    }
+
+    private void uploadAll(final AmazonS3 client, final String bucket, Map<String, File> uploads) throws Exception {
+        final AtomicLong uploadedBytes = new AtomicLong();
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(UPLOAD_THREADS, uploads.size()));
+        try {
+            CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+            for (final Map.Entry<String, File> upload : uploads.entrySet()) {
+                completionService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        try {
+                            upload(client, bucket, upload.getKey(), upload.getValue());
+                        } catch (AmazonS3Exception exception) {
+                            throw amazonException("Unable to upload file, " + exception.getErrorMessage() + ": " + upload.getKey(), exception);
+                        }
+                        uploadedBytes.addAndGet(upload.getValue().length());
+                        return upload.getKey();
+                    }
+                });
+            }
+            // Stop at the first failure, the remaining uploads are cancelled
+            for (int i = 0; i < uploads.size(); ++i) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException exception) {
+                    Throwable cause = exception.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw exception;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        double megabytes = uploadedBytes.get() / (1024.0 * 1024.0);
+        System.out.println(String.format("Amazon S3: uploaded %d resources, %.1f MB in %.1f s (%.1f MB/s), %d already published",
+                uploads.size(), megabytes, seconds, megabytes / seconds, skippedCount));
+    }
+
     @Override
     public void Publish() throws CompileExceptionError {
     	if (this.getPublisherSettings().getAmazonBucket() == null) {
@@ -60,22 +293,29 @@ public class AWSPublisher extends Publisher {
     	}
     	
         try {
-        	String credentialProfile = this.getPublisherSettings().getAmazonCredentialProfile();
-    		AWSCredentialsProvider credentials = new ProfileCredentialsProvider(credentialProfile);
-    		AmazonS3Client client = new AmazonS3Client(credentials);
+            AmazonS3 client = createClient();
         	String bucket = this.getPublisherSettings().getAmazonBucket();
             
             if (client.doesBucketExist(bucket)) {
                 if (hasWritePermissions(client, bucket)) {
                 	String prefix = this.getPublisherSettings().getAmazonPrefix();
-                    for (String hexDigest : this.getEntries().keySet()) {
-                        String key = (prefix + "/" + hexDigest).replaceAll("//+", "/");
-                        try {
-                        	client.putObject(bucket, key, this.getEntries().get(hexDigest));
-                        } catch (AmazonS3Exception exception) {
-                        	throw amazonException("Unable to upload file, " + exception.getErrorMessage() + ": " + key, exception);
+                    uploadedCount = 0;
+                    skippedCount = 0;
+                    Map<String, Long> published = listObjects(client, bucket, getKey(prefix, ""));
+                    Map<String, File> uploads = new LinkedHashMap<String, File>();
+                    for (Map.Entry<String, File> entry : this.getEntries().entrySet()) {
+                        String key = getKey(prefix, entry.getKey());
+                        Long size = published.get(key);
+                        if (isContentAddressed(entry.getKey()) && size != null && size == entry.getValue().length()) {
+                            ++skippedCount;
+                        } else {
+                            uploads.put(key, entry.getValue());
                         }
                     }
+                    if (!uploads.isEmpty()) {
+                        uploadAll(client, bucket, uploads);
+                    }
+                    uploadedCount = uploads.size();
                 } else {
                 	throw amazonException("The account does not have permission to upload resources", null);
                 }
@@ -86,7 +326,7 @@ public class AWSPublisher extends Publisher {
             throw amazonException(exception.getErrorMessage(), exception);
         } catch (Exception exception) {
         	if (exception instanceof CompileExceptionError) {
-        		throw exception;
+        		throw (CompileExceptionError) exception;
         	}
         	
             throw compileException("Failed to publish resources to Amazon", exception);
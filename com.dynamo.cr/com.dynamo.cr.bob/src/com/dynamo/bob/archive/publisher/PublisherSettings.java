@@ -129,6 +129,14 @@ public class PublisherSettings {
         return this.getValue("liveupdate", "amazon-prefix");
     }
 
+    public void setAmazonEndpoint(String value) {
+        this.setValue("liveupdate", "amazon-endpoint", value);
+    }
+
+    public String getAmazonEndpoint() {
+        return this.getValue("liveupdate", "amazon-endpoint");
+    }
+
     public void setZipFilepath(String value) {
     	this.setValue("liveupdate", "zip-filepath", value);
     }
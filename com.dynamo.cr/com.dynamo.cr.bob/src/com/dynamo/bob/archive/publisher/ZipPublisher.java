@@ -13,81 +13,116 @@
 package com.dynamo.bob.archive.publisher;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.ZipWriter;
 
 public class ZipPublisher extends Publisher {
 
+    // Resource pack files start with the size (4 bytes), flags (1 byte) and padding of the resource
+    private static final int RESOURCE_HEADER_SIZE = 16;
+    private static final int RESOURCE_FLAGS_OFFSET = 4;
+
     private File resourcePackZip = null;
     private String projectRoot = null;
+    private int jobCount = 1;
 
     public ZipPublisher(String projectRoot, PublisherSettings settings) {
         super(settings);
         this.projectRoot = projectRoot;
     }
 
+    /**
+     * Set the number of resources to compress in parallel
+     */
+    public void setJobCount(int jobCount) {
+        this.jobCount = Math.max(1, jobCount);
+    }
+
+    // Compressed or encrypted resources don't deflate well and are stored as they are
+    private static boolean isCompressedResource(String name, byte[] data) {
+        if (data.length < RESOURCE_HEADER_SIZE || !name.matches("[0-9a-f]+")) {
+            return false;
+        }
+        int flags = data[RESOURCE_FLAGS_OFFSET];
+        return (flags & (ArchiveEntry.FLAG_COMPRESSED | ArchiveEntry.FLAG_ENCRYPTED)) != 0;
+    }
+
+    private static ZipWriter.Entry createEntry(File fhandle) throws IOException {
+        String name = fhandle.getName();
+        byte[] data = Files.readAllBytes(fhandle.toPath());
+        if (isCompressedResource(name, data)) {
+            return ZipWriter.stored(name, data);
+        }
+        return ZipWriter.deflated(name, data, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private File getExportFile() throws IOException {
+        File exportDir = new File(this.getPublisherSettings().getZipFilepath());
+        if (!exportDir.isAbsolute())
+        {
+            File cwd = new File(this.projectRoot);
+            exportDir = new File(cwd, exportDir.getPath());
+        }
+
+        if (!exportDir.exists()) {
+            exportDir.mkdirs();
+        } else if (!exportDir.isDirectory()) {
+            throw new IOException(String.format("'%s' exists, and is not a directory", exportDir));
+        }
+
+        // The archive is written directly to the export directory, with a unique name as before
+        String filePrefix = "defold.resourcepack_" + this.platform + "_";
+        return File.createTempFile(filePrefix, ".zip", exportDir);
+    }
+
     @Override
     public void Publish() throws CompileExceptionError {
         try {
-            String tempFilePrefix = "defold.resourcepack_" + this.platform + "_";
-            this.resourcePackZip = File.createTempFile(tempFilePrefix, ".zip");
-            FileOutputStream resourcePackOutputStream = new FileOutputStream(this.resourcePackZip);
-            ZipOutputStream zipOutputStream = new ZipOutputStream(resourcePackOutputStream);
-            try {
-                for (String hexDigest : this.getEntries().keySet()) {
-                    File fhandle = this.getEntries().get(hexDigest);
-                    ZipEntry currentEntry = new ZipEntry(fhandle.getName());
-                    zipOutputStream.putNextEntry(currentEntry);
-
-                    FileInputStream currentInputStream = new FileInputStream(fhandle);
-                    int currentLength = 0;
-                    byte[] currentBuffer = new byte[1024];
-                    while ((currentLength = currentInputStream.read(currentBuffer)) > 0) {
-                        zipOutputStream.write(currentBuffer, 0, currentLength);
+            this.resourcePackZip = getExportFile();
+            List<Callable<ZipWriter.Entry>> tasks = new ArrayList<Callable<ZipWriter.Entry>>();
+            for (final File fhandle : this.getEntries().values()) {
+                tasks.add(new Callable<ZipWriter.Entry>() {
+                    @Override
+                    public ZipWriter.Entry call() throws IOException {
+                        return createEntry(fhandle);
                     }
+                });
+            }
 
-                    zipOutputStream.closeEntry();
-                    IOUtils.closeQuietly(currentInputStream);
-                }
-            } catch (FileNotFoundException exception) {
+            boolean success = false;
+            ZipWriter zipWriter = new ZipWriter(new FileOutputStream(this.resourcePackZip));
+            try {
+                zipWriter.putEntries(tasks, this.jobCount);
+                zipWriter.close();
+                success = true;
+            } catch (NoSuchFileException exception) {
                 throw new CompileExceptionError("Unable to find required file for liveupdate resources: " + exception.getMessage(), exception);
             } catch (IOException exception) {
                 throw new CompileExceptionError("Unable to write to zip archive for liveupdate resources: " + exception.getMessage(), exception);
             } finally {
-                IOUtils.closeQuietly(zipOutputStream);
-            }
-
-            File exportFilehandle = new File(this.getPublisherSettings().getZipFilepath(), this.resourcePackZip.getName());
-            if (!exportFilehandle.isAbsolute())
-            {
-                File cwd = new File(this.projectRoot);
-                exportFilehandle = new File(cwd, exportFilehandle.getPath());
-            }
-
-            File parentDir = exportFilehandle.getParentFile();
-            if (!parentDir.exists()) {
-                parentDir.mkdirs();
-            } else if (!parentDir.isDirectory()) {
-                throw new IOException(String.format("'%s' exists, and is not a directory", parentDir));
+                if (!success) {
+                    try {
+                        zipWriter.close();
+                    } catch (IOException e) {
+                        // The incomplete archive is deleted
+                    }
+                    this.resourcePackZip.delete();
+                }
             }
 
-            Files.move(this.resourcePackZip.toPath(), exportFilehandle.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            System.out.printf("\nZipPublisher: Wrote '%s'\n", exportFilehandle);
+            System.out.printf("\nZipPublisher: Wrote '%s'\n", this.resourcePackZip);
         } catch (IOException exception) {
             throw new CompileExceptionError("Unable to create zip archive for liveupdate resources: " + exception.getMessage(), exception);
         }
@@ -53,6 +53,7 @@ import com.dynamo.bob.pipeline.ExtenderUtil;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.Exec.Result;
+import com.dynamo.bob.util.ZipWriter;
 
 import com.defold.extender.client.ExtenderResource;
 
@@ -432,22 +433,35 @@ public class AndroidBundler implements IBundler {
         try {
             File aabDir = new File(outDir, "aab");
 
-            // unzip the generated apk
-            File apkUnzipDir = createDir(aabDir, "apk");
-            BundleHelper.unzip(new FileInputStream(apk), apkUnzipDir.toPath());
-
             // create folder structure for the base.zip AAB module
             // https://developer.android.com/guide/app-bundle#aab_format
             File baseDir = createDir(aabDir, "base");
             File dexDir = createDir(baseDir, "dex");
-            File manifestDir = createDir(baseDir, "manifest");
             File assetsDir = createDir(baseDir, "assets");
             File rootDir = createDir(baseDir, "root");
             File libDir = createDir(baseDir, "lib");
-            File resDir = createDir(baseDir, "res");
 
-            FileUtils.copyFile(new File(apkUnzipDir, "AndroidManifest.xml"), new File(manifestDir, "AndroidManifest.xml"));
-            FileUtils.copyFile(new File(apkUnzipDir, "resources.pb"), new File(baseDir, "resources.pb"));
+            // the manifest, resource table and resources of the generated apk are
+            // copied to base.zip as they are compressed in the apk
+            log("Reading manifest and resources from " + apk);
+            List<ZipWriter.Entry> apkEntries = new ArrayList<ZipWriter.Entry>();
+            for (ZipWriter.Entry entry : ZipWriter.readCompressed(apk, Arrays.asList("AndroidManifest.xml", "resources.pb", "res/"))) {
+                if (entry.getName().equals("AndroidManifest.xml")) {
+                    apkEntries.add(entry.withName("manifest/AndroidManifest.xml"));
+                } else {
+                    apkEntries.add(entry);
+                }
+            }
+            for (String name : Arrays.asList("manifest/AndroidManifest.xml", "resources.pb")) {
+                boolean found = false;
+                for (ZipWriter.Entry entry : apkEntries) {
+                    found = found || entry.getName().equals(name);
+                }
+                if (!found) {
+                    throw new IOException("Missing " + FilenameUtils.getName(name) + " in " + apk);
+                }
+            }
+            BundleHelper.throwIfCanceled(canceled);
 
             // copy classes.dex
             ArrayList<File> classesDex = getClassesDex(project);
@@ -494,11 +508,6 @@ public class AndroidBundler implements IBundler {
                 BundleHelper.throwIfCanceled(canceled);
             }
 
-            // copy resources
-            log("Copying resources to " + resDir);
-            FileUtils.copyDirectory(new File(apkUnzipDir, "res"), resDir);
-            BundleHelper.throwIfCanceled(canceled);
-
             // copy libs
             final String exeName = getBinaryNameFromProject(project);
             for (Platform architecture : getArchitectures(project)) {
@@ -516,7 +525,7 @@ public class AndroidBundler implements IBundler {
                 baseZip.delete();
             }
             baseZip.createNewFile();
-            ZipUtil.zipDirRecursive(baseDir, baseZip, canceled);
+            ZipUtil.zipDirRecursive(baseDir, baseZip, apkEntries, project.getJobCount(), canceled);
             BundleHelper.throwIfCanceled(canceled);
             return baseZip;
         } catch (Exception e) {
@@ -566,7 +566,7 @@ public class BundleHelper {
                 if (!inResource.exists()) {
                     throw new IOException(String.format("%s does not exist.", resource));
                 }
-                FileUtils.writeByteArrayToFile(outFile, inResource.getContent());
+                ExtenderUtil.writeResourceToFile(inResource, outFile);
                 return;
             }
         }
@@ -592,7 +592,7 @@ public class BundleHelper {
             if (!largestIconRes.exists()) {
                 throw new IOException("Could not find resource: " + largestIcon);
             }
-            FileUtils.writeByteArrayToFile(largestIconFile, largestIconRes.getContent());
+            ExtenderUtil.writeResourceToFile(largestIconRes, largestIconFile);
         } else {
             URL defaultIconURL = getClass().getResource("resources/ios/default_icon.png");
             FileUtils.writeByteArrayToFile(largestIconFile, IOUtils.toByteArray(defaultIconURL));
@@ -254,7 +254,7 @@ public class IOSBundler implements IBundler {
                         Files.createDirectories(parentDir.toPath());
                     }
 
-                    FileUtils.writeByteArrayToFile(target, r.getContent());
+                    ExtenderUtil.writeResourceToFile(r, target);
                 } catch (IOException e) {
                     logger.log(Level.SEVERE, String.format("Failed copying %s to %s\n", r.getPath(), target));
                     throw e;
@@ -278,7 +278,7 @@ public class IOSBundler implements IBundler {
             File target = new File(appDir, iconsAsset);
 
             try {
-                FileUtils.writeByteArrayToFile(target, source.getContent());
+                ExtenderUtil.writeResourceToFile(source, target);
             } catch (IOException e) {
                 logger.log(Level.SEVERE, String.format("Failed copying %s to %s\n", source.getPath(), target));
                 throw e;
@@ -1,23 +1,29 @@
 package com.dynamo.bob.bundle;
 
 import java.io.File;
-import java.io.InputStream;
 import java.io.IOException;
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
-import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
+
+import com.dynamo.bob.util.ZipWriter;
 
 
 public class ZipUtil {
 
+	// Files that are already compressed are stored instead of deflated again
+	private static final Set<String> STORED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+		"png", "jpg", "jpeg", "gif", "webp", "ogg", "mp3", "m4a", "mp4", "zip", "jar", "apk", "gz"));
 
 	// baseDir:		/absolute/path/to/base/dir
 	// file:		/absolute/path/to/base/dir/some/dir/in/zip/foo.bar
@@ -32,67 +38,27 @@ public class ZipUtil {
 		return strippedPath;
 	}
 
-	private static void zipFile(ZipOutputStream zipOut, File baseDir, File file) throws IOException {
+	private static ZipWriter.Entry zipFile(File baseDir, File file) throws IOException {
 		final String filePath = stripBaseDir(baseDir, file).replace('\\', '/');
-		final long fileSize = file.length();
-
-		ZipEntry ze = new ZipEntry(filePath);
-		ze.setSize(fileSize);
-		byte[] entryData = null;
-		CRC32 crc = null;
 
 		// Some files need to be STORED instead of DEFLATED to
 		// get "correct" memory mapping at runtime.
-		int zipMethod = ZipEntry.DEFLATED;
 		boolean isAsset = filePath.startsWith("assets");
-		if (isAsset) {
-			// Set up an uncompressed file, unfortunately need to calculate crc32 and other data for this to work.
-			// https://blogs.oracle.com/CoreJavaTechTips/entry/creating_zip_and_jar_files
-			crc = new CRC32();
-			zipMethod = ZipEntry.STORED;
-			ze.setCompressedSize(fileSize);
-		}
-
-		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-		try {
-			if (fileSize > 0) {
-				int count;
-				entryData = new byte[(int) fileSize];
-				InputStream stream = new FileInputStream(file);
-				while((count = stream.read(entryData, 0, (int)fileSize)) != -1) {
-					byteOut.write(entryData, 0, count);
-					if (zipMethod == ZipEntry.STORED) {
-						crc.update(entryData, 0, count);
-					}
-				}
-				stream.close();
-			}
-		} finally {
-			if(null != byteOut) {
-				byteOut.close();
-				entryData = byteOut.toByteArray();
-			}
-		}
-
-		if (zipMethod == ZipEntry.STORED) {
-			ze.setCrc(crc.getValue());
-			ze.setMethod(zipMethod);
+		if (isAsset || STORED_EXTENSIONS.contains(FilenameUtils.getExtension(filePath).toLowerCase())) {
+			// Assets, e.g. game.arcd, can be large and are not read into memory
+			return ZipWriter.stored(filePath, file);
 		}
-
-		zipOut.putNextEntry(ze);
-		zipOut.write(entryData);
-		zipOut.closeEntry();
+		return ZipWriter.deflated(filePath, FileUtils.readFileToByteArray(file), Deflater.DEFAULT_COMPRESSION);
 	}
 
-	private static void zipDir(ZipOutputStream zipOut, File baseDir, File dir, ICanceled canceled) throws IOException {
+	private static void collectFiles(List<File> files, File dir) {
 		for (File f : dir.listFiles()) {
 			if (f.isDirectory()) {
-				zipDir(zipOut, baseDir, f, canceled);
+				collectFiles(files, f);
 			}
 			else {
-				zipFile(zipOut, baseDir, f);
+				files.add(f);
 			}
-			BundleHelper.throwIfCanceled(canceled);
 		}
 	}
 
@@ -100,13 +66,38 @@ public class ZipUtil {
 	* Zip a all files and folders (recursively) in a dir
 	*/
 	public static void zipDirRecursive(File inDir, File outFile, ICanceled canceled) throws IOException {
-		ZipOutputStream zipOut = null;
+		zipDirRecursive(inDir, outFile, new ArrayList<ZipWriter.Entry>(), 1, canceled);
+	}
+
+	/**
+	* Zip entries copied from another archive, followed by all files and folders
+	* (recursively) in a dir. The files are compressed concurrently, by the given number of jobs.
+	*/
+	public static void zipDirRecursive(final File inDir, File outFile, List<ZipWriter.Entry> entries, int jobs, final ICanceled canceled) throws IOException {
+		List<File> files = new ArrayList<File>();
+		collectFiles(files, inDir);
+		List<Callable<ZipWriter.Entry>> tasks = new ArrayList<Callable<ZipWriter.Entry>>();
+		for (final File file : files) {
+			tasks.add(new Callable<ZipWriter.Entry>() {
+				@Override
+				public ZipWriter.Entry call() throws IOException {
+					BundleHelper.throwIfCanceled(canceled);
+					return zipFile(inDir, file);
+				}
+			});
+		}
+
+		ZipWriter zipWriter = null;
 		try {
-			zipOut = new ZipOutputStream(new FileOutputStream(outFile));
-			zipDir(zipOut, inDir, inDir, canceled);
+			zipWriter = new ZipWriter(new FileOutputStream(outFile));
+			for (ZipWriter.Entry entry : entries) {
+				zipWriter.putEntry(entry);
+			}
+			zipWriter.putEntries(tasks, jobs);
+			zipWriter.close();
 		}
 		finally {
-			IOUtils.closeQuietly(zipOut);
+			IOUtils.closeQuietly(zipWriter);
 		}
 	}
 }
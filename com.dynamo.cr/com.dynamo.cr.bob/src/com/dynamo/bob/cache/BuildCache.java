@@ -0,0 +1,593 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Content addressed cache of task outputs, shared between builds and project checkouts.
+ *
+ * An entry maps a task key to the digests of the task outputs, in the order
+ * of the outputs of the task, together with a set of flags per output. The output
+ * content is stored once per digest as a blob. Entries and blobs are
+ * written to temporary files and moved into place so that several builds can
+ * share the same cache directory.
+ *
+ * The least recently used blobs are evicted when the total size exceeds the
+ * maximum size of the cache, see {@link #trim()}.
+ *
+ * Outputs missing in the cache can be fetched from a remote cache, see
+ * {@link RemoteBuildCache}. Stored outputs are uploaded to the remote cache in
+ * the background, see {@link #waitForUploads()}. The same storage is used by
+ * the server of the remote cache, {@link BuildCacheServer}.
+ */
+public class BuildCache {
+
+    private static final int ENTRY_MAGIC = 0x42424331;
+    private static final int ENTRY_VERSION = 1;
+    // Keep a margin when trimming the cache to avoid trimming on every build
+    private static final double TRIM_FACTOR = 0.9;
+    private static final int MAX_REMOTE_FAILURES = 3;
+    private static final int REMOTE_UPLOAD_THREADS = 4;
+
+    /**
+     * Output of a task
+     */
+    public static class Output {
+        private final byte[] content;
+        private final int flags;
+
+        public Output(byte[] content, int flags) {
+            this.content = content;
+            this.flags = flags;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+    }
+
+    /**
+     * Digests and flags of the outputs of a task
+     */
+    private static class Entry {
+        final String[] digests;
+        final int[] flags;
+
+        Entry(int count) {
+            digests = new String[count];
+            flags = new int[count];
+        }
+
+        static Entry decode(byte[] data) throws IOException {
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+            if (is.readInt() != ENTRY_MAGIC || is.readInt() != ENTRY_VERSION) {
+                throw new IOException("Invalid build cache entry");
+            }
+            int count = is.readInt();
+            if (count < 0 || count > data.length) {
+                throw new IOException("Invalid build cache entry");
+            }
+            Entry entry = new Entry(count);
+            for (int i = 0; i < count; ++i) {
+                entry.digests[i] = is.readUTF();
+                entry.flags[i] = is.readInt();
+                if (!isValidName(entry.digests[i])) {
+                    throw new IOException("Invalid build cache entry");
+                }
+            }
+            return entry;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            DataOutputStream os = new DataOutputStream(data);
+            os.writeInt(ENTRY_MAGIC);
+            os.writeInt(ENTRY_VERSION);
+            os.writeInt(digests.length);
+            for (int i = 0; i < digests.length; ++i) {
+                os.writeUTF(digests[i]);
+                os.writeInt(flags[i]);
+            }
+            os.close();
+            return data.toByteArray();
+        }
+    }
+
+    private final File entriesDirectory;
+    private final File blobsDirectory;
+    private final long maxSize;
+
+    private volatile RemoteBuildCache remote;
+    private final AtomicInteger remoteFailures = new AtomicInteger();
+    // Blobs known to be in the remote cache, to avoid checking them again
+    private final Set<String> remoteBlobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private ExecutorService uploadExecutor;
+    private final List<Future<?>> uploads = new ArrayList<Future<?>>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger remoteHits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger stores = new AtomicInteger();
+    private final AtomicLong restoredBytes = new AtomicLong();
+
+    /**
+     * Create a cache
+     * @param directory cache directory, created if it doesn't exist
+     * @param maxSize maximum size in bytes of the stored outputs
+     */
+    public BuildCache(File directory, long maxSize) {
+        this.entriesDirectory = new File(directory, "entries");
+        this.blobsDirectory = new File(directory, "blobs");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Create a key from parts, e.g. a task signature and paths
+     * @param parts parts of the key
+     * @return hex encoded key
+     */
+    public static String createKey(byte[]... parts) {
+        MessageDigest digest = newDigest();
+        for (byte[] part : parts) {
+            // Length prefixed to keep the parts apart
+            digest.update(new byte[] { (byte) (part.length >> 24), (byte) (part.length >> 16), (byte) (part.length >> 8), (byte) part.length });
+            digest.update(part);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static File getFile(File directory, String name) {
+        return new File(new File(directory, name.substring(0, 2)), name);
+    }
+
+    private File getEntryFile(String key) {
+        return getFile(entriesDirectory, key);
+    }
+
+    private File getBlobFile(String digest) {
+        return getFile(blobsDirectory, digest);
+    }
+
+    private static void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Set a remote cache to fetch outputs missing in this cache from, and to store outputs in
+     * @param remote remote cache or null
+     */
+    public void setRemote(RemoteBuildCache remote) {
+        this.remote = remote;
+    }
+
+    public boolean hasRemote() {
+        return remote != null;
+    }
+
+    /**
+     * Get the outputs stored for a key. The outputs are fetched from the remote
+     * cache, if any, when they aren't stored in this cache.
+     * @param key task key
+     * @param outputCount number of outputs of the task
+     * @return outputs in task order or null if the key is not in the cache
+     */
+    public List<Output> get(String key, int outputCount) {
+        List<Output> outputs = read(key, outputCount);
+        if (outputs != null) {
+            hits.incrementAndGet();
+            return outputs;
+        }
+        if (fetchRemote(key)) {
+            outputs = read(key, outputCount);
+        }
+        if (outputs != null) {
+            remoteHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return outputs;
+    }
+
+    private List<Output> read(String key, int outputCount) {
+        try {
+            byte[] data = readEntry(key);
+            if (data == null) {
+                return null;
+            }
+            Entry entry = Entry.decode(data);
+            if (entry.digests.length != outputCount) {
+                return null;
+            }
+            List<Output> outputs = new ArrayList<Output>(outputCount);
+            for (int i = 0; i < outputCount; ++i) {
+                byte[] content = readBlob(entry.digests[i]);
+                if (content == null) {
+                    // Evicted
+                    return null;
+                }
+                outputs.add(new Output(content, entry.flags[i]));
+            }
+            for (Output output : outputs) {
+                restoredBytes.addAndGet(output.getContent().length);
+            }
+            return outputs;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Store the outputs of a task in this cache. The outputs are uploaded to the
+     * remote cache, if any, in the background.
+     * @param key task key
+     * @param outputs outputs in task order
+     * @throws IOException
+     */
+    public void put(String key, List<Output> outputs) throws IOException {
+        Entry entry = new Entry(outputs.size());
+        for (int i = 0; i < outputs.size(); ++i) {
+            Output output = outputs.get(i);
+            entry.digests[i] = digest(output.getContent());
+            entry.flags[i] = output.getFlags();
+            writeBlob(entry.digests[i], output.getContent());
+        }
+        byte[] data = entry.encode();
+        writeEntry(key, data);
+        stores.incrementAndGet();
+
+        if (this.remote != null) {
+            upload(key, entry, data, outputs);
+        }
+    }
+
+    private synchronized void upload(final String key, final Entry entry, final byte[] data, final List<Output> outputs) {
+        if (uploadExecutor == null) {
+            // Daemon threads, the uploads don't keep the process alive
+            uploadExecutor = Executors.newFixedThreadPool(REMOTE_UPLOAD_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "build-cache-upload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        uploads.add(uploadExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                RemoteBuildCache remote = BuildCache.this.remote;
+                if (remote == null) {
+                    return;
+                }
+                try {
+                    for (int i = 0; i < outputs.size(); ++i) {
+                        String digest = entry.digests[i];
+                        if (!remoteBlobs.contains(digest) && !remote.hasBlob(digest)) {
+                            remote.putBlob(digest, outputs.get(i).getContent());
+                        }
+                        remoteBlobs.add(digest);
+                    }
+                    remote.putEntry(key, data);
+                } catch (IOException e) {
+                    remoteFailed(e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Wait for the outputs stored since the last call to be uploaded to the remote cache.
+     * Failed uploads are not reported, the remote cache is disabled after repeated failures.
+     */
+    public void waitForUploads() {
+        List<Future<?>> pending;
+        synchronized (this) {
+            pending = new ArrayList<Future<?>>(uploads);
+            uploads.clear();
+        }
+        for (Future<?> upload : pending) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // Failures are handled by the upload
+            }
+        }
+    }
+
+    /**
+     * Wait for pending uploads and stop the upload threads. Outputs stored
+     * after closing are uploaded by new threads.
+     */
+    public void close() {
+        waitForUploads();
+        ExecutorService executor;
+        synchronized (this) {
+            executor = uploadExecutor;
+            uploadExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private boolean fetchRemote(String key) {
+        RemoteBuildCache remote = this.remote;
+        if (remote == null) {
+            return false;
+        }
+        try {
+            byte[] data = remote.getEntry(key);
+            if (data == null) {
+                return false;
+            }
+            Entry entry = Entry.decode(data);
+            for (String digest : entry.digests) {
+                if (!getBlobFile(digest).isFile()) {
+                    byte[] content = remote.getBlob(digest);
+                    if (content == null || !digest.equals(digest(content))) {
+                        return false;
+                    }
+                    writeBlob(digest, content);
+                }
+                remoteBlobs.add(digest);
+            }
+            writeEntry(key, data);
+            return true;
+        } catch (IOException e) {
+            remoteFailed(e);
+            return false;
+        }
+    }
+
+    private void remoteFailed(IOException e) {
+        // Keep building without the remote cache rather than waiting on a server that is down
+        if (remoteFailures.incrementAndGet() == MAX_REMOTE_FAILURES) {
+            remote = null;
+            System.err.println(String.format("Remote build cache disabled after %d failed requests: %s", MAX_REMOTE_FAILURES, e.getMessage()));
+        }
+    }
+
+    /**
+     * Read a cache entry
+     * @param key task key
+     * @return encoded entry or null if not found
+     */
+    byte[] readEntry(String key) {
+        File entryFile = getEntryFile(key);
+        try {
+            byte[] data = Files.readAllBytes(entryFile.toPath());
+            touch(entryFile);
+            return data;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a cache entry
+     * @param key task key
+     * @param data encoded entry
+     * @throws IOException
+     */
+    void writeEntry(String key, byte[] data) throws IOException {
+        Entry.decode(data);
+        write(getEntryFile(key), data);
+    }
+
+    /**
+     * Read the content of a blob
+     * @param digest hex encoded SHA1 digest of the content
+     * @return content or null if not found or corrupt
+     */
+    byte[] readBlob(String digest) {
+        File blobFile = getBlobFile(digest);
+        try {
+            byte[] content = Files.readAllBytes(blobFile.toPath());
+            if (!digest.equals(digest(content))) {
+                blobFile.delete();
+                return null;
+            }
+            touch(blobFile);
+            return content;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a blob, unless already stored
+     * @param digest hex encoded SHA1 digest of the content
+     * @param content content
+     * @throws IOException
+     */
+    void writeBlob(String digest, byte[] content) throws IOException {
+        File blobFile = getBlobFile(digest);
+        if (blobFile.isFile()) {
+            touch(blobFile);
+        } else {
+            write(blobFile, content);
+        }
+    }
+
+    boolean hasBlob(String digest) {
+        return getBlobFile(digest).isFile();
+    }
+
+    static String digest(byte[] content) {
+        return Hex.encodeHexString(newDigest().digest(content));
+    }
+
+    /**
+     * Check that a key or digest is a hex encoded SHA1 digest, and safe to use as a file name
+     * @param name key or digest
+     * @return true if valid
+     */
+    static boolean isValidName(String name) {
+        return name.matches("[0-9a-f]{40}");
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        File directory = file.getParentFile();
+        directory.mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            BufferedOutputStream os = new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath()));
+            try {
+                os.write(content);
+            } finally {
+                os.close();
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    private static List<File> listFiles(File directory) {
+        List<File> files = new ArrayList<File>();
+        File[] subDirectories = directory.listFiles();
+        if (subDirectories != null) {
+            for (File subDirectory : subDirectories) {
+                File[] children = subDirectory.listFiles();
+                if (children != null) {
+                    Collections.addAll(files, children);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Evict the least recently used outputs until the size of the cache is below the maximum size
+     * @return number of evicted blobs
+     */
+    public int trim() {
+        List<File> blobs = listFiles(blobsDirectory);
+        final List<Long> lastModified = new ArrayList<Long>(blobs.size());
+        long size = 0;
+        for (File blob : blobs) {
+            size += blob.length();
+        }
+        if (size <= maxSize) {
+            return 0;
+        }
+
+        // Sort on the time of last use, the time is read once as it might change during the sort
+        List<Integer> order = new ArrayList<Integer>(blobs.size());
+        for (int i = 0; i < blobs.size(); ++i) {
+            lastModified.add(blobs.get(i).lastModified());
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified.get(a), lastModified.get(b));
+            }
+        });
+
+        int evicted = 0;
+        long cutoff = Long.MIN_VALUE;
+        long targetSize = (long) (maxSize * TRIM_FACTOR);
+        for (int i : order) {
+            if (size <= targetSize) {
+                break;
+            }
+            File blob = blobs.get(i);
+            long length = blob.length();
+            if (blob.delete()) {
+                size -= length;
+                ++evicted;
+            }
+            cutoff = lastModified.get(i);
+        }
+
+        // Entries not used since the evicted blobs were used refer to at least one evicted blob
+        for (File entry : listFiles(entriesDirectory)) {
+            if (entry.lastModified() <= cutoff) {
+                entry.delete();
+            }
+        }
+        return evicted;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getRemoteHits() {
+        return remoteHits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public int getStores() {
+        return stores.get();
+    }
+
+    public long getRestoredBytes() {
+        return restoredBytes.get();
+    }
+
+    /**
+     * Get a summary of the cache statistics
+     * @return summary
+     */
+    public String getStatistics() {
+        int lookups = getHits() + getRemoteHits() + getMisses();
+        return String.format("Build cache: %d hits, %d remote hits, %d misses (%.0f%% hit rate), %d stored, %d kB restored",
+                getHits(), getRemoteHits(), getMisses(), lookups > 0 ? 100.0 * (getHits() + getRemoteHits()) / lookups : 0.0, getStores(), getRestoredBytes() / 1024);
+    }
+}
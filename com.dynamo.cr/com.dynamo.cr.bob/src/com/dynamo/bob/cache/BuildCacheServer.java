@@ -0,0 +1,174 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Reference server of the remote build cache protocol, see {@link RemoteBuildCache}.
+ * The outputs are stored in a {@link BuildCache} directory and evicted periodically
+ * when the size of the directory exceeds the maximum size.
+ *
+ * Usage: java -cp bob.jar com.dynamo.bob.cache.BuildCacheServer &lt;port&gt; &lt;directory&gt; [max size in MB]
+ */
+public class BuildCacheServer {
+
+    private static final long DEFAULT_MAX_SIZE = 50 * 1024;
+    private static final int TRIM_INTERVAL = 60;
+
+    private final BuildCache cache;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService trimExecutor;
+
+    /**
+     * Create a server
+     * @param port port to listen on, 0 for any free port
+     * @param directory cache directory
+     * @param maxSize maximum size in bytes of the stored outputs
+     * @throws IOException
+     */
+    public BuildCacheServer(int port, File directory, long maxSize) throws IOException {
+        this.cache = new BuildCache(directory, maxSize);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    BuildCacheServer.this.handle(exchange);
+                } catch (IOException e) {
+                    // Most likely the client disconnected, the response can't be sent
+                    System.err.println(String.format("Failed to handle %s %s: %s", exchange.getRequestMethod(), exchange.getRequestURI(), e.getMessage()));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(executor);
+        this.trimExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public void start() {
+        server.start();
+        trimExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cache.trim();
+            }
+        }, TRIM_INTERVAL, TRIM_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        trimExecutor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] content) throws IOException {
+        if (content == null || content.length == 0 || exchange.getRequestMethod().equals("HEAD")) {
+            // A length of -1 means no response body, 0 means a chunked response body
+            exchange.sendResponseHeaders(code, -1);
+        } else {
+            exchange.sendResponseHeaders(code, content.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(content);
+            os.close();
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream is = exchange.getRequestBody();
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        // The request body is always read to the end, the connection is closed otherwise
+        byte[] body = readBody(exchange);
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+        if (path.length != 2 || !BuildCache.isValidName(path[1])) {
+            respond(exchange, 404, null);
+            return;
+        }
+
+        String name = path[1];
+        if (path[0].equals("entries")) {
+            if (method.equals("GET") || method.equals("HEAD")) {
+                byte[] data = cache.readEntry(name);
+                respond(exchange, data != null ? 200 : 404, data);
+            } else if (method.equals("PUT")) {
+                try {
+                    cache.writeEntry(name, body);
+                    respond(exchange, 200, new byte[0]);
+                } catch (IOException e) {
+                    respond(exchange, 400, null);
+                }
+            } else {
+                respond(exchange, 405, null);
+            }
+        } else if (path[0].equals("blobs")) {
+            if (method.equals("HEAD")) {
+                respond(exchange, cache.hasBlob(name) ? 200 : 404, null);
+            } else if (method.equals("GET")) {
+                byte[] content = cache.readBlob(name);
+                respond(exchange, content != null ? 200 : 404, content);
+            } else if (method.equals("PUT")) {
+                if (!name.equals(BuildCache.digest(body))) {
+                    respond(exchange, 400, null);
+                    return;
+                }
+                cache.writeBlob(name, body);
+                respond(exchange, 200, new byte[0]);
+            } else {
+                respond(exchange, 405, null);
+            }
+        } else {
+            respond(exchange, 404, null);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BuildCacheServer <port> <directory> [max size in MB]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        long maxSize = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_MAX_SIZE;
+        BuildCacheServer server = new BuildCacheServer(port, new File(args[1]), maxSize * 1024 * 1024);
+        server.start();
+        System.out.println(String.format("Build cache server listening on port %d, storing up to %d MB in %s", server.getPort(), maxSize, args[1]));
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Client of a remote build cache, e.g. {@link BuildCacheServer}, shared between machines.
+ *
+ * The protocol is plain HTTP relative to the base URL of the cache:
+ * <ul>
+ * <li>GET, HEAD and PUT entries/&lt;key&gt; for the entry of a task, listing the digests of the outputs</li>
+ * <li>GET, HEAD and PUT blobs/&lt;digest&gt; for output content, where the digest is the SHA1 of the content</li>
+ * </ul>
+ * A missing entry or blob is responded to with 404.
+ */
+public class RemoteBuildCache {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final String baseUrl;
+
+    /**
+     * Create a client
+     * @param url base URL of the remote cache
+     */
+    public RemoteBuildCache(String url) {
+        this.baseUrl = url.endsWith("/") ? url : url + "/";
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    private static void checkResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code < 200 || code >= 300) {
+            throw new IOException(String.format("Remote build cache responded %d to %s %s", code, connection.getRequestMethod(), connection.getURL()));
+        }
+    }
+
+    private byte[] get(String path) throws IOException {
+        HttpURLConnection connection = open(path, "GET");
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            checkResponse(connection);
+            InputStream is = connection.getInputStream();
+            try {
+                return IOUtils.toByteArray(is);
+            } finally {
+                is.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private boolean head(String path) throws IOException {
+        HttpURLConnection connection = open(path, "HEAD");
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            checkResponse(connection);
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private byte[] send(String path, String method, byte[] content) throws IOException {
+        HttpURLConnection connection = open(path, method);
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(content.length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            OutputStream os = connection.getOutputStream();
+            try {
+                os.write(content);
+            } finally {
+                os.close();
+            }
+            checkResponse(connection);
+            InputStream is = connection.getInputStream();
+            try {
+                return IOUtils.toByteArray(is);
+            } finally {
+                is.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get the entry of a task
+     * @param key task key
+     * @return encoded entry or null if not found
+     * @throws IOException
+     */
+    public byte[] getEntry(String key) throws IOException {
+        return get("entries/" + key);
+    }
+
+    public void putEntry(String key, byte[] data) throws IOException {
+        send("entries/" + key, "PUT", data);
+    }
+
+    /**
+     * Get the content of a blob
+     * @param digest hex encoded SHA1 digest of the content
+     * @return content or null if not found
+     * @throws IOException
+     */
+    public byte[] getBlob(String digest) throws IOException {
+        return get("blobs/" + digest);
+    }
+
+    public boolean hasBlob(String digest) throws IOException {
+        return head("blobs/" + digest);
+    }
+
+    public void putBlob(String digest, byte[] content) throws IOException {
+        send("blobs/" + digest, "PUT", content);
+    }
+}
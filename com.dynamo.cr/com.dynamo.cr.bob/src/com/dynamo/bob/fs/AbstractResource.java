@@ -14,7 +14,14 @@ package com.dynamo.bob.fs;
 
 import static org.apache.commons.io.FilenameUtils.concat;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -22,6 +29,8 @@ import org.apache.commons.io.FilenameUtils;
 
 
 public abstract class AbstractResource<F extends IFileSystem> implements IResource {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     protected F fileSystem;
     protected String path;
 
@@ -45,8 +54,7 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
 
     @Override
     public byte[] sha1() throws IOException {
-        byte[] content = getContent();
-        if (content == null) {
+        if (!exists()) {
             throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
         }
         MessageDigest sha1;
@@ -55,10 +63,76 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        ReadableByteChannel channel = openChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
         return sha1.digest();
     }
 
+    /**
+     * Open a stream to the content. The default implementation reads all of the
+     * content, resources that can be streamed override this.
+     */
+    @Override
+    public InputStream openInputStream() throws IOException {
+        byte[] content = getContent();
+        if (content == null) {
+            throw new FileNotFoundException(String.format("Resource '%s' does not exist", path));
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        return Channels.newChannel(openInputStream());
+    }
+
+    @Override
+    public long size() throws IOException {
+        byte[] content = getContent();
+        return content != null ? content.length : -1;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        ReadableByteChannel channel = openChannel();
+        try {
+            return copy(channel, target);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Copy all of a channel to another, in chunks
+     * @param source channel to read from
+     * @param target channel to write to
+     * @return number of bytes copied
+     * @throws IOException
+     */
+    protected static long copy(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long count = 0;
+        int n;
+        while ((n = source.read(buffer)) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.clear();
+            count += n;
+        }
+        return count;
+    }
+
     @Override
     public String getAbsPath() {
         return concat(fileSystem.getRootDirectory(), path);
@@ -13,6 +13,7 @@
 package com.dynamo.bob.fs;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
@@ -44,6 +45,15 @@ public class ClassLoaderMountPoint implements IMountPoint {
             }
         }
 
+        @Override
+        public InputStream openInputStream() throws IOException {
+            InputStream is = ClassLoaderMountPoint.this.resourceScanner.openInputStream(path);
+            if (is == null) {
+                throw new FileNotFoundException(String.format("Resource '%s' does not exist", path));
+            }
+            return is;
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
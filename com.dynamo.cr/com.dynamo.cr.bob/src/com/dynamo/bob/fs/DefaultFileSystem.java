@@ -14,31 +14,59 @@ package com.dynamo.bob.fs;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.util.FileStamp;
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
-        long mTime;
+    private static final int CACHE_MAGIC = 0x42444331;
+    private static final int CACHE_VERSION = 1;
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Cached digest of a file. The digest is valid as long as the size, modification
+     * time and file key (e.g. the inode, where supported) of the file are unchanged.
+     */
+    static class CacheEntry {
+        FileStamp stamp;
         byte[] sha1;
+
+        boolean matches(BasicFileAttributes attributes) {
+            return stamp.matches(attributes);
+        }
     }
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    // Accessed concurrently when tasks are built in parallel
+    private Map<String, CacheEntry> cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
 
     @Override
     public IResource get(String path) {
@@ -52,48 +80,198 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
         return new DefaultResource(this, path);
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+    private static byte[] calcSha1(File file) throws IOException {
+        MessageDigest sha1 = newSha1();
+        // Digest the file in chunks rather than reading it into memory
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
         }
-        MessageDigest sha1;
+        return sha1.digest();
+    }
+
+    private static MessageDigest newSha1() {
         try {
-            sha1 = MessageDigest.getInstance("SHA1");
+            return MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
-        return sha1.digest();
     }
 
-    byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
-        CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
+    private byte[] sha1(String path, File file, BasicFileAttributes attributes) throws IOException {
+        CacheEntry e = cache.get(path);
+        if (e != null && e.matches(attributes)) {
             return e.sha1;
         } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
-            cache.put(resource.getPath(), e);
-            return e.sha1;
+            return putCache(path, attributes, calcSha1(file));
+        }
+    }
+
+    private byte[] putCache(String path, BasicFileAttributes attributes, byte[] sha1) {
+        CacheEntry e = new CacheEntry();
+        e.stamp = new FileStamp(attributes);
+        e.sha1 = sha1;
+        cache.put(path, e);
+        return sha1;
+    }
+
+    byte[] sha1(DefaultResource resource) throws IOException {
+        File file = new File(resource.getAbsPath());
+        BasicFileAttributes attributes = FileStamp.readAttributes(file);
+        if (attributes == null || !attributes.isRegularFile()) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+        }
+        return sha1(resource.getPath(), file, attributes);
+    }
+
+    // Check if a file exists with the given size and digest
+    private boolean hasContent(String path, File file, long size, byte[] sha1) throws IOException {
+        BasicFileAttributes attributes = FileStamp.readAttributes(file);
+        if (attributes == null || !attributes.isRegularFile() || attributes.size() != size) {
+            return false;
+        }
+        return MessageDigest.isEqual(sha1(path, file, attributes), sha1);
+    }
+
+    private static File createTempFile(File file) throws IOException {
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        return File.createTempFile(file.getName(), ".tmp", dir);
+    }
+
+    // Replace a file with a temporary file, atomically where supported
+    private void replace(String path, File tmp, File file, byte[] sha1) throws IOException {
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Readers of the file, e.g. tasks depending on it, don't need to read it again
+        BasicFileAttributes attributes = FileStamp.readAttributes(file);
+        if (attributes != null) {
+            putCache(path, attributes, sha1);
+        }
+    }
+
+    /**
+     * Write the content of a resource unless the file already has the same content.
+     * Leaving unchanged files untouched keeps their modification time, and thereby
+     * their cached digests, valid. Changed files are replaced by a temporary file
+     * so that a file is never left partially written.
+     * @param resource resource to write
+     * @param content content to write
+     * @throws IOException
+     */
+    void write(DefaultResource resource, byte[] content) throws IOException {
+        File file = new File(resource.getAbsPath());
+        byte[] sha1 = newSha1().digest(content);
+        if (hasContent(resource.getPath(), file, content.length, sha1)) {
+            return;
         }
+        File tmp = createTempFile(file);
+        try {
+            Files.write(tmp.toPath(), content);
+            replace(resource.getPath(), tmp, file, sha1);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Write the content of a resource from a stream unless the file already has the
+     * same content, see {@link #write(DefaultResource, byte[])}
+     * @param resource resource to write
+     * @param stream content to write, closed when written
+     * @throws IOException
+     */
+    void write(DefaultResource resource, InputStream stream) throws IOException {
+        File file = new File(resource.getAbsPath());
+        File tmp = createTempFile(file);
+        try {
+            // The content is digested while written to the temporary file
+            MessageDigest digest = newSha1();
+            long size;
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                size = IOUtils.copyLarge(new DigestInputStream(stream, digest), os);
+            } finally {
+                os.close();
+                stream.close();
+            }
+            byte[] sha1 = digest.digest();
+            if (!hasContent(resource.getPath(), file, size, sha1)) {
+                replace(resource.getPath(), tmp, file, sha1);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Override
+    public void prefetchSignatures(Collection<IResource> resources, int jobs) {
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+        for (IResource resource : resources) {
+            if (resource instanceof DefaultResource) {
+                final DefaultResource r = (DefaultResource) resource;
+                calls.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            sha1(r);
+                        } catch (IOException | IllegalArgumentException e) {
+                            // Reported by the task using the resource
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+        if (calls.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, calls.size())));
+        try {
+            executor.invokeAll(calls);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String getCacheFileName() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectInputStream is = null;
+        cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+        DataInputStream is = null;
         try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(getCacheFileName())));
+            // Caches in any other format, e.g. from older versions, are discarded
+            if (is.readInt() != CACHE_MAGIC || is.readInt() != CACHE_VERSION) {
+                return;
+            }
+            int count = is.readInt();
+            Map<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>(count);
+            for (int i = 0; i < count; ++i) {
+                String path = is.readUTF();
+                CacheEntry e = new CacheEntry();
+                e.stamp = FileStamp.read(is);
+                e.sha1 = new byte[is.readUnsignedByte()];
+                is.readFully(e.sha1);
+                entries.put(path, e);
+            }
+            cache = entries;
         } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
         } finally {
             IOUtils.closeQuietly(is);
         }
@@ -101,11 +279,21 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
+        DataOutputStream os = null;
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getCacheFileName())));
+            os.writeInt(CACHE_MAGIC);
+            os.writeInt(CACHE_VERSION);
+            // Take a snapshot, the count must match the entries written
+            List<Map.Entry<String, CacheEntry>> entries = new ArrayList<Map.Entry<String, CacheEntry>>(cache.entrySet());
+            os.writeInt(entries.size());
+            for (Map.Entry<String, CacheEntry> entry : entries) {
+                CacheEntry e = entry.getValue();
+                os.writeUTF(entry.getKey());
+                e.stamp.write(os);
+                os.writeByte(e.sha1.length);
+                os.write(e.sha1);
+            }
         } catch (IOException e) {
         } finally {
             IOUtils.closeQuietly(os);
@@ -12,16 +12,17 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 
 public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
@@ -35,53 +36,61 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         if (!f.exists())
             return null;
 
-        byte[] buf = new byte[(int) f.length()];
-        BufferedInputStream is = new BufferedInputStream(new FileInputStream(f));
-        try {
-            is.read(buf);
-            return buf;
-        } finally {
-            is.close();
-        }
+        // Reads until the end of the file, a single read may return less than the file size
+        return Files.readAllBytes(f.toPath());
     }
 
     @Override
-    public void setContent(byte[] content) throws IOException {
-        File f = new File(getAbsPath());
-        if (!f.exists()) {
-            String dir = FilenameUtils.getFullPath(getAbsPath());
-            File dirFile = new File(dir);
-            if (!dirFile.exists()) {
-                dirFile.mkdirs();
-            }
-        }
+    public InputStream openInputStream() throws IOException {
+        return new FileInputStream(getAbsPath());
+    }
 
-        BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(f));
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
         try {
-            os.write(content);
-        } finally {
-            os.close();
+            return FileChannel.open(new File(getAbsPath()).toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(String.format("Resource '%s' does not exist", getPath()));
         }
     }
 
     @Override
-    public void setContent(InputStream stream) throws IOException {
+    public long size() {
         File f = new File(getAbsPath());
-        if (!f.exists()) {
-            String dir = FilenameUtils.getFullPath(getAbsPath());
-            File dirFile = new File(dir);
-            if (!dirFile.exists()) {
-                dirFile.mkdirs();
-            }
-        }
+        return f.isFile() ? f.length() : -1;
+    }
 
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        FileChannel channel = (FileChannel) openChannel();
         try {
-            FileUtils.copyInputStreamToFile(stream, f);
+            // Transferred without copying through the Java heap where supported
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long n = channel.transferTo(position, size - position, target);
+                if (n <= 0) {
+                    // The file was truncated while transferred
+                    break;
+                }
+                position += n;
+            }
+            return position;
         } finally {
-            stream.close();
+            channel.close();
         }
     }
 
+    @Override
+    public void setContent(byte[] content) throws IOException {
+        this.fileSystem.write(this, content);
+    }
+
+    @Override
+    public void setContent(InputStream stream) throws IOException {
+        this.fileSystem.write(this, stream);
+    }
+
     @Override
     public byte[] sha1() throws IOException {
         return this.fileSystem.sha1(this);
@@ -87,6 +87,14 @@ public interface IFileSystem {
      */
     public void saveCache();
 
+    /**
+     * Compute the signatures of resources ahead of use (optionally). Implementations
+     * caching signatures can use this to compute them in parallel.
+     * @param resources resources to compute signatures for
+     * @param jobs maximum number of signatures to compute in parallel
+     */
+    public void prefetchSignatures(Collection<IResource> resources, int jobs);
+
     /**
      * Add a mount point to the file system, e.g. a zip archive or Java class loader.
      * @param mountPoint mount point to add
@@ -14,6 +14,8 @@ package com.dynamo.bob.fs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 
 /**
@@ -38,6 +40,38 @@ public interface IResource {
      */
     byte[] getContent() throws IOException;
 
+    /**
+     * Open a stream to read the content of the resource without loading
+     * all of it into memory
+     * @return input stream, to be closed by the caller
+     * @throws IOException if the resource doesn't exist or can't be read
+     */
+    InputStream openInputStream() throws IOException;
+
+    /**
+     * Open a channel to read the content of the resource without loading
+     * all of it into memory
+     * @return channel, to be closed by the caller
+     * @throws IOException if the resource doesn't exist or can't be read
+     */
+    ReadableByteChannel openChannel() throws IOException;
+
+    /**
+     * Get the size of the content of the resource
+     * @return size in bytes, -1 if the resource doesn't exist
+     * @throws IOException
+     */
+    long size() throws IOException;
+
+    /**
+     * Write the content of the resource to a channel. Files are transferred
+     * directly by the file system where supported.
+     * @param target channel to write to, left open
+     * @return number of bytes written
+     * @throws IOException if the resource doesn't exist or can't be read
+     */
+    long transferTo(WritableByteChannel target) throws IOException;
+
     /**
      * Set content for resource. #
      * @note only valid operation for output-resources, see {@link IResource#output()}
@@ -12,13 +12,28 @@
 
 package com.dynamo.bob.fs;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -28,10 +43,16 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.fs.IFileSystem.IWalker;
+import com.dynamo.bob.util.FileStamp;
 import com.dynamo.bob.util.LibraryUtil;
 
 public class ZipMountPoint implements IMountPoint {
 
+    private static final int DIGEST_CACHE_MAGIC = 0x5a444331;
+    private static final int DIGEST_CACHE_VERSION = 1;
+    // The digests of the entries are saved next to the archive when it is unmounted
+    private static final String DIGEST_CACHE_SUFFIX = ".digests";
+
     IFileSystem fileSystem;
     String archivePath;
     ZipFile file;
@@ -39,12 +60,38 @@ public class ZipMountPoint implements IMountPoint {
     String includeBaseDir = "";
     private boolean isProject = true; // is it a Defold project?
 
+    // Mounted entries by path, and as a directory tree for walks, built when mounted
+    private Map<String, Node> entries = null;
+    private Node root = null;
+    private BasicFileAttributes archiveAttributes = null;
+    private volatile boolean digestsChanged = false;
+
+    /**
+     * Entry of the archive, or directory of entries
+     */
+    private static class Node {
+        // Mount relative path, directories end with '/'
+        final String path;
+        // Null for directories that have no entry of their own in the archive
+        ZipEntry entry;
+        final Map<String, Node> children = new LinkedHashMap<String, Node>();
+        // Digest of the content, the archive doesn't change while mounted
+        volatile byte[] sha1;
+
+        Node(String path, ZipEntry entry) {
+            this.path = path;
+            this.entry = entry;
+        }
+    }
+
     private class ZipResource extends AbstractResource<IFileSystem> {
+        Node node;
         ZipEntry entry;
 
-        public ZipResource(IFileSystem fileSystem, String path, ZipEntry entry) {
+        public ZipResource(IFileSystem fileSystem, String path, Node node) {
             super(fileSystem, path);
-            this.entry = entry;
+            this.node = node;
+            this.entry = node.entry;
         }
 
         @Override
@@ -60,6 +107,30 @@ public class ZipMountPoint implements IMountPoint {
             }
         }
 
+        @Override
+        public InputStream openInputStream() throws IOException {
+            // Inflated while read
+            return file.getInputStream(this.entry);
+        }
+
+        @Override
+        public byte[] sha1() throws IOException {
+            byte[] sha1 = this.node.sha1;
+            if (sha1 == null) {
+                // Computed concurrently at worst, with the same result
+                sha1 = super.sha1();
+                this.node.sha1 = sha1;
+                digestsChanged = true;
+            }
+            return sha1.clone();
+        }
+
+        @Override
+        public long size() throws IOException {
+            long size = this.entry.getSize();
+            return size != -1 ? size : super.size();
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
@@ -105,29 +176,74 @@ public class ZipMountPoint implements IMountPoint {
 
     @Override
     public IResource get(String path) {
-        ZipEntry entry = null;
-        if (this.isProject) {
-            if (this.file != null && includes(path)) {
-                entry = this.file.getEntry(this.includeBaseDir + path);
+        if (this.entries == null || (this.isProject && !includes(path))) {
+            return null;
+        }
+        Node node = this.entries.get(path);
+        if (node == null && !path.endsWith("/")) {
+            // Directories are found without the trailing separator, as by ZipFile.getEntry
+            node = this.entries.get(path + "/");
+        }
+        if (node != null) {
+            return new ZipResource(this.fileSystem, path, node);
+        }
+        return null;
+    }
+
+    private void addEntry(String path, ZipEntry entry) {
+        Node node = this.root;
+        int sep;
+        while ((sep = path.indexOf('/', node.path.length())) != -1 && sep < path.length() - 1) {
+            String dirPath = path.substring(0, sep + 1);
+            Node child = node.children.get(dirPath);
+            if (child == null) {
+                child = new Node(dirPath, null);
+                node.children.put(dirPath, child);
             }
+            node = child;
+        }
+        Node leaf = node.children.get(path);
+        if (leaf == null) {
+            leaf = new Node(path, entry);
+            node.children.put(path, leaf);
         } else {
-            entry = this.file.getEntry(this.includeBaseDir + path);
+            leaf.entry = entry;
         }
-        if (entry != null) {
-            return new ZipResource(this.fileSystem, path, entry);
+        this.entries.put(path, leaf);
+    }
+
+    private void buildIndex() {
+        this.entries = new HashMap<String, Node>();
+        this.root = new Node("", null);
+        Enumeration<? extends ZipEntry> zipEntries = this.file.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry entry = zipEntries.nextElement();
+            String entryPath = entry.getName();
+            if (this.isProject) {
+                if (!entryPath.startsWith(this.includeBaseDir)) {
+                    continue;
+                }
+                entryPath = entryPath.substring(this.includeBaseDir.length());
+                if (!includes(entryPath)) {
+                    continue;
+                }
+            }
+            addEntry(entryPath, entry);
         }
-        return null;
     }
 
     @Override
     public void mount() throws IOException {
         try {
+            this.archiveAttributes = Files.readAttributes(Paths.get(this.archivePath), BasicFileAttributes.class);
             this.file = new ZipFile(this.archivePath);
 
             if (this.isProject) {
                 this.includeBaseDir = LibraryUtil.findIncludeBaseDir(this.file);
                 this.includeDirs = LibraryUtil.readIncludeDirsFromArchive(this.includeBaseDir, this.file);
             }
+            buildIndex();
+            loadDigests();
         } catch (ZipException e) {
             throw new IOException(String.format("Failed to mount zip file '%s': %s", this.archivePath, e));
         } catch (ParseException e) {
@@ -137,6 +253,9 @@ public class ZipMountPoint implements IMountPoint {
 
     @Override
     public void unmount() {
+        if (this.entries != null) {
+            saveDigests();
+        }
         // Zip files are not quietly closeable on their own
         IOUtils.closeQuietly(new Closeable() {
             @Override
@@ -147,34 +266,112 @@ public class ZipMountPoint implements IMountPoint {
             }
         });
         this.file = null;
+        this.entries = null;
+        this.root = null;
+    }
+
+    private File getDigestCacheFile() {
+        return new File(this.archivePath + DIGEST_CACHE_SUFFIX);
+    }
+
+    // The saved digests are only used for the same archive file, and entries with the same CRC and size
+    private void loadDigests() {
+        File cacheFile = getDigestCacheFile();
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (is.readInt() != DIGEST_CACHE_MAGIC || is.readInt() != DIGEST_CACHE_VERSION) {
+                return;
+            }
+            if (!FileStamp.read(is).matches(this.archiveAttributes)) {
+                return;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String path = is.readUTF();
+                long crc = is.readLong();
+                long size = is.readLong();
+                byte[] sha1 = new byte[is.readUnsignedByte()];
+                is.readFully(sha1);
+                Node node = this.entries.get(path);
+                if (node != null && node.entry.getCrc() == crc && node.entry.getSize() == size) {
+                    node.sha1 = sha1;
+                }
+            }
+        } catch (IOException e) {
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private void saveDigests() {
+        if (!this.digestsChanged) {
+            return;
+        }
+        this.digestsChanged = false;
+        List<Node> nodes = new ArrayList<Node>();
+        for (Node node : this.entries.values()) {
+            if (node.sha1 != null) {
+                nodes.add(node);
+            }
+        }
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getDigestCacheFile())));
+            os.writeInt(DIGEST_CACHE_MAGIC);
+            os.writeInt(DIGEST_CACHE_VERSION);
+            new FileStamp(this.archiveAttributes).write(os);
+            os.writeInt(nodes.size());
+            for (Node node : nodes) {
+                os.writeUTF(node.path);
+                os.writeLong(node.entry.getCrc());
+                os.writeLong(node.entry.getSize());
+                os.writeByte(node.sha1.length);
+                os.write(node.sha1);
+            }
+        } catch (IOException e) {
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    private static void walk(Node node, String path, IWalker walker, Collection<String> results) {
+        for (Node child : node.children.values()) {
+            boolean matches = child.path.startsWith(path);
+            if (matches && child.entry != null) {
+                if (child.entry.isDirectory()) {
+                    walker.handleDirectory(child.path, results);
+                } else {
+                    walker.handleFile(child.path, results);
+                }
+            }
+            // Only directories that may contain matching entries are walked
+            if (!child.children.isEmpty() && (matches || path.startsWith(child.path))) {
+                walk(child, path, walker, results);
+            }
+        }
     }
 
     @Override
     public void walk(String path, IWalker walker, Collection<String> results) {
         path = FilenameUtils.normalizeNoEndSeparator(path, true);
-        if (this.file != null) {
-            Enumeration<? extends ZipEntry> entries = this.file.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String entryPath = entry.getName();
-                if (this.isProject) {
-                    if (entryPath.startsWith(this.includeBaseDir)) {
-                        entryPath = entryPath.substring(this.includeBaseDir.length());
-                        if (includes(entryPath) && entryPath.startsWith(path)) {
-                            if (entry.isDirectory()) {
-                                walker.handleDirectory(entryPath, results);
-                            } else {
-                                walker.handleFile(entryPath, results);
-                            }
-                        }
-                    }
-                } else {
-                    if (entry.isDirectory()) {
-                        walker.handleDirectory(entryPath, results);
-                    } else {
-                        walker.handleFile(entryPath, results);
+        if (this.root != null) {
+            if (this.isProject) {
+                // Start in the deepest directory containing all paths starting with the path
+                Node node = this.root;
+                int sep;
+                while ((sep = path.indexOf('/', node.path.length())) != -1) {
+                    node = node.children.get(path.substring(0, sep + 1));
+                    if (node == null) {
+                        return;
                     }
                 }
+                walk(node, path, walker, results);
+            } else {
+                walk(this.root, "", walker, results);
             }
         }
     }
@@ -15,7 +15,6 @@ package com.dynamo.bob.pipeline;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,7 +31,6 @@ import com.dynamo.bob.fs.IResource;
 import com.dynamo.rig.proto.Rig.AnimationSet;
 import com.dynamo.rig.proto.Rig.AnimationSetDesc;
 import com.dynamo.rig.proto.Rig.AnimationInstanceDesc;
-import com.google.protobuf.TextFormat;
 
 
 @BuilderParams(name="AnimationSet", inExts=".animationset", outExt=".animationsetc")
@@ -46,10 +44,8 @@ public class AnimationSetBuilder extends Builder<Void>  {
             taskBuilder.addInput(animFile);
 
             if(instance.getAnimation().endsWith(".animationset")) {
-                ByteArrayInputStream animFileIS = new ByteArrayInputStream(animFile.getContent());
-                InputStreamReader subAnimSetDescBuilderISR = new InputStreamReader(animFileIS);
                 AnimationSetDesc.Builder subAnimSetDescBuilder = AnimationSetDesc.newBuilder();
-                TextFormat.merge(subAnimSetDescBuilderISR, subAnimSetDescBuilder);
+                ProtoUtil.merge(project, animFile, subAnimSetDescBuilder);
                 collectAnimations(taskBuilder, project, owner, subAnimSetDescBuilder);
             }
         }
@@ -64,10 +60,8 @@ public class AnimationSetBuilder extends Builder<Void>  {
         taskBuilder.addOutput(input.changeExt(params.outExt()));
 
         if( input.getAbsPath().endsWith(".animationset") ) {
-            ByteArrayInputStream animFileIS = new ByteArrayInputStream(input.getContent());
-            InputStreamReader animSetDescBuilderISR = new InputStreamReader(animFileIS);
             AnimationSetDesc.Builder animSetDescBuilder = AnimationSetDesc.newBuilder();
-            TextFormat.merge(animSetDescBuilderISR, animSetDescBuilder);
+            ProtoUtil.merge(this.project, input, animSetDescBuilder);
 
             AnimationSetBuilder.collectAnimations(taskBuilder, this.project, input, animSetDescBuilder);
         }
@@ -89,10 +83,8 @@ public class AnimationSetBuilder extends Builder<Void>  {
             if(instance.getAnimation().endsWith(".animationset")) {
                 IResource animFile = BuilderUtil.checkResource(this.project, task.input(0), "animationset", instance.getAnimation());
                 validateFile(task, animFile.getAbsPath());
-                ByteArrayInputStream animFileIS = new ByteArrayInputStream(animFile.getContent());
-                InputStreamReader subAnimSetDescBuilderISR = new InputStreamReader(animFileIS);
                 AnimationSetDesc.Builder subAnimSetDescBuilder = AnimationSetDesc.newBuilder();
-                TextFormat.merge(subAnimSetDescBuilderISR, subAnimSetDescBuilder);
+                ProtoUtil.merge(this.project, animFile, subAnimSetDescBuilder);
                 buildAnimations(task, subAnimSetDescBuilder, animationSetBuilder, FilenameUtils.getBaseName(animFile.getPath()));
                 continue;
             }
@@ -127,10 +119,8 @@ public class AnimationSetBuilder extends Builder<Void>  {
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
         // load input
-        ByteArrayInputStream animSetDescIS = new ByteArrayInputStream(task.input(0).getContent());
-        InputStreamReader animSetDescISR = new InputStreamReader(animSetDescIS);
         AnimationSetDesc.Builder animSetDescBuilder = AnimationSetDesc.newBuilder();
-        TextFormat.merge(animSetDescISR, animSetDescBuilder);
+        ProtoUtil.merge(this.project, task.input(0), animSetDescBuilder);
 
         // evaluate hierarchy
         AnimationSet.Builder animationSetBuilder = AnimationSet.newBuilder();
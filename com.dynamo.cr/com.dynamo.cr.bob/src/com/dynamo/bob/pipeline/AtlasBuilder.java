@@ -35,7 +35,7 @@ public class AtlasBuilder extends Builder<Void>  {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Atlas.Builder builder = Atlas.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         Atlas atlas = builder.build();
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
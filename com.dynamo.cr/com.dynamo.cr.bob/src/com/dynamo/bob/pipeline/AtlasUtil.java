@@ -199,7 +199,7 @@ public class AtlasUtil {
 
     public static TextureSetResult generateTextureSet(final Project project, IResource atlasResource) throws IOException, CompileExceptionError {
         Atlas.Builder builder = Atlas.newBuilder();
-        ProtoUtil.merge(atlasResource, builder);
+        ProtoUtil.merge(project, atlasResource, builder);
         Atlas atlas = builder.build();
 
         List<AtlasImage> atlasImages = collectImages(atlas);
@@ -38,7 +38,7 @@ public class CubemapBuilder extends Builder<Void> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Cubemap.Builder builder = Cubemap.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         Cubemap cubemap = builder.build();
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
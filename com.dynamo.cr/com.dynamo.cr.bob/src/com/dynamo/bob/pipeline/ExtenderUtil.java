@@ -17,10 +17,15 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -38,6 +43,7 @@ import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.error.YAMLException;
 
@@ -182,6 +188,26 @@ public class ExtenderUtil {
 			return new byte[0];
 		}
 
+		@Override
+		public InputStream openInputStream() throws IOException {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public ReadableByteChannel openChannel() throws IOException {
+			return Channels.newChannel(openInputStream());
+		}
+
+		@Override
+		public long size() throws IOException {
+			return 0;
+		}
+
+		@Override
+		public long transferTo(WritableByteChannel target) throws IOException {
+			return 0;
+		}
+
 		@Override
 		public void setContent(byte[] content) throws IOException {
 		}
@@ -791,7 +817,12 @@ public class ExtenderUtil {
      */
     public static void writeResourceToFile(IResource resources, File outputFile) throws IOException {
         outputFile.getParentFile().mkdirs();
-        FileUtils.writeByteArrayToFile(outputFile, resources.getContent());
+        FileOutputStream os = new FileOutputStream(outputFile);
+        try {
+            resources.transferTo(os.getChannel());
+        } finally {
+            os.close();
+        }
     }
 
     /**
@@ -821,7 +852,12 @@ public class ExtenderUtil {
             Map.Entry<String, IResource> entry = (Map.Entry<String, IResource>)it.next();
             ZipEntry ze = new ZipEntry(normalize(entry.getKey(), true));
             zipOutputStream.putNextEntry(ze);
-            zipOutputStream.write(entry.getValue().getContent());
+            InputStream is = entry.getValue().openInputStream();
+            try {
+                IOUtils.copy(is, zipOutputStream);
+            } finally {
+                is.close();
+            }
         }
     }
 
@@ -42,7 +42,7 @@ public class GameObjectBuilder extends Builder<Void> {
 
     private PrototypeDesc.Builder loadPrototype(IResource input) throws IOException, CompileExceptionError {
         PrototypeDesc.Builder b = PrototypeDesc.newBuilder();
-        ProtoUtil.merge(input, b);
+        ProtoUtil.merge(project, input, b);
 
         List<ComponentDesc> lst = b.getComponentsList();
         List<ComponentDesc> newList = new ArrayList<GameObject.ComponentDesc>();
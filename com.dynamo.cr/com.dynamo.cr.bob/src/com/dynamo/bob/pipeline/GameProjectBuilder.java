@@ -27,6 +27,7 @@ import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,11 +35,18 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
@@ -48,6 +56,8 @@ import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveCache;
+import com.dynamo.bob.archive.CompressionCache;
 import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.fs.IResource;
@@ -76,7 +86,6 @@ import com.dynamo.lua.proto.Lua.LuaModule;
 import com.dynamo.model.proto.ModelProto.Model;
 import com.dynamo.particle.proto.Particle.ParticleFX;
 import com.dynamo.physics.proto.Physics.CollisionObjectDesc;
-import com.dynamo.proto.DdfExtensions;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Material.MaterialDesc;
 import com.dynamo.render.proto.Render.DisplayProfiles;
@@ -89,14 +98,19 @@ import com.dynamo.spine.proto.Spine.SpineModelDesc;
 import com.dynamo.sprite.proto.Sprite.SpriteDesc;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.tile.proto.Tile.TileGrid;
-import com.google.protobuf.DescriptorProtos.FieldOptions;
-import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.GeneratedMessage;
 import com.google.protobuf.Message;
 
-@BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000)
+@BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000, cacheable = false)
 public class GameProjectBuilder extends Builder<Void> {
 
+    // Index of the data in game.arcd, in the build directory
+    private static final String ARCHIVE_CACHE_NAME = "archive_cache";
+    // Compressed resource data, in the build directory
+    private static final String COMPRESSION_CACHE_NAME = "compression_cache";
+    // Default maximum size of the compression cache in megabytes, see the "compression-cache-size" option
+    private static final long DEFAULT_COMPRESSION_CACHE_SIZE = 1024;
+
     private static Map<String, Class<? extends GeneratedMessage>> extToMessageClass = new HashMap<String, Class<? extends GeneratedMessage>>();
     private static Set<String> leafResourceTypes = new HashSet<String>();
 
@@ -181,7 +195,7 @@ public class GameProjectBuilder extends Builder<Void> {
             if (!texProfilesInput.exists()) {
                 throw new CompileExceptionError(input, -1, "Could not find supplied texture_profiles file: " + textureProfilesPath);
             }
-            ProtoUtil.merge(texProfilesInput, texProfilesBuilder);
+            ProtoUtil.merge(project, texProfilesInput, texProfilesBuilder);
 
             // If Bob is building for a specific platform, we need to
             // filter out any platform entries not relevant to the target platform.
@@ -228,9 +242,14 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
-    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
+    private ArchiveCache createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory, ArchiveCache previousArchiveCache) throws IOException, CompileExceptionError {
         String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
         ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder);
+        archiveBuilder.setPreviousArchiveCache(previousArchiveCache);
+        CompressionCache compressionCache = createCompressionCache();
+        archiveBuilder.setCompressionCache(compressionCache);
+        archiveBuilder.setBuildTrace(project.getBuildTrace());
+        archiveBuilder.setThreadCount(project.getJobCount());
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
         HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
 
@@ -240,8 +259,20 @@ public class GameProjectBuilder extends Builder<Void> {
             archiveBuilder.add(s, compress);
         }
 
-        archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
+        try {
+            archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
+        } finally {
+            previousArchiveCache.close();
+        }
         manifestBuilder.setArchiveIdentifier(archiveBuilder.getArchiveIndexHash());
+        if (previousArchiveCache.size() > 0) {
+            Bob.verbose("Archive: %d of %d entries copied from the previous archive", archiveBuilder.getReusedEntryCount(), resources.size());
+        }
+        if (archiveBuilder.getSharedEntryCount() > 0) {
+            Bob.verbose("Archive: %d entries share data with identical entries, %d bytes saved", archiveBuilder.getSharedEntryCount(), archiveBuilder.getSharedEntryBytes());
+        }
+        compressionCache.trim();
+        Bob.verbose("%s", compressionCache.getStatistics());
         archiveIndex.close();
         archiveData.close();
 
@@ -251,68 +282,67 @@ public class GameProjectBuilder extends Builder<Void> {
                 project.getPublisher().AddEntry(fhandle.getName(), fhandle);
             }
         }
+        return archiveBuilder.getArchiveCache();
     }
 
-    private static void findResources(Project project, Message node, Collection<String> resources) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                findResources(project, (Message) value, resources);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        findResources(project, (Message) v, resources);
-                    } else if (isResource && v instanceof String) {
-                        findResources(project, project.getResource((String) v), resources);
-                    }
-                }
-            } else if (isResource && value instanceof String) {
-                findResources(project, project.getResource((String) value), resources);
-            }
+    private CompressionCache createCompressionCache() {
+        String directory = FilenameUtils.concat(FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory()), COMPRESSION_CACHE_NAME);
+        long maxSize = DEFAULT_COMPRESSION_CACHE_SIZE;
+        try {
+            maxSize = Long.parseLong(project.option("compression-cache-size", Long.toString(DEFAULT_COMPRESSION_CACHE_SIZE)));
+        } catch (NumberFormatException e) {
+            project.logWarning("Invalid compression cache size '%s', using %d MB", project.option("compression-cache-size", ""), DEFAULT_COMPRESSION_CACHE_SIZE);
         }
+        return new CompressionCache(new File(directory), maxSize * 1024 * 1024);
     }
 
-    /*  Adds unique resources to list 'resources'. Each resource should once occur
-        once in the list regardless if the resource appears in several collections
-        or collectionproxies.
-    */
-    private static void findResources(Project project, IResource resource, Collection<String> resources) throws CompileExceptionError {
-        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
-            return;
+    /**
+     * A compiled resource and the compiled resources it references
+     */
+    private static class CompiledResource {
+        final IResource resource;
+        final String absPath;
+        final boolean isCollectionProxy;
+        List<CompiledResource> references = Collections.emptyList();
+
+        CompiledResource(IResource resource, IResource output) {
+            this.resource = resource;
+            this.absPath = output.getAbsPath();
+            this.isCollectionProxy = output.getPath().endsWith(".collectionproxyc");
         }
+    }
 
-        resources.add(resource.output().getAbsPath());
+    private static Map<Class<? extends GeneratedMessage>, Message> defaultInstances = new ConcurrentHashMap<Class<? extends GeneratedMessage>, Message>();
 
+    // Paths of the resources referenced by a compiled resource, null for leaf resources
+    private static List<String> loadReferences(IResource resource, IResource output) throws CompileExceptionError {
         int i = resource.getPath().lastIndexOf(".");
         if (i == -1) {
-            return;
+            return null;
         }
         String ext = resource.getPath().substring(i);
 
         if (leafResourceTypes.contains(ext)) {
-            return;
+            return null;
         }
 
         Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
         if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
             try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
+                Message defaultInstance = defaultInstances.get(klass);
+                if (defaultInstance == null) {
+                    Method getDefaultInstance = klass.getDeclaredMethod("getDefaultInstance");
+                    defaultInstance = (Message) getDefaultInstance.invoke(null);
+                    defaultInstances.put(klass, defaultInstance);
+                }
+                final byte[] content = output.getContent();
                 if(content == null) {
                     throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
                 }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                findResources(project, (Message) message, resources);
+                Message message = defaultInstance.newBuilderForType().mergeFrom(content).build();
+                List<String> paths = new ArrayList<String>();
+                ResourceFields.collect(message, paths);
+                return paths;
             } catch(CompileExceptionError e) {
                 throw e;
             } catch(Exception e) {
@@ -323,29 +353,81 @@ public class GameProjectBuilder extends Builder<Void> {
         }
     }
 
-    private static void buildResourceGraph(Project project, Message node, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                buildResourceGraph(project, (Message) value, parentNode, visitedNodes);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        buildResourceGraph(project, (Message) v, parentNode, visitedNodes);
-                    } else if (isResource && v instanceof String) {
-                        buildResourceGraph(project, project.getResource((String) v), parentNode, visitedNodes);
+    private static CompiledResource getCompiledResource(IResource resource, Map<String, CompiledResource> compiledResources, List<CompiledResource> pending) {
+        if (resource.getPath().equals("")) {
+            return null;
+        }
+        IResource output = resource.output();
+        CompiledResource compiledResource = compiledResources.get(output.getAbsPath());
+        if (compiledResource == null) {
+            compiledResource = new CompiledResource(resource, output);
+            compiledResources.put(compiledResource.absPath, compiledResource);
+            pending.add(compiledResource);
+        }
+        return compiledResource;
+    }
+
+    /*  Load the compiled resources reachable from the roots. Each compiled resource is
+        decoded once, and the resources referenced by a resource are decoded in parallel.
+    */
+    private static Map<String, CompiledResource> loadCompiledResources(final Project project, List<IResource> roots) throws CompileExceptionError {
+        Map<String, CompiledResource> compiledResources = new HashMap<String, CompiledResource>();
+        List<CompiledResource> pending = new ArrayList<CompiledResource>();
+        for (IResource root : roots) {
+            getCompiledResource(root, compiledResources, pending);
+        }
+
+        ExecutorService executor = null;
+        try {
+            while (!pending.isEmpty()) {
+                List<Callable<List<String>>> calls = new ArrayList<Callable<List<String>>>(pending.size());
+                for (final CompiledResource compiledResource : pending) {
+                    final IResource output = compiledResource.resource.output();
+                    calls.add(new Callable<List<String>>() {
+                        @Override
+                        public List<String> call() throws Exception {
+                            return loadReferences(compiledResource.resource, output);
+                        }
+                    });
+                }
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(project.getJobCount());
+                }
+                List<Future<List<String>>> futures = executor.invokeAll(calls);
+
+                List<CompiledResource> current = pending;
+                pending = new ArrayList<CompiledResource>();
+                for (int i = 0; i < current.size(); ++i) {
+                    List<String> paths = futures.get(i).get();
+                    if (paths != null) {
+                        List<CompiledResource> references = new ArrayList<CompiledResource>(paths.size());
+                        for (String path : paths) {
+                            CompiledResource reference = getCompiledResource(project.getResource(path), compiledResources, pending);
+                            if (reference != null) {
+                                references.add(reference);
+                            }
+                        }
+                        current.get(i).references = references;
                     }
                 }
-            } else if (isResource && value instanceof String) {
-                buildResourceGraph(project, project.getResource((String) value), parentNode, visitedNodes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompileExceptionError("Interrupted while finding resources", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
+        return compiledResources;
     }
 
     /*  Build a graph of resources. The graph is later used when writing archive to disk
@@ -353,50 +435,25 @@ public class GameProjectBuilder extends Builder<Void> {
         excluded with liveupdate. Since liveupdate works on collectionproxies a resource
         will appear as a single node per collectionproxy, but can still have a other nodes
         in other collections/collectionproxies.
+        Each resource should only occur once in the set 'resources' regardless if the
+        resource appears in several collections or collectionproxies.
     */
-    private static void buildResourceGraph(Project project, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
-        if (resource.getPath().equals("") || visitedNodes.contains(resource.output().getAbsPath())) {
+    private static void buildResourceGraph(CompiledResource compiledResource, ResourceNode parentNode, Collection<String> visitedNodes, Collection<String> resources) {
+        if (visitedNodes.contains(compiledResource.absPath)) {
             return;
         }
 
-        if (resource.output().getPath().endsWith(".collectionproxyc")) {
+        if (compiledResource.isCollectionProxy) {
             visitedNodes = new HashSet<String>();
         }
 
-        visitedNodes.add(resource.output().getAbsPath());
-        ResourceNode currentNode = new ResourceNode(resource.getPath(), resource.output().getAbsPath());
+        visitedNodes.add(compiledResource.absPath);
+        resources.add(compiledResource.absPath);
+        ResourceNode currentNode = new ResourceNode(compiledResource.resource.getPath(), compiledResource.absPath);
         parentNode.addChild(currentNode);
 
-        int i = resource.getPath().lastIndexOf(".");
-        if (i == -1) {
-            return;
-        }
-        String ext = resource.getPath().substring(i);
-
-        if (leafResourceTypes.contains(ext)) {
-            return;
-        }
-
-        Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
-            try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                buildResourceGraph(project, (Message) message, currentNode, visitedNodes);
-            } catch(CompileExceptionError e) {
-                throw e;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            }
-        } else {
-            throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
+        for (CompiledResource reference : compiledResource.references) {
+            buildResourceGraph(reference, currentNode, visitedNodes, resources);
         }
     }
 
@@ -413,6 +470,7 @@ public class GameProjectBuilder extends Builder<Void> {
         } else {
 
             // Root nodes to follow (default values from engine.cpp)
+            List<IResource> roots = new ArrayList<IResource>();
             for (String[] tuples : new String[][] { {"bootstrap", "main_collection", "/logic/main.collectionc"},
                                                     {"bootstrap", "render", "/builtins/render/default.renderc"},
                                                     {"bootstrap", "debug_init_script", null},
@@ -420,10 +478,16 @@ public class GameProjectBuilder extends Builder<Void> {
                                                     {"input", "gamepads", "/builtins/input/default.gamepadsc"},
                                                     {"display", "display_profiles", "/builtins/render/default.display_profilesc"}}) {
                 String path = project.getProjectProperties().getStringValue(tuples[0], tuples[1], tuples[2]);
-                HashSet<String> visitedNodes = new HashSet<String>();
                 if (path != null) {
-                    findResources(project, project.getResource(path), resources);
-                    buildResourceGraph(project, project.getResource(path), rootNode, visitedNodes);
+                    roots.add(project.getResource(path));
+                }
+            }
+
+            Map<String, CompiledResource> compiledResources = loadCompiledResources(project, roots);
+            for (IResource root : roots) {
+                if (!root.getPath().equals("")) {
+                    CompiledResource compiledResource = compiledResources.get(root.output().getAbsPath());
+                    buildResourceGraph(compiledResource, rootNode, new HashSet<String>(), resources);
                 }
             }
 
@@ -564,7 +628,11 @@ public class GameProjectBuilder extends Builder<Void> {
                 File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
                 RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
-                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
+                // Data of unchanged resources is copied from the previous game.arcd
+                File archiveDataOutput = new File(task.getOutputs().get(2).getAbsPath());
+                File archiveCacheFile = new File(FilenameUtils.concat(FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory()), ARCHIVE_CACHE_NAME));
+                ArchiveCache previousArchiveCache = ArchiveCache.load(archiveCacheFile, archiveDataOutput);
+                ArchiveCache archiveCache = createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory, previousArchiveCache);
 
                 // Create manifest
                 byte[] manifestFile = manifestBuilder.buildManifest();
@@ -577,6 +645,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 // game.arcd
                 archiveDataInputStream = new FileInputStream(archiveDataHandle);
                 task.getOutputs().get(2).setContent(archiveDataInputStream);
+                archiveCache.save(archiveCacheFile, archiveDataOutput);
 
                 // game.dmanifest
                 task.getOutputs().get(3).setContent(manifestFile);
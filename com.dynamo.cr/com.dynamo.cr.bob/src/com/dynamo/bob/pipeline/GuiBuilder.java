@@ -14,7 +14,6 @@ package com.dynamo.bob.pipeline;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,7 +51,6 @@ import com.dynamo.gui.proto.Gui.SceneDesc.LayerDesc;
 import com.dynamo.gui.proto.Gui.SceneDesc.LayoutDesc;
 import com.dynamo.gui.proto.Gui.SceneDesc.TextureDesc;
 import com.google.protobuf.Descriptors.FieldDescriptor;
-import com.google.protobuf.TextFormat;
 
 
 @ProtoParams(messageClass = SceneDesc.class)
@@ -62,7 +60,7 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         SceneDesc.Builder builder = SceneDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
 
         TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
                 .setName(params.name())
@@ -575,7 +573,7 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
                     // Need to parse the spine JSON
                     com.dynamo.spine.proto.Spine.SpineSceneDesc.Builder spineSceneBuilder = com.dynamo.spine.proto.Spine.SpineSceneDesc.newBuilder();
                     IResource spineSceneRes = builder.project.getResource(spineScenePath);
-                    TextFormat.merge(new InputStreamReader(new ByteArrayInputStream(spineSceneRes.getContent()), "ASCII"), spineSceneBuilder);
+                    ProtoUtil.merge(builder.project, spineSceneRes, spineSceneBuilder);
 
                     IResource jsonRes = builder.project.getResource(spineSceneBuilder.getSpineJson());
                     try {
@@ -666,13 +664,12 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
             this.project = project;
         }
 
-        public SceneDesc.Builder readScene(String resourcePath, HashMap<String, SceneDesc.Builder> resourceCache) throws IOException {
+        public SceneDesc.Builder readScene(String resourcePath, HashMap<String, SceneDesc.Builder> resourceCache) throws IOException, CompileExceptionError {
             SceneDesc.Builder sceneBuilder = resourceCache.get(resourcePath);
             if(sceneBuilder == null) {
                 IResource templateSceneResource = this.project.getResource(resourcePath);
-                InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(templateSceneResource.getContent()), "ASCII");
                 sceneBuilder = SceneDesc.newBuilder();
-                TextFormat.merge(reader, sceneBuilder);
+                ProtoUtil.merge(this.project, templateSceneResource, sceneBuilder);
                 resourceCache.put(resourcePath, sceneBuilder);
             }
             return sceneBuilder.clone();
@@ -12,10 +12,8 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,7 +24,6 @@ import com.dynamo.bob.Task;
 import com.dynamo.bob.fs.IResource;
 
 import com.dynamo.mesh.proto.MeshProto.MeshDesc;
-import com.google.protobuf.TextFormat;
 
 @BuilderParams(name="Mesh", inExts=".mesh", outExt=".meshc")
 public class MeshBuilder extends Builder<Void> {
@@ -34,7 +31,7 @@ public class MeshBuilder extends Builder<Void> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         MeshDesc.Builder meshDescBuilder = MeshDesc.newBuilder();
-        ProtoUtil.merge(input, meshDescBuilder);
+        ProtoUtil.merge(project, input, meshDescBuilder);
 
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
             .setName(params.name())
@@ -57,10 +54,8 @@ public class MeshBuilder extends Builder<Void> {
 
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
-        ByteArrayInputStream mesh_is = new ByteArrayInputStream(task.input(0).getContent());
-        InputStreamReader mesh_isr = new InputStreamReader(mesh_is);
         MeshDesc.Builder meshDescBuilder = MeshDesc.newBuilder();
-        TextFormat.merge(mesh_isr, meshDescBuilder);
+        ProtoUtil.merge(this.project, task.input(0), meshDescBuilder);
 
         IResource resource = task.input(0);
         BuilderUtil.checkResource(this.project, resource, "vertices", meshDescBuilder.getVertices());
@@ -12,10 +12,8 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,7 +26,6 @@ import com.dynamo.bob.fs.IResource;
 import com.dynamo.model.proto.ModelProto.Model;
 import com.dynamo.model.proto.ModelProto.ModelDesc;
 import com.dynamo.rig.proto.Rig.RigScene;
-import com.google.protobuf.TextFormat;
 
 
 @BuilderParams(name="Model", inExts=".model", outExt=".modelc")
@@ -38,7 +35,7 @@ public class ModelBuilder extends Builder<Void> {
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         ModelDesc.Builder modelDescBuilder = ModelDesc.newBuilder();
-        ProtoUtil.merge(input, modelDescBuilder);
+        ProtoUtil.merge(project, input, modelDescBuilder);
 
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
             .setName(params.name())
@@ -63,10 +60,8 @@ public class ModelBuilder extends Builder<Void> {
 
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
-        ByteArrayInputStream model_is = new ByteArrayInputStream(task.input(0).getContent());
-        InputStreamReader model_isr = new InputStreamReader(model_is);
         ModelDesc.Builder modelDescBuilder = ModelDesc.newBuilder();
-        TextFormat.merge(model_isr, modelDescBuilder);
+        ProtoUtil.merge(this.project, task.input(0), modelDescBuilder);
 
         // Rigscene
         RigScene.Builder rigBuilder = RigScene.newBuilder();
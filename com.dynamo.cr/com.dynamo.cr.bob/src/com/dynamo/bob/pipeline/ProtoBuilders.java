@@ -75,7 +75,7 @@ public class ProtoBuilders {
     }
 
     @ProtoParams(messageClass = CollectionProxyDesc.class)
-    @BuilderParams(name="CollectionProxy", inExts=".collectionproxy", outExt=".collectionproxyc")
+    @BuilderParams(name="CollectionProxy", inExts=".collectionproxy", outExt=".collectionproxyc", cacheable=false)
     public static class CollectionProxyBuilder extends ProtoBuilder<CollectionProxyDesc.Builder> {
         @Override
         protected CollectionProxyDesc.Builder transform(Task<Void> task, IResource resource, CollectionProxyDesc.Builder messageBuilder) throws CompileExceptionError {
@@ -127,7 +127,7 @@ public class ProtoBuilders {
             if (messageBuilder.hasCollisionShape() && !messageBuilder.getCollisionShape().isEmpty() && !(messageBuilder.getCollisionShape().endsWith(".tilegrid") || messageBuilder.getCollisionShape().endsWith(".tilemap"))) {
                 IResource shapeResource = project.getResource(messageBuilder.getCollisionShape().substring(1));
                 ConvexShape.Builder cb = ConvexShape.newBuilder();
-                ProtoUtil.merge(shapeResource, cb);
+                ProtoUtil.merge(project, shapeResource, cb);
                 CollisionShape.Builder eb = CollisionShape.newBuilder().mergeFrom(messageBuilder.getEmbeddedCollisionShape());
                 ValidateShapeTypes(eb.getShapesList(), shapeResource);
                 Shape.Builder sb = Shape.newBuilder()
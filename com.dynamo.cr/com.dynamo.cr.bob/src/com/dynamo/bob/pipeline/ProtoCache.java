@@ -0,0 +1,140 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.google.protobuf.Message;
+
+/**
+ * Cache of parsed text format resources, e.g. collections referenced from several
+ * collections or gui templates. Messages are kept per resource path and message type
+ * together with the digest of the content they were parsed from, and are parsed again
+ * when the content has changed. The cached messages are immutable and merged into the
+ * builders of the callers, which are free to modify them.
+ */
+public class ProtoCache {
+
+    private static class Entry {
+        byte[] sha1;
+        Message message;
+
+        Entry(byte[] sha1, Message message) {
+            this.sha1 = sha1;
+            this.message = message;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of messages to keep, the least recently used are
+     * evicted first. 0 for no limit
+     */
+    public ProtoCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return maxEntries > 0 && size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the parsed content of a text format resource
+     * @param resource resource to parse
+     * @param defaultInstance default instance of the message type, e.g. CollectionDesc.getDefaultInstance()
+     * @return parsed message, fields marked required might be missing
+     * @throws IOException
+     * @throws CompileExceptionError if the content fails to parse
+     */
+    @SuppressWarnings("unchecked")
+    public <M extends Message> M get(IResource resource, M defaultInstance) throws IOException, CompileExceptionError {
+        if (!resource.exists()) {
+            // Fails the same way as an uncached parse
+            return (M) parse(resource, defaultInstance);
+        }
+        String key = resource.getPath() + ":" + defaultInstance.getDescriptorForType().getFullName();
+        byte[] sha1 = resource.sha1();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && Arrays.equals(entry.sha1, sha1)) {
+                ++hits;
+                return (M) entry.message;
+            }
+            ++misses;
+        }
+
+        // Parsed outside the lock, a resource requested concurrently might be parsed twice
+        Message message = parse(resource, defaultInstance);
+        synchronized (entries) {
+            entries.put(key, new Entry(sha1, message));
+        }
+        return (M) message;
+    }
+
+    private static Message parse(IResource resource, Message defaultInstance) throws IOException, CompileExceptionError {
+        Message.Builder builder = defaultInstance.newBuilderForType();
+        ProtoUtil.merge(resource, builder);
+        return builder.buildPartial();
+    }
+
+    /**
+     * Merge the parsed content of a text format resource into a builder. Message fields
+     * are merged with the existing values of the builder, as opposed to parsing the
+     * text into the builder which replaces them, which makes no difference for a new builder.
+     * @param resource resource to parse
+     * @param builder builder to merge into
+     * @throws IOException
+     * @throws CompileExceptionError if the content fails to parse
+     */
+    public void merge(IResource resource, Message.Builder builder) throws IOException, CompileExceptionError {
+        builder.mergeFrom(get(resource, builder.getDefaultInstanceForType()));
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+}
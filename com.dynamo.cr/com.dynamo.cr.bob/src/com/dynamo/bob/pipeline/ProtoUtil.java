@@ -17,6 +17,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.IResource;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.TextFormat;
@@ -24,8 +25,13 @@ import com.google.protobuf.TextFormat;
 public class ProtoUtil {
 
     public static void merge(IResource input, Builder builder) throws IOException, CompileExceptionError {
+        byte[] content = input.getContent();
+        // Content not handled by the faster parser, including errors, is parsed by TextFormat
+        if (TextFormatParser.merge(content, builder)) {
+            return;
+        }
         try {
-            TextFormat.merge(new String(input.getContent()), builder);
+            TextFormat.merge(new String(content), builder);
         } catch (TextFormat.ParseException e) {
             // 1:7: String missing ending quote.
             Pattern pattern = Pattern.compile("(\\d+):(\\d+): (.*)");
@@ -37,4 +43,13 @@ public class ProtoUtil {
             }
         }
     }
+
+    /**
+     * Merge a text format resource into a builder, parsing it only if not already
+     * parsed by an earlier call with the same content and message type
+     * @see ProtoCache#merge(IResource, Builder)
+     */
+    public static void merge(Project project, IResource input, Builder builder) throws IOException, CompileExceptionError {
+        project.getProtoCache().merge(input, builder);
+    }
 }
@@ -0,0 +1,146 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.dynamo.proto.DdfExtensions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+
+/**
+ * Resource references of messages. The fields that can lead to a resource, string
+ * fields with the resource option and message fields with such fields in them,
+ * are found once per message type. Other fields, e.g. vertex data, are never visited.
+ */
+class ResourceFields {
+
+    private static final Map<Descriptor, ResourceFields> cache = new ConcurrentHashMap<Descriptor, ResourceFields>();
+
+    // Message types being inspected, for recursive message types
+    private static final ThreadLocal<List<Descriptor>> inProgress = new ThreadLocal<List<Descriptor>>() {
+        @Override
+        protected List<Descriptor> initialValue() {
+            return new ArrayList<Descriptor>();
+        }
+    };
+
+    private final FieldDescriptor[] fields;
+    // Null for resource fields
+    private final Descriptor[] messageTypes;
+    // Paths referenced by the default instance, the default values of the resource fields
+    private final List<String> defaultPaths;
+
+    private ResourceFields(FieldDescriptor[] fields, Descriptor[] messageTypes, List<String> defaultPaths) {
+        this.fields = fields;
+        this.messageTypes = messageTypes;
+        this.defaultPaths = defaultPaths;
+    }
+
+    static ResourceFields get(Descriptor descriptor) {
+        ResourceFields resourceFields = cache.get(descriptor);
+        if (resourceFields == null) {
+            resourceFields = create(descriptor);
+            cache.put(descriptor, resourceFields);
+        }
+        return resourceFields;
+    }
+
+    private static ResourceFields create(Descriptor descriptor) {
+        List<Descriptor> stack = inProgress.get();
+        stack.add(descriptor);
+        try {
+            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
+            List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+            List<Descriptor> messageTypes = new ArrayList<Descriptor>();
+            List<String> defaultPaths = new ArrayList<String>();
+            for (FieldDescriptor fieldDescriptor : descriptor.getFields()) {
+                if (fieldDescriptor.getJavaType() == JavaType.MESSAGE) {
+                    Descriptor type = fieldDescriptor.getMessageType();
+                    if (stack.contains(type)) {
+                        // A message type that contains itself can always lead to a resource
+                        fields.add(fieldDescriptor);
+                        messageTypes.add(type);
+                    } else {
+                        ResourceFields typeFields = get(type);
+                        if (!typeFields.isEmpty()) {
+                            fields.add(fieldDescriptor);
+                            messageTypes.add(type);
+                            if (!fieldDescriptor.isRepeated()) {
+                                defaultPaths.addAll(typeFields.defaultPaths);
+                            }
+                        }
+                    }
+                } else if (fieldDescriptor.getJavaType() == JavaType.STRING) {
+                    boolean isResource = (Boolean) fieldDescriptor.getOptions().getField(resourceDesc);
+                    if (isResource) {
+                        fields.add(fieldDescriptor);
+                        messageTypes.add(null);
+                        if (!fieldDescriptor.isRepeated()) {
+                            defaultPaths.add((String) fieldDescriptor.getDefaultValue());
+                        }
+                    }
+                }
+            }
+            return new ResourceFields(fields.toArray(new FieldDescriptor[fields.size()]),
+                    messageTypes.toArray(new Descriptor[messageTypes.size()]), defaultPaths);
+        } finally {
+            stack.remove(stack.size() - 1);
+        }
+    }
+
+    boolean isEmpty() {
+        return fields.length == 0;
+    }
+
+    /**
+     * Add the resource paths referenced by the message, in field order
+     * @param message message to inspect
+     * @param paths referenced paths are added to this list
+     */
+    static void collect(Message message, List<String> paths) {
+        get(message.getDescriptorForType()).collectFields(message, paths);
+    }
+
+    private void collectFields(Message message, List<String> paths) {
+        for (int i = 0; i < fields.length; ++i) {
+            FieldDescriptor fieldDescriptor = fields[i];
+            ResourceFields typeFields = messageTypes[i] != null ? get(messageTypes[i]) : null;
+            if (fieldDescriptor.isRepeated()) {
+                int count = message.getRepeatedFieldCount(fieldDescriptor);
+                for (int j = 0; j < count; ++j) {
+                    Object value = message.getRepeatedField(fieldDescriptor, j);
+                    if (typeFields != null) {
+                        typeFields.collectFields((Message) value, paths);
+                    } else {
+                        paths.add((String) value);
+                    }
+                }
+            } else if (typeFields != null) {
+                if (message.hasField(fieldDescriptor)) {
+                    typeFields.collectFields((Message) message.getField(fieldDescriptor), paths);
+                } else {
+                    paths.addAll(typeFields.defaultPaths);
+                }
+            } else {
+                // Unset fields have their default values
+                paths.add((String) message.getField(fieldDescriptor));
+            }
+        }
+    }
+}
@@ -76,7 +76,7 @@ public class SpineSceneBuilder extends Builder<Void> {
                 .addOutput(input.changeExt(params.outExt()));
 
         SpineSceneDesc.Builder builder = SpineSceneDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        ProtoUtil.merge(project, input, builder);
         BuilderUtil.checkResource(this.project, input, "spine_json", builder.getSpineJson());
         BuilderUtil.checkResource(this.project, input, "atlas", builder.getAtlas());
 
@@ -370,7 +370,7 @@ public class SpineSceneBuilder extends Builder<Void> {
             IOException {
 
         SpineSceneDesc.Builder builder = SpineSceneDesc.newBuilder();
-        ProtoUtil.merge(task.input(0), builder);
+        ProtoUtil.merge(project, task.input(0), builder);
 
         // Load previously created atlas textureset
         TextureSet.Builder resultBuilder = TextureSet.newBuilder();
@@ -0,0 +1,903 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+
+package com.dynamo.bob.pipeline;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+/**
+ * Parser of the protobuf text format used by the DDF files. The UTF-8 content is parsed
+ * in a single pass straight into the binary wire format, using lookup tables of the field
+ * and enum value names per message type, and the result is merged into the builder by the
+ * generated code. This avoids the regular expressions, intermediate strings and reflection
+ * of TextFormat, which dominate the parsing of large collections, gui scenes and tile maps.
+ *
+ * Only content that is guaranteed to parse to the same message as TextFormat.merge is
+ * accepted. Anything else, such as syntax errors, missing required fields, extensions,
+ * groups, non ASCII strings or integers in hex and octal notation, is rejected without
+ * modifying the builder and is expected to be parsed with TextFormat, which then also
+ * reports the errors.
+ */
+public class TextFormatParser {
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    private static final int TOKEN_END = 0;
+    private static final int TOKEN_IDENTIFIER = 1;
+    private static final int TOKEN_NUMBER = 2;
+    private static final int TOKEN_STRING = 3;
+    private static final int TOKEN_SYMBOL = 4;
+    private static final int TOKEN_UNSUPPORTED = 5;
+
+    // Powers of ten that are exact, see parseFloat and parseDouble
+    private static final float[] FLOAT_POWERS_OF_TEN = new float[11];
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[23];
+    static {
+        FLOAT_POWERS_OF_TEN[0] = 1.0f;
+        for (int i = 1; i < FLOAT_POWERS_OF_TEN.length; ++i) {
+            FLOAT_POWERS_OF_TEN[i] = FLOAT_POWERS_OF_TEN[i - 1] * 10.0f;
+        }
+        DOUBLE_POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < DOUBLE_POWERS_OF_TEN.length; ++i) {
+            DOUBLE_POWERS_OF_TEN[i] = DOUBLE_POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Thrown when the content is left to TextFormat. Only used for control flow, so
+     * it's shared and has no stack trace.
+     */
+    @SuppressWarnings("serial")
+    private static class UnsupportedContentException extends Exception {
+        static final UnsupportedContentException INSTANCE = new UnsupportedContentException();
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Open addressing hash table from names, as ASCII bytes, to values. Looked up with
+     * a range of the content to avoid creating strings for the tokens.
+     */
+    private static class NameTable<T> {
+        private final byte[][] names;
+        private final Object[] values;
+        private final int mask;
+
+        NameTable(Map<String, T> entries) {
+            int capacity = 8;
+            while (capacity < entries.size() * 2) {
+                capacity *= 2;
+            }
+            names = new byte[capacity][];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            for (Map.Entry<String, T> entry : entries.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+                int i = hash(name, 0, name.length) & mask;
+                while (names[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                names[i] = name;
+                values[i] = entry.getValue();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(byte[] buffer, int offset, int length) {
+            int i = hash(buffer, offset, length) & mask;
+            byte[] name;
+            while ((name = names[i]) != null) {
+                if (equals(name, buffer, offset, length)) {
+                    return (T) values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int hash(byte[] buffer, int offset, int length) {
+            int h = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                h = 31 * h + buffer[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] name, byte[] buffer, int offset, int length) {
+            if (name.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (name[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Field {
+        final FieldDescriptor descriptor;
+        final int tag;
+        // Bit in the mask of parsed required fields, -1 if not required
+        final int requiredBit;
+        // Bit in the mask of parsed non repeated message fields, -1 for other fields
+        final int messageBit;
+        final NameTable<EnumValueDescriptor> enumValues;
+        // Resolved on first use since message types can be recursive
+        MessageTable messageTable;
+
+        Field(FieldDescriptor descriptor, int wireType, int requiredBit, int messageBit) {
+            this.descriptor = descriptor;
+            this.tag = (descriptor.getNumber() << 3) | wireType;
+            this.requiredBit = requiredBit;
+            this.messageBit = messageBit;
+            if (descriptor.getType() == FieldDescriptor.Type.ENUM) {
+                Map<String, EnumValueDescriptor> values = new HashMap<String, EnumValueDescriptor>();
+                for (EnumValueDescriptor value : descriptor.getEnumType().getValues()) {
+                    values.put(value.getName(), value);
+                }
+                this.enumValues = new NameTable<EnumValueDescriptor>(values);
+            } else {
+                this.enumValues = null;
+            }
+        }
+
+        MessageTable getMessageTable() {
+            if (messageTable == null) {
+                messageTable = getTable(descriptor.getMessageType());
+            }
+            return messageTable;
+        }
+    }
+
+    private static class MessageTable {
+        final NameTable<Field> fields;
+        final Field[] messageFields;
+        final long requiredMask;
+        final boolean supported;
+
+        MessageTable(Descriptor descriptor) {
+            Map<String, Field> fieldsByName = new HashMap<String, Field>();
+            List<Field> messageFields = new ArrayList<Field>();
+            int requiredCount = 0;
+            for (FieldDescriptor field : descriptor.getFields()) {
+                int requiredBit = field.isRequired() ? requiredCount++ : -1;
+                switch (field.getType()) {
+                case GROUP:
+                    // Not in the table, so left to TextFormat when found
+                    break;
+                case MESSAGE:
+                    int messageBit = -1;
+                    if (!field.isRepeated()) {
+                        messageBit = messageFields.size();
+                    }
+                    Field f = new Field(field, WIRETYPE_LENGTH_DELIMITED, requiredBit, messageBit);
+                    if (messageBit >= 0) {
+                        messageFields.add(f);
+                    }
+                    fieldsByName.put(field.getName(), f);
+                    break;
+                default:
+                    fieldsByName.put(field.getName(), new Field(field, wireType(field.getType()), requiredBit, -1));
+                    break;
+                }
+            }
+            this.fields = new NameTable<Field>(fieldsByName);
+            this.messageFields = messageFields.toArray(new Field[messageFields.size()]);
+            this.requiredMask = requiredCount == 64 ? -1L : (1L << requiredCount) - 1;
+            this.supported = requiredCount <= 64 && messageFields.size() <= 64;
+        }
+
+        private static int wireType(FieldDescriptor.Type type) {
+            switch (type) {
+            case STRING:
+            case BYTES:
+                return WIRETYPE_LENGTH_DELIMITED;
+            case FIXED32:
+            case SFIXED32:
+            case FLOAT:
+                return WIRETYPE_FIXED32;
+            case FIXED64:
+            case SFIXED64:
+            case DOUBLE:
+                return WIRETYPE_FIXED64;
+            default:
+                return WIRETYPE_VARINT;
+            }
+        }
+    }
+
+    private static final Map<Descriptor, MessageTable> tables = new ConcurrentHashMap<Descriptor, MessageTable>();
+
+    private static MessageTable getTable(Descriptor descriptor) {
+        MessageTable table = tables.get(descriptor);
+        if (table == null) {
+            table = new MessageTable(descriptor);
+            tables.put(descriptor, table);
+        }
+        return table;
+    }
+
+    private final byte[] in;
+    private int pos;
+    private int tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+
+    private byte[] out;
+    private int outPos;
+
+    private TextFormatParser(byte[] content) {
+        this.in = content;
+        this.out = new byte[Math.max(64, content.length / 2)];
+    }
+
+    /**
+     * Merge text format content into a builder, equivalent to TextFormat.merge
+     * @param content UTF-8 encoded text format
+     * @param builder builder to merge into
+     * @return true if merged, false if the content has to be merged with TextFormat, in
+     * which case the builder is left unmodified
+     * @throws InvalidProtocolBufferException
+     */
+    public static boolean merge(byte[] content, Message.Builder builder) throws InvalidProtocolBufferException {
+        MessageTable table = getTable(builder.getDescriptorForType());
+        TextFormatParser parser = new TextFormatParser(content);
+        long messageFieldsMask;
+        try {
+            parser.nextToken();
+            messageFieldsMask = parser.parseMessage(table, (byte) 0);
+        } catch (UnsupportedContentException e) {
+            return false;
+        }
+        // TextFormat replaces non repeated message fields while the wire format merges them
+        for (int i = 0; i < table.messageFields.length; ++i) {
+            if ((messageFieldsMask & (1L << i)) != 0) {
+                builder.clearField(table.messageFields[i].descriptor);
+            }
+        }
+        builder.mergeFrom(parser.out, 0, parser.outPos);
+        return true;
+    }
+
+    /**
+     * Parse the fields of a message up to the closing symbol, 0 for the end of the content
+     * @return mask of the parsed non repeated message fields
+     */
+    private long parseMessage(MessageTable table, byte close) throws UnsupportedContentException {
+        if (!table.supported) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        long requiredMask = 0;
+        long messageFieldsMask = 0;
+        while (true) {
+            if (tokenType == TOKEN_END) {
+                if (close == 0) {
+                    break;
+                }
+                throw UnsupportedContentException.INSTANCE;
+            }
+            if (close != 0 && tryConsumeSymbol(close)) {
+                break;
+            }
+            if (tokenType != TOKEN_IDENTIFIER) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+            Field field = table.fields.get(in, tokenStart, tokenEnd - tokenStart);
+            if (field == null) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+            nextToken();
+            if (field.requiredBit >= 0) {
+                requiredMask |= 1L << field.requiredBit;
+            }
+            if (field.messageBit >= 0) {
+                long bit = 1L << field.messageBit;
+                if ((messageFieldsMask & bit) != 0) {
+                    // Replaced by TextFormat, see merge
+                    throw UnsupportedContentException.INSTANCE;
+                }
+                messageFieldsMask |= bit;
+            }
+            parseField(field);
+        }
+        // TextFormat builds nested messages, which fails when required fields are missing
+        if (close != 0 && requiredMask != table.requiredMask) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return messageFieldsMask;
+    }
+
+    private void parseField(Field field) throws UnsupportedContentException {
+        FieldDescriptor.Type type = field.descriptor.getType();
+        if (type == FieldDescriptor.Type.MESSAGE) {
+            tryConsumeSymbol((byte) ':');
+            byte close;
+            if (tryConsumeSymbol((byte) '<')) {
+                close = '>';
+            } else if (tryConsumeSymbol((byte) '{')) {
+                close = '}';
+            } else {
+                throw UnsupportedContentException.INSTANCE;
+            }
+            writeVarint(field.tag);
+            int start = outPos;
+            parseMessage(field.getMessageTable(), close);
+            insertLength(start);
+            return;
+        }
+
+        if (!tryConsumeSymbol((byte) ':')) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        writeVarint(field.tag);
+        switch (type) {
+        case INT32:
+            writeVarint(parseInteger(true, 32));
+            break;
+        case SINT32:
+            int sint32 = (int) parseInteger(true, 32);
+            writeVarint(((sint32 << 1) ^ (sint32 >> 31)) & 0xffffffffL);
+            break;
+        case SFIXED32:
+            writeFixed32((int) parseInteger(true, 32));
+            break;
+        case UINT32:
+            writeVarint(parseInteger(false, 32));
+            break;
+        case FIXED32:
+            writeFixed32((int) parseInteger(false, 32));
+            break;
+        case INT64:
+            writeVarint(parseInteger(true, 64));
+            break;
+        case SINT64:
+            long sint64 = parseInteger(true, 64);
+            writeVarint((sint64 << 1) ^ (sint64 >> 63));
+            break;
+        case SFIXED64:
+            writeFixed64(parseInteger(true, 64));
+            break;
+        case UINT64:
+            writeVarint(parseInteger(false, 64));
+            break;
+        case FIXED64:
+            writeFixed64(parseInteger(false, 64));
+            break;
+        case FLOAT:
+            writeFixed32(Float.floatToRawIntBits(parseFloat()));
+            break;
+        case DOUBLE:
+            writeFixed64(Double.doubleToRawLongBits(parseDouble()));
+            break;
+        case BOOL:
+            writeVarint(parseBoolean() ? 1 : 0);
+            break;
+        case ENUM:
+            writeVarint(parseEnum(field));
+            break;
+        case STRING:
+            int stringStart = outPos;
+            parseString();
+            // TextFormat decodes the unescaped bytes as UTF-8, which replaces invalid sequences
+            if (!isValidUtf8(out, stringStart, outPos)) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+            insertLength(stringStart);
+            break;
+        case BYTES:
+            int bytesStart = outPos;
+            parseString();
+            insertLength(bytesStart);
+            break;
+        default:
+            throw UnsupportedContentException.INSTANCE;
+        }
+    }
+
+    /**
+     * Parse a decimal integer. Hex and octal notation is left to TextFormat.
+     * @param signed true for signed types
+     * @param bits 32 or 64
+     * @return value, unsigned 64 bit values above Long.MAX_VALUE are negative
+     */
+    private long parseInteger(boolean signed, int bits) throws UnsupportedContentException {
+        if (tokenType != TOKEN_NUMBER) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        int p = tokenStart;
+        boolean negative = false;
+        if (in[p] == '-') {
+            if (!signed) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+            negative = true;
+            ++p;
+        }
+        int digits = tokenEnd - p;
+        if (digits == 0 || digits > 20 || (in[p] == '0' && digits > 1)) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        for (int i = p; i < tokenEnd; ++i) {
+            if (!isDigit(in[i])) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+        }
+        long value;
+        if (digits <= 18) {
+            // Always fits in a long
+            value = 0;
+            for (int i = p; i < tokenEnd; ++i) {
+                value = value * 10 + (in[i] - '0');
+            }
+            if (negative) {
+                value = -value;
+            }
+            if (bits == 32) {
+                long min = signed ? Integer.MIN_VALUE : 0;
+                long max = signed ? Integer.MAX_VALUE : 0xffffffffL;
+                if (value < min || value > max) {
+                    throw UnsupportedContentException.INSTANCE;
+                }
+            }
+        } else {
+            BigInteger big = new BigInteger(new String(in, tokenStart, tokenEnd - tokenStart, StandardCharsets.US_ASCII));
+            if (bits == 32 || big.bitLength() > (signed ? 63 : 64)) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+            value = big.longValue();
+        }
+        nextToken();
+        return value;
+    }
+
+    /**
+     * Parse the digits of a plain decimal number, [-]digits[.digits], into the
+     * significand and number of fraction digits
+     * @return significand, or -1 if not a plain decimal number or the significand
+     * exceeds the limit
+     */
+    private long parseDecimal(long maxSignificand, int[] fractionDigits) {
+        int p = tokenStart;
+        if (in[p] == '-') {
+            ++p;
+        }
+        long significand = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; p < tokenEnd; ++p) {
+            byte c = in[p];
+            if (c == '.' && fraction < 0 && digits > 0) {
+                fraction = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            significand = significand * 10 + digit;
+            if (significand > maxSignificand) {
+                return -1;
+            }
+            ++digits;
+            if (fraction >= 0) {
+                ++fraction;
+            }
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        fractionDigits[0] = Math.max(fraction, 0);
+        return significand;
+    }
+
+    /**
+     * Get the text of a number token for Float.parseFloat and Double.parseDouble. Tokens
+     * for infinity and NaN are left to TextFormat since it matches them separately.
+     */
+    private String numberText() throws UnsupportedContentException {
+        if (tokenType != TOKEN_NUMBER) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        int p = tokenStart;
+        if (in[p] == '-' && p + 1 < tokenEnd) {
+            ++p;
+        }
+        if (isLetter(in[p])) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return new String(in, tokenStart, tokenEnd - tokenStart, StandardCharsets.US_ASCII);
+    }
+
+    private float parseFloat() throws UnsupportedContentException {
+        if (tokenType != TOKEN_NUMBER) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        // A significand below 2^24 and a power of ten below 10^11 are exact floats,
+        // and the division of two exact floats is correctly rounded
+        int[] fraction = new int[1];
+        long significand = parseDecimal(1L << 24, fraction);
+        float value;
+        if (significand >= 0 && fraction[0] < FLOAT_POWERS_OF_TEN.length) {
+            value = significand / FLOAT_POWERS_OF_TEN[fraction[0]];
+            if (in[tokenStart] == '-') {
+                value = -value;
+            }
+        } else {
+            try {
+                value = Float.parseFloat(numberText());
+            } catch (NumberFormatException e) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+        }
+        nextToken();
+        return value;
+    }
+
+    private double parseDouble() throws UnsupportedContentException {
+        if (tokenType != TOKEN_NUMBER) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        // Same as parseFloat, with a significand below 2^53 and powers up to 10^22
+        int[] fraction = new int[1];
+        long significand = parseDecimal(1L << 53, fraction);
+        double value;
+        if (significand >= 0 && fraction[0] < DOUBLE_POWERS_OF_TEN.length) {
+            value = significand / DOUBLE_POWERS_OF_TEN[fraction[0]];
+            if (in[tokenStart] == '-') {
+                value = -value;
+            }
+        } else {
+            try {
+                value = Double.parseDouble(numberText());
+            } catch (NumberFormatException e) {
+                throw UnsupportedContentException.INSTANCE;
+            }
+        }
+        nextToken();
+        return value;
+    }
+
+    private boolean parseBoolean() throws UnsupportedContentException {
+        boolean value;
+        if (isToken("true")) {
+            value = true;
+        } else if (isToken("false")) {
+            value = false;
+        } else {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        nextToken();
+        return value;
+    }
+
+    private long parseEnum(Field field) throws UnsupportedContentException {
+        if (tokenType != TOKEN_IDENTIFIER) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        EnumValueDescriptor value = field.enumValues.get(in, tokenStart, tokenEnd - tokenStart);
+        if (value == null) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        nextToken();
+        // Encoded as int32, negative values sign extended
+        return value.getNumber();
+    }
+
+    /**
+     * Parse a string, and any directly following strings which are concatenated, and
+     * write the unescaped bytes to the output
+     */
+    private void parseString() throws UnsupportedContentException {
+        if (tokenType != TOKEN_STRING) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        do {
+            unescape(tokenStart + 1, tokenEnd - 1);
+            nextToken();
+        } while (tokenType == TOKEN_STRING);
+    }
+
+    private void unescape(int start, int end) throws UnsupportedContentException {
+        ensureCapacity(end - start);
+        for (int i = start; i < end; ++i) {
+            byte c = in[i];
+            if (c != '\\') {
+                out[outPos++] = c;
+                continue;
+            }
+            // The tokenizer only accepts strings with a character after each backslash
+            c = in[++i];
+            if (c >= '0' && c <= '7') {
+                int code = c - '0';
+                for (int n = 0; n < 2 && i + 1 < end && in[i + 1] >= '0' && in[i + 1] <= '7'; ++n) {
+                    code = code * 8 + (in[++i] - '0');
+                }
+                out[outPos++] = (byte) code;
+                continue;
+            }
+            switch (c) {
+            case 'a': out[outPos++] = 0x07; break;
+            case 'b': out[outPos++] = '\b'; break;
+            case 'f': out[outPos++] = '\f'; break;
+            case 'n': out[outPos++] = '\n'; break;
+            case 'r': out[outPos++] = '\r'; break;
+            case 't': out[outPos++] = '\t'; break;
+            case 'v': out[outPos++] = 0x0b; break;
+            case '\\': out[outPos++] = '\\'; break;
+            case '\'': out[outPos++] = '\''; break;
+            case '"': out[outPos++] = '"'; break;
+            case 'x':
+                int code = 0;
+                int n = 0;
+                for (; n < 2 && i + 1 < end && hexDigit(in[i + 1]) >= 0; ++n) {
+                    code = code * 16 + hexDigit(in[++i]);
+                }
+                if (n == 0) {
+                    throw UnsupportedContentException.INSTANCE;
+                }
+                out[outPos++] = (byte) code;
+                break;
+            default:
+                throw UnsupportedContentException.INSTANCE;
+            }
+        }
+    }
+
+    private static int hexDigit(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Check that bytes are well formed UTF-8 and decode to a string that encodes to
+     * the same bytes
+     */
+    static boolean isValidUtf8(byte[] buffer, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int c = buffer[i++];
+            if (c >= 0) {
+                continue;
+            }
+            c &= 0xff;
+            int count;
+            int min = 0x80;
+            int max = 0xbf;
+            if (c < 0xc2) {
+                return false;
+            } else if (c < 0xe0) {
+                count = 1;
+            } else if (c < 0xf0) {
+                count = 2;
+                if (c == 0xe0) {
+                    min = 0xa0;
+                } else if (c == 0xed) {
+                    // Surrogates
+                    max = 0x9f;
+                }
+            } else if (c < 0xf5) {
+                count = 3;
+                if (c == 0xf0) {
+                    min = 0x90;
+                } else if (c == 0xf4) {
+                    max = 0x8f;
+                }
+            } else {
+                return false;
+            }
+            if (end - i < count) {
+                return false;
+            }
+            int c2 = buffer[i] & 0xff;
+            if (c2 < min || c2 > max) {
+                return false;
+            }
+            for (int n = 1; n < count; ++n) {
+                int cn = buffer[i + n] & 0xff;
+                if (cn < 0x80 || cn > 0xbf) {
+                    return false;
+                }
+            }
+            i += count;
+        }
+        return true;
+    }
+
+    private boolean isToken(String text) {
+        int length = tokenEnd - tokenStart;
+        if (tokenType != TOKEN_IDENTIFIER || length != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (in[tokenStart + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tryConsumeSymbol(byte symbol) {
+        if (tokenType == TOKEN_SYMBOL && in[tokenStart] == symbol) {
+            nextToken();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isLetter(byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNumberStart(byte c) {
+        return isDigit(c) || c == '+' || c == '-';
+    }
+
+    /**
+     * Read the next token, split the same way as the TextFormat tokenizer. Content that
+     * TextFormat would decode differently, non ASCII bytes in strings and comments, or
+     * reject, unterminated strings, is left to TextFormat.
+     */
+    private void nextToken() {
+        // Whitespace and comments
+        while (pos < in.length) {
+            byte c = in[pos];
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == 0x0b || c == '\f') {
+                ++pos;
+            } else if (c == '#') {
+                ++pos;
+                while (pos < in.length && in[pos] != '\n' && in[pos] != '\r') {
+                    if (in[pos] < 0) {
+                        tokenType = TOKEN_UNSUPPORTED;
+                        tokenStart = pos;
+                        tokenEnd = pos;
+                        return;
+                    }
+                    ++pos;
+                }
+            } else {
+                break;
+            }
+        }
+
+        tokenStart = pos;
+        if (pos == in.length) {
+            tokenType = TOKEN_END;
+            tokenEnd = pos;
+            return;
+        }
+
+        byte c = in[pos++];
+        if (isLetter(c) || c == '_') {
+            tokenType = TOKEN_IDENTIFIER;
+            while (pos < in.length) {
+                c = in[pos];
+                if (!(isLetter(c) || isDigit(c) || c == '_' || c == '+' || c == '-')) {
+                    break;
+                }
+                ++pos;
+            }
+        } else if (isNumberStart(c) || (c == '.' && pos < in.length && isNumberStart(in[pos]))) {
+            tokenType = TOKEN_NUMBER;
+            while (pos < in.length) {
+                c = in[pos];
+                if (!(isLetter(c) || isDigit(c) || c == '_' || c == '.' || c == '+' || c == '-')) {
+                    break;
+                }
+                ++pos;
+            }
+        } else if (c == '"' || c == '\'') {
+            byte quote = c;
+            tokenType = TOKEN_UNSUPPORTED;
+            while (pos < in.length) {
+                c = in[pos++];
+                if (c == quote) {
+                    tokenType = TOKEN_STRING;
+                    break;
+                }
+                if (c == '\\') {
+                    // Escaped line breaks end the token in TextFormat
+                    if (pos == in.length || in[pos] == '\n' || in[pos] == '\r') {
+                        break;
+                    }
+                    c = in[pos++];
+                }
+                if (c == '\n' || c < 0) {
+                    break;
+                }
+            }
+        } else {
+            tokenType = TOKEN_SYMBOL;
+        }
+        tokenEnd = pos;
+    }
+
+    private void ensureCapacity(int size) {
+        if (outPos + size > out.length) {
+            byte[] newOut = new byte[Math.max(out.length * 2, outPos + size)];
+            System.arraycopy(out, 0, newOut, 0, outPos);
+            out = newOut;
+        }
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            out[outPos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out[outPos++] = (byte) value;
+    }
+
+    private void writeFixed32(int value) {
+        ensureCapacity(4);
+        for (int i = 0; i < 4; ++i) {
+            out[outPos++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    private void writeFixed64(long value) {
+        ensureCapacity(8);
+        for (int i = 0; i < 8; ++i) {
+            out[outPos++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    /**
+     * Prefix the output written since start with its length, as for embedded messages,
+     * strings and bytes
+     */
+    private void insertLength(int start) {
+        int length = outPos - start;
+        int size = 1;
+        while ((length >>> (7 * size)) != 0) {
+            ++size;
+        }
+        ensureCapacity(size);
+        System.arraycopy(out, start, out, start + size, length);
+        int end = outPos + size;
+        outPos = start;
+        writeVarint(length);
+        outPos = end;
+    }
+}
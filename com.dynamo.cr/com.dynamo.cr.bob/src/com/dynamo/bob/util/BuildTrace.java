@@ -0,0 +1,287 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Timing of the tasks of a build. Events are recorded concurrently by the build
+ * workers and can be written in the Chrome trace event format, viewable in
+ * chrome://tracing or https://ui.perfetto.dev, or summarized per builder.
+ */
+public class BuildTrace {
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * A timed event, e.g. the creation or the build of a task
+     */
+    public static class Event {
+        String category;
+        String name;
+        String builder;
+        String status;
+        long threadId;
+        String threadName;
+        long start;
+        long duration;
+        long cpuTime;
+        long bytesRead;
+        long bytesWritten;
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getBuilder() {
+            return builder;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the wall time of the event
+         * @return duration in nanoseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Get the CPU time of the thread during the event
+         * @return CPU time in nanoseconds, 0 if not supported by the JVM
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+
+    private final long startTime = System.nanoTime();
+    private final List<Event> events = new ArrayList<Event>();
+
+    /**
+     * Get the current time to pass as start time to {@link #add}
+     * @return time in nanoseconds
+     */
+    public long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Get the CPU time of the current thread to pass as start CPU time to {@link #add}
+     * @return CPU time in nanoseconds, 0 if not supported by the JVM
+     */
+    public long cpuTime() {
+        if (threadBean.isCurrentThreadCpuTimeSupported()) {
+            return threadBean.getCurrentThreadCpuTime();
+        }
+        return 0;
+    }
+
+    /**
+     * Add an event ending now on the current thread
+     * @param category event category, e.g. "create" or "build"
+     * @param name event name, e.g. the path of the input
+     * @param builder simple class name of the builder, or null
+     * @param status outcome of the event, e.g. "built", or null
+     * @param start start time as returned by {@link #now()}
+     * @param cpuStart CPU time at the start as returned by {@link #cpuTime()}
+     * @param bytesRead number of bytes read
+     * @param bytesWritten number of bytes written
+     */
+    public void add(String category, String name, String builder, String status, long start, long cpuStart, long bytesRead, long bytesWritten) {
+        Event event = new Event();
+        event.category = category;
+        event.name = name;
+        event.builder = builder;
+        event.status = status;
+        event.threadId = Thread.currentThread().getId();
+        event.threadName = Thread.currentThread().getName();
+        event.start = start - startTime;
+        event.duration = now() - start;
+        event.cpuTime = cpuStart != 0 ? cpuTime() - cpuStart : 0;
+        event.bytesRead = bytesRead;
+        event.bytesWritten = bytesWritten;
+        synchronized (events) {
+            events.add(event);
+        }
+    }
+
+    public List<Event> getEvents() {
+        synchronized (events) {
+            return new ArrayList<Event>(events);
+        }
+    }
+
+    /**
+     * Write the events in the Chrome trace event format
+     * @param file file to write
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        List<Event> events = getEvents();
+        FileWriter writer = new FileWriter(file);
+        JsonGenerator generator = null;
+        try {
+            generator = (new JsonFactory()).createJsonGenerator(writer);
+            generator.writeStartObject();
+            generator.writeFieldName("traceEvents");
+            generator.writeStartArray();
+
+            Map<Long, String> threads = new LinkedHashMap<Long, String>();
+            for (Event event : events) {
+                threads.put(event.threadId, event.threadName);
+            }
+            for (Map.Entry<Long, String> thread : threads.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", "thread_name");
+                generator.writeStringField("ph", "M");
+                generator.writeNumberField("pid", 1);
+                generator.writeNumberField("tid", thread.getKey());
+                generator.writeFieldName("args");
+                generator.writeStartObject();
+                generator.writeStringField("name", thread.getValue());
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+
+            for (Event event : events) {
+                generator.writeStartObject();
+                generator.writeStringField("name", event.name);
+                generator.writeStringField("cat", event.category);
+                generator.writeStringField("ph", "X");
+                // Timestamps are in microseconds
+                generator.writeNumberField("ts", event.start / 1000);
+                generator.writeNumberField("dur", event.duration / 1000);
+                generator.writeNumberField("pid", 1);
+                generator.writeNumberField("tid", event.threadId);
+                generator.writeFieldName("args");
+                generator.writeStartObject();
+                if (event.builder != null) {
+                    generator.writeStringField("builder", event.builder);
+                }
+                if (event.status != null) {
+                    generator.writeStringField("status", event.status);
+                }
+                generator.writeNumberField("cpu_us", event.cpuTime / 1000);
+                generator.writeNumberField("bytes_read", event.bytesRead);
+                generator.writeNumberField("bytes_written", event.bytesWritten);
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            generator.writeStringField("displayTimeUnit", "ms");
+            generator.writeEndObject();
+        } finally {
+            if (generator != null) {
+                generator.close();
+            }
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private static class BuilderTotal {
+        String builder;
+        int count;
+        long duration;
+        long cpuTime;
+        long bytesRead;
+        long bytesWritten;
+    }
+
+    /**
+     * Summarize the built tasks in two tables, the builders with the most total
+     * wall time and the slowest single tasks
+     * @param count maximum number of rows per table
+     * @return summary text
+     */
+    public String getSummary(int count) {
+        List<Event> built = new ArrayList<Event>();
+        Map<String, BuilderTotal> totals = new HashMap<String, BuilderTotal>();
+        for (Event event : getEvents()) {
+            if (!event.category.equals("build") || event.builder == null) {
+                continue;
+            }
+            built.add(event);
+            BuilderTotal total = totals.get(event.builder);
+            if (total == null) {
+                total = new BuilderTotal();
+                total.builder = event.builder;
+                totals.put(event.builder, total);
+            }
+            total.count++;
+            total.duration += event.duration;
+            total.cpuTime += event.cpuTime;
+            total.bytesRead += event.bytesRead;
+            total.bytesWritten += event.bytesWritten;
+        }
+
+        List<BuilderTotal> builders = new ArrayList<BuilderTotal>(totals.values());
+        Collections.sort(builders, new Comparator<BuilderTotal>() {
+            @Override
+            public int compare(BuilderTotal b1, BuilderTotal b2) {
+                return Long.compare(b2.duration, b1.duration);
+            }
+        });
+        Collections.sort(built, new Comparator<Event>() {
+            @Override
+            public int compare(Event e1, Event e2) {
+                return Long.compare(e2.duration, e1.duration);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Slowest builders:\n");
+        sb.append(String.format("  %-32s %7s %10s %10s %12s %12s\n", "Builder", "Tasks", "Wall (ms)", "CPU (ms)", "Read (KB)", "Written (KB)"));
+        for (BuilderTotal total : builders.subList(0, Math.min(count, builders.size()))) {
+            sb.append(String.format("  %-32s %7d %10d %10d %12d %12d\n", total.builder, total.count,
+                    total.duration / 1000000, total.cpuTime / 1000000, total.bytesRead / 1024, total.bytesWritten / 1024));
+        }
+        sb.append("Slowest resources:\n");
+        sb.append(String.format("  %-10s %-12s %-32s %s\n", "Wall (ms)", "Status", "Builder", "Resource"));
+        for (Event event : built.subList(0, Math.min(count, built.size()))) {
+            sb.append(String.format("  %-10d %-12s %-32s %s\n", event.duration / 1000000, event.status, event.builder, event.name));
+        }
+        return sb.toString();
+    }
+}
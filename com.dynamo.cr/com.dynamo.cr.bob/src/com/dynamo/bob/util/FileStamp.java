@@ -0,0 +1,85 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Size, modification time and file key (e.g. the inode, where supported) of a file.
+ * Data cached for a file, e.g. digests saved next to it, is valid as long as the
+ * stamp of the file is unchanged.
+ */
+public class FileStamp {
+    private final long size;
+    private final long mTime;
+    private final String fileKey;
+
+    private FileStamp(long size, long mTime, String fileKey) {
+        this.size = size;
+        this.mTime = mTime;
+        this.fileKey = fileKey;
+    }
+
+    public FileStamp(BasicFileAttributes attributes) {
+        this(attributes.size(), attributes.lastModifiedTime().toMillis(), getFileKey(attributes));
+    }
+
+    private static String getFileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey != null ? fileKey.toString() : "";
+    }
+
+    /**
+     * Read the attributes of a file
+     * @param file file to read the attributes of
+     * @return attributes or null if the file doesn't exist
+     * @throws IOException
+     */
+    public static BasicFileAttributes readAttributes(File file) throws IOException {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public static FileStamp read(DataInput in) throws IOException {
+        long size = in.readLong();
+        long mTime = in.readLong();
+        String fileKey = in.readUTF();
+        return new FileStamp(size, mTime, fileKey);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(mTime);
+        out.writeUTF(fileKey);
+    }
+
+    /**
+     * Check if a file still has this stamp
+     * @param attributes current attributes of the file
+     * @return true if the size, modification time and file key are unchanged
+     */
+    public boolean matches(BasicFileAttributes attributes) {
+        return size == attributes.size()
+            && mTime == attributes.lastModifiedTime().toMillis()
+            && fileKey.equals(getFileKey(attributes));
+    }
+}
@@ -17,8 +17,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
@@ -149,4 +153,33 @@ public class LibraryUtil {
         }
         return result;
     }
+
+    /**
+     * Read the comment of a zip archive, e.g. the SHA1 of a library archive, without
+     * reading the central directory of the archive.
+     *
+     * @param file zip archive
+     * @return the comment, or null if there is no comment or the file isn't a zip archive
+     * @throws IOException
+     */
+    public static String readArchiveComment(File file) throws IOException {
+        final int endSize = 22;
+        final int endSignature = 0x06054b50;
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            int tailSize = (int) Math.min(f.length(), endSize + 0xFFFF);
+            ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+            f.seek(f.length() - tailSize);
+            f.readFully(tail.array());
+            for (int end = tailSize - endSize; end >= 0; --end) {
+                int commentLength = tail.getShort(end + 20) & 0xFFFF;
+                if (tail.getInt(end) == endSignature && end + endSize + commentLength == tailSize) {
+                    return commentLength > 0 ? new String(tail.array(), end + endSize, commentLength, StandardCharsets.UTF_8) : null;
+                }
+            }
+            return null;
+        } finally {
+            f.close();
+        }
+    }
 }
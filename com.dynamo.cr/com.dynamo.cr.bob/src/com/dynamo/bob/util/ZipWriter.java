@@ -0,0 +1,552 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Zip archive writer for entries that are compressed before they are written, e.g.
+ * concurrently by {@link #putEntries(List, int)}, or copied compressed from another
+ * archive, see {@link #readCompressed(File, Collection)}. The archive is written
+ * sequentially and uses the Zip64 extensions when there are more than 65535 entries
+ * or it is larger than 4 GB.
+ */
+public class ZipWriter implements Closeable {
+
+    // Deflated data is stored uncompressed unless it's at least 1/16 smaller
+    private static final int MIN_DEFLATE_SAVING_SHIFT = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    /**
+     * Entry to write, with the data as it is stored in the archive
+     */
+    public static class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long size;
+        final byte[] data;
+        final int offset;
+        final long length;
+        // Stored entries of large files are read from the file when written
+        final File file;
+        long time = -1;
+
+        Entry(String name, int method, long crc, long size, byte[] data, int offset, long length, File file) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.file = file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCompressedSize() {
+            return length;
+        }
+
+        /**
+         * Set the modification time of the entry, the time the writer was created by default
+         * @param time time in milliseconds since the epoch
+         */
+        public void setTime(long time) {
+            this.time = time;
+        }
+
+        /**
+         * Get a copy of the entry with another name
+         * @param name name of the copy
+         * @return copy
+         */
+        public Entry withName(String name) {
+            Entry entry = new Entry(name, method, crc, size, data, offset, length, file);
+            entry.time = time;
+            return entry;
+        }
+    }
+
+    // Written to the central directory when the archive is closed
+    private static class CentralEntry {
+        final Entry entry;
+        final long headerOffset;
+
+        CentralEntry(Entry entry, long headerOffset) {
+            this.entry = entry;
+            this.headerOffset = headerOffset;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final long defaultTime;
+    private final List<CentralEntry> entries = new ArrayList<CentralEntry>();
+    private long position = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a writer
+     * @param out stream to write the archive to, closed when the writer is closed
+     */
+    public ZipWriter(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.defaultTime = System.currentTimeMillis();
+    }
+
+    private static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Create an entry that is stored uncompressed
+     * @param name name of the entry
+     * @param data content of the entry
+     * @return entry
+     */
+    public static Entry stored(String name, byte[] data) {
+        return new Entry(name, ZipEntry.STORED, crc(data, 0, data.length), data.length, data, 0, data.length, null);
+    }
+
+    /**
+     * Create an entry that is stored uncompressed, without reading the file into memory
+     * @param name name of the entry
+     * @param file file with the content of the entry
+     * @return entry
+     * @throws IOException
+     */
+    public static Entry stored(String name, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+                size += n;
+            }
+        } finally {
+            is.close();
+        }
+        return new Entry(name, ZipEntry.STORED, crc.getValue(), size, null, 0, size, file);
+    }
+
+    /**
+     * Create an entry that is deflated, or stored uncompressed if it doesn't compress well
+     * @param name name of the entry
+     * @param data content of the entry
+     * @param level compression level, see {@link Deflater}
+     * @return entry
+     */
+    public static Entry deflated(String name, byte[] data, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(64, data.length))];
+            long maxSize = data.length - (data.length >> MIN_DEFLATE_SAVING_SHIFT);
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+                if (compressed.size() >= maxSize) {
+                    return stored(name, data);
+                }
+            }
+            return new Entry(name, ZipEntry.DEFLATED, crc(data, 0, data.length), data.length, compressed.toByteArray(), 0, compressed.size(), null);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Create an entry from data that is already compressed, e.g. read from another archive
+     * @param name name of the entry
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param crc CRC-32 of the uncompressed data
+     * @param size size of the uncompressed data
+     * @param data compressed data
+     * @param offset offset of the compressed data in data
+     * @param length size of the compressed data
+     * @return entry
+     */
+    public static Entry compressed(String name, int method, long crc, long size, byte[] data, int offset, int length) {
+        return new Entry(name, method, crc, size, data, offset, length, null);
+    }
+
+    private static boolean isIncluded(String name, Collection<String> names) {
+        for (String n : names) {
+            if (n.endsWith("/") ? name.startsWith(n) : name.equals(n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read entries of an archive as they are stored, to copy them to another archive
+     * without decompressing and compressing them again
+     * @param file archive to read
+     * @param names names of the entries to read, names ending with "/" include all entries in the directory
+     * @return entries, in the order of the archive. Directory entries are skipped.
+     * @throws IOException
+     */
+    public static List<Entry> readCompressed(File file, Collection<String> names) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            int tailSize = (int) Math.min(f.length(), END_SIZE + 0xFFFF);
+            ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+            f.seek(f.length() - tailSize);
+            f.readFully(tail.array());
+            int end = tailSize - END_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+                --end;
+            }
+            if (end < 0) {
+                throw new IOException(String.format("'%s' is not a zip archive", file));
+            }
+            int count = tail.getShort(end + 10) & 0xFFFF;
+            long centralSize = tail.getInt(end + 12) & ZIP64_MAGIC;
+            long centralOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+            if (count == ZIP64_MAGIC_COUNT || centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC) {
+                throw new IOException(String.format("Zip64 archives are not supported: '%s'", file));
+            }
+
+            ByteBuffer central = ByteBuffer.allocate((int) centralSize).order(ByteOrder.LITTLE_ENDIAN);
+            f.seek(centralOffset);
+            f.readFully(central.array());
+            ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int p = 0;
+            for (int i = 0; i < count; ++i) {
+                if (central.getInt(p) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException(String.format("Invalid central directory in '%s'", file));
+                }
+                int flags = central.getShort(p + 8) & 0xFFFF;
+                int method = central.getShort(p + 10) & 0xFFFF;
+                int dosTime = central.getInt(p + 12);
+                long crc = central.getInt(p + 16) & ZIP64_MAGIC;
+                long compressedSize = central.getInt(p + 20) & ZIP64_MAGIC;
+                long size = central.getInt(p + 24) & ZIP64_MAGIC;
+                int nameLength = central.getShort(p + 28) & 0xFFFF;
+                int extraLength = central.getShort(p + 30) & 0xFFFF;
+                int commentLength = central.getShort(p + 32) & 0xFFFF;
+                long headerOffset = central.getInt(p + 42) & ZIP64_MAGIC;
+                String name = new String(central.array(), p + CENTRAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+                p += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+                if (name.endsWith("/") || !isIncluded(name, names)) {
+                    continue;
+                }
+                if ((flags & FLAG_ENCRYPTED) != 0 || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)) {
+                    throw new IOException(String.format("Unsupported zip entry '%s' in '%s'", name, file));
+                }
+
+                f.seek(headerOffset);
+                f.readFully(local.array());
+                if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new IOException(String.format("Invalid zip entry '%s' in '%s'", name, file));
+                }
+                byte[] data = new byte[(int) compressedSize];
+                f.seek(headerOffset + LOCAL_HEADER_SIZE + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF));
+                f.readFully(data);
+                Entry entry = new Entry(name, method, crc, size, data, 0, data.length, null);
+                entry.time = javaTime(dosTime);
+                entries.add(entry);
+            }
+        } finally {
+            f.close();
+        }
+        return entries;
+    }
+
+    private static int dosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static long javaTime(int dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f,
+                (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+        return calendar.getTimeInMillis();
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (name.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.writeShort(Short.reverseBytes((short) value));
+        position += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        out.writeInt(Integer.reverseBytes((int) value));
+        position += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        out.writeLong(Long.reverseBytes(value));
+        position += 8;
+    }
+
+    private void writeBytes(byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        position += length;
+    }
+
+    /**
+     * Write an entry
+     * @param entry entry to write
+     * @throws IOException
+     */
+    public void putEntry(Entry entry) throws IOException {
+        if (closed) {
+            throw new IOException("Zip archive is closed");
+        }
+        if (entry.size >= ZIP64_MAGIC || entry.length >= ZIP64_MAGIC) {
+            throw new IOException(String.format("Zip entry '%s' is too large", entry.name));
+        }
+        if (entry.time == -1) {
+            entry.time = defaultTime;
+        }
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        entries.add(new CentralEntry(entry, position));
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(VERSION);
+        writeShort(isAscii(entry.name) ? 0 : FLAG_UTF8);
+        writeShort(entry.method);
+        writeInt(dosTime(entry.time));
+        writeInt(entry.crc);
+        writeInt(entry.length);
+        writeInt(entry.size);
+        writeShort(name.length);
+        writeShort(0);
+        writeBytes(name, 0, name.length);
+        if (entry.file != null) {
+            writeFile(entry.file, entry.length);
+        } else {
+            writeBytes(entry.data, entry.offset, (int) entry.length);
+        }
+    }
+
+    private void writeFile(File file, long length) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n <= 0) {
+                    break;
+                }
+                writeBytes(buffer, 0, n);
+                remaining -= n;
+            }
+            if (remaining != 0 || is.read() != -1) {
+                throw new IOException(String.format("'%s' changed while it was written to the zip archive", file));
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Create entries concurrently and write them in order. At most a few entries per
+     * thread are kept in memory at a time.
+     * @param tasks tasks creating the entries
+     * @param threads number of threads to create the entries on
+     * @throws IOException
+     */
+    public void putEntries(List<? extends Callable<Entry>> tasks, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        Deque<Future<Entry>> pending = new ArrayDeque<Future<Entry>>();
+        try {
+            Iterator<? extends Callable<Entry>> iterator = tasks.iterator();
+            int maxPending = 2 * Math.max(1, threads);
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < maxPending) {
+                    pending.add(executor.submit(iterator.next()));
+                }
+                Entry entry;
+                try {
+                    entry = pending.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+                putEntry(entry);
+            }
+        } finally {
+            for (Future<Entry> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralOffset = position;
+        for (CentralEntry centralEntry : entries) {
+            Entry entry = centralEntry.entry;
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            boolean zip64 = centralEntry.headerOffset >= ZIP64_MAGIC;
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(zip64 ? ZIP64_VERSION : VERSION);
+            writeShort(zip64 ? ZIP64_VERSION : VERSION);
+            writeShort(isAscii(entry.name) ? 0 : FLAG_UTF8);
+            writeShort(entry.method);
+            writeInt(dosTime(entry.time));
+            writeInt(entry.crc);
+            writeInt(entry.length);
+            writeInt(entry.size);
+            writeShort(name.length);
+            writeShort(zip64 ? 12 : 0);
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(0); // external attributes
+            writeInt(zip64 ? ZIP64_MAGIC : centralEntry.headerOffset);
+            writeBytes(name, 0, name.length);
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(8);
+                writeLong(centralEntry.headerOffset);
+            }
+        }
+        long centralSize = position - centralOffset;
+
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = position;
+            writeInt(ZIP64_END_SIGNATURE);
+            writeLong(44); // size of the rest of the record
+            writeShort(ZIP64_VERSION);
+            writeShort(ZIP64_VERSION);
+            writeInt(0); // disk number
+            writeInt(0); // disk with the central directory
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralOffset);
+
+            writeInt(ZIP64_LOCATOR_SIGNATURE);
+            writeInt(0); // disk with the zip64 end record
+            writeLong(zip64EndOffset);
+            writeInt(1); // number of disks
+        }
+
+        writeInt(END_SIGNATURE);
+        writeShort(0); // disk number
+        writeShort(0); // disk with the central directory
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(centralSize, ZIP64_MAGIC));
+        writeInt(Math.min(centralOffset, ZIP64_MAGIC));
+        writeShort(0); // comment length
+    }
+
+    /**
+     * Write the central directory and close the stream
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeCentralDirectory();
+        } finally {
+            out.close();
+        }
+    }
+}